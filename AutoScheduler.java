@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Fills in every module that is not on the timetable yet ("????? ?" in the file).
+ *
+ * Hard constraints are the same as the ones checked by the Save button:
+ * 1) the room must be big enough for the module
+ * 2) no two modules of the same programme at the same time
+ * 3) no two modules in the same room at the same time
+ * Modules that already have a time and a room are kept where they are.
+ *
+ * Each module's domain is a bitset of (time slot, room) pairs it could still go to.
+ * The module with the fewest options is placed first, and every placement removes the taken
+ * options from the other modules' domains (forward checking). If some module runs out of options,
+ * the search backtracks - up to a limit, after which such modules are left unplaced.
+ */
+public class AutoScheduler
+{
+	/**Default number of backtracks before the solver stops backtracking and drops failing modules*/
+	public static final int DEFAULT_BACKTRACK_LIMIT = 100000;
+
+	private final ScheduleProblem problem;
+	private final int roomAmount, slotAmount, words;
+	private final int backtrackLimit;
+	private final int wedPM; // index of the sports afternoon, -1 if there is none
+	private final long[] allowedCells; // bit (slot * roomAmount + room) set if modules may go there; null for every cell
+
+	private long[][] domain; // [module] -> bit (slot * roomAmount + room) set if the pair is still possible
+	private int[] domainSize;
+	private int[] assigned; // [module] -> value, or -1
+	private boolean[] open; // module still has to be placed
+	private int[] valueOrder; // values in the order they are tried: best-fitting rooms, WedPM last
+	private int[] trailModule, trailValue; // removed domain bits, so they can be put back on backtrack
+	private int trailSize;
+	private int backtracks;
+
+
+	/**
+	 * Creates a solver for the problem.
+	 * @param problem encoded timetable; modules with slot -1 will be scheduled
+	 * @param backtrackLimit how many times the search may backtrack before giving up on failing modules
+	 */
+	public AutoScheduler(ScheduleProblem problem, int backtrackLimit)
+	{
+		this(problem, backtrackLimit, null);
+	}
+
+
+	/**
+	 * Creates a solver that may only use some of the cells, e.g. the share of a component (see DecomposedScheduler).
+	 * @param problem encoded timetable; modules with slot -1 will be scheduled
+	 * @param backtrackLimit how many times the search may backtrack before giving up on failing modules
+	 * @param allowedCells bit (slot * rooms + room) set for every cell modules may be given, null for all of them
+	 */
+	public AutoScheduler(ScheduleProblem problem, int backtrackLimit, long[] allowedCells)
+	{
+		this.problem = problem;
+		this.backtrackLimit = backtrackLimit;
+		this.allowedCells = allowedCells;
+		roomAmount = problem.rooms.length;
+		slotAmount = problem.slots.length;
+		words = (roomAmount * slotAmount + 63) / 64;
+		wedPM = Arrays.asList(problem.slots).indexOf("WedPM");
+	}
+
+
+	/**
+	 * Creates a solver with the default backtrack limit.
+	 */
+	public AutoScheduler(ScheduleProblem problem)
+	{
+		this(problem, DEFAULT_BACKTRACK_LIMIT);
+	}
+
+
+	/**
+	 * Runs the search. The problem itself is not modified.
+	 * @return result holding a time and room for every module that could be placed
+	 */
+	public Result solve()
+	{
+		long start = System.nanoTime();
+		int n = problem.moduleAmount;
+		assigned = new int[n];
+		open = new boolean[n];
+		trailModule = new int[64];
+		trailValue = new int[64];
+		trailSize = 0;
+		backtracks = 0;
+		buildValueOrder();
+		ArrayList<String> impossible = initDomains();
+
+		// Explicit stack instead of recursion, the depth can be thousands of modules
+		int[] stackModule = new int[n], stackMark = new int[n], stackPos = new int[n];
+		int depth = 0;
+		ArrayList<String> dropped = new ArrayList<String>();
+
+		int next;
+		while ((next = selectModule()) != -1)
+		{
+			if (domainSize[next] == 0) // nothing left for it, and no budget to go back
+			{
+				open[next] = false;
+				dropped.add(problem.codes[next]);
+				continue;
+			}
+			stackModule[depth] = next;
+			stackMark[depth] = trailSize;
+			stackPos[depth] = 0;
+			depth++;
+
+			while (depth > 0 && !tryNextValue(stackModule[depth - 1], stackMark[depth - 1], stackPos, depth - 1))
+			{
+				int failed = stackModule[--depth]; // no value works for this module
+				if (depth == 0 || backtracks >= backtrackLimit)
+				{
+					open[failed] = false; // give up on it and carry on with the rest
+					dropped.add(problem.codes[failed]);
+					break;
+				}
+				backtracks++;
+				open[failed] = true;
+				int parent = stackModule[depth - 1];
+				undo(stackMark[depth - 1]); // take the parent's placement back and try its next value
+				assigned[parent] = -1;
+				open[parent] = true;
+			}
+		}
+
+		return new Result(problem, assigned, impossible, dropped, backtracks, System.nanoTime() - start);
+	}
+
+
+	/**
+	 * Orders the (slot, room) values: smallest rooms first so big rooms stay free for big modules,
+	 * and Wednesday afternoon last since it is reserved for sports.
+	 */
+	private void buildValueOrder()
+	{
+		long[] keys = new long[slotAmount * roomAmount]; // WedPM, capacity, value: sorted as plain numbers
+		for (int v = 0; v < keys.length; v++)
+			keys[v] = (v / roomAmount == wedPM ? 1L << 62 : 0) | (long) problem.capacity[v % roomAmount] << 32 | v;
+		Arrays.sort(keys);
+		valueOrder = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			valueOrder[i] = (int) keys[i];
+	}
+
+
+	/**
+	 * Computes the starting domain of every unplaced module from the room sizes and the modules
+	 * that are already on the timetable.
+	 * @return codes of modules with an empty starting domain: these can never be placed
+	 */
+	private ArrayList<String> initDomains()
+	{
+		int n = problem.moduleAmount;
+		boolean[] cellTaken = new boolean[slotAmount * roomAmount];
+		boolean[][] programmeBusy = new boolean[problem.programmeAmount()][slotAmount];
+		for (int i = 0; i < n; i++)
+			if (problem.isPlaced(i))
+			{
+				cellTaken[problem.slot[i] * roomAmount + problem.room[i]] = true;
+				programmeBusy[problem.programme[i]][problem.slot[i]] = true;
+			}
+
+		domain = new long[n][];
+		domainSize = new int[n];
+		ArrayList<String> impossible = new ArrayList<String>();
+		for (int i = 0; i < n; i++)
+		{
+			assigned[i] = -1;
+			if (problem.isPlaced(i))
+				continue; // pre-placed modules are not moved
+			domain[i] = new long[words];
+			for (int s = 0; s < slotAmount; s++)
+			{
+				if (programmeBusy[problem.programme[i]][s])
+					continue;
+				for (int r = 0; r < roomAmount; r++)
+				{
+					int v = s * roomAmount + r;
+					if (problem.capacity[r] >= problem.size[i] && !cellTaken[v]
+							&& (allowedCells == null || (allowedCells[v >>> 6] & (1L << v)) != 0))
+					{
+						domain[i][v >>> 6] |= 1L << v;
+						domainSize[i]++;
+					}
+				}
+			}
+			if (domainSize[i] == 0)
+				impossible.add(problem.codes[i]);
+			else
+				open[i] = true;
+		}
+		return impossible;
+	}
+
+
+	/**
+	 * Most constrained module first: fewest options left, bigger modules before smaller ones on a tie.
+	 * @return index of the module or -1 if all are done
+	 */
+	private int selectModule()
+	{
+		int best = -1;
+		for (int i = 0; i < problem.moduleAmount; i++)
+			if (open[i] && (best == -1 || domainSize[i] < domainSize[best]
+					|| (domainSize[i] == domainSize[best] && problem.size[i] > problem.size[best])))
+				best = i;
+		return best;
+	}
+
+
+	/**
+	 * Places the module at its next possible value that does not wipe out another module's domain.
+	 * While the backtrack budget lasts, values that leave another module with no options are skipped.
+	 * @return false if no value is left for the module
+	 */
+	private boolean tryNextValue(int module, int mark, int[] stackPos, int frame)
+	{
+		for (int pos = stackPos[frame]; pos < valueOrder.length; pos++)
+		{
+			int v = valueOrder[pos];
+			if ((domain[module][v >>> 6] & (1L << v)) == 0)
+				continue;
+			assigned[module] = v;
+			open[module] = false;
+			if (forwardCheck(module, v) && backtracks < backtrackLimit)
+			{
+				undo(mark); // somebody would be left with nothing, try the next value
+				backtracks++;
+				continue;
+			}
+			stackPos[frame] = pos + 1;
+			return true;
+		}
+		assigned[module] = -1;
+		return false;
+	}
+
+
+	/**
+	 * Removes the value from every open module, and the whole time slot from modules of the same programme.
+	 * @return true if some module was left with an empty domain
+	 */
+	private boolean forwardCheck(int module, int v)
+	{
+		boolean wipeout = false;
+		int slot = v / roomAmount;
+		for (int i = 0; i < problem.moduleAmount; i++)
+		{
+			if (!open[i])
+				continue;
+			if (problem.programme[i] == problem.programme[module])
+				for (int r = 0; r < roomAmount; r++)
+					remove(i, slot * roomAmount + r);
+			else
+				remove(i, v);
+			if (domainSize[i] == 0)
+				wipeout = true;
+		}
+		return wipeout;
+	}
+
+
+	/**
+	 * Clears a bit of the domain, remembering it on the trail.
+	 */
+	private void remove(int module, int v)
+	{
+		long bit = 1L << v;
+		if ((domain[module][v >>> 6] & bit) == 0)
+			return;
+		domain[module][v >>> 6] &= ~bit;
+		domainSize[module]--;
+		if (trailSize == trailModule.length)
+		{
+			trailModule = Arrays.copyOf(trailModule, trailSize * 2);
+			trailValue = Arrays.copyOf(trailValue, trailSize * 2);
+		}
+		trailModule[trailSize] = module;
+		trailValue[trailSize++] = v;
+	}
+
+
+	/**
+	 * Puts back every domain bit removed after the trail mark.
+	 */
+	private void undo(int mark)
+	{
+		while (trailSize > mark)
+		{
+			int module = trailModule[--trailSize], v = trailValue[trailSize];
+			domain[module][v >>> 6] |= 1L << v;
+			domainSize[module]++;
+		}
+	}
+
+
+	/**
+	 * Outcome of a scheduling run.
+	 */
+	public static class Result
+	{
+		private final ScheduleProblem problem;
+		private final int[] assigned; // [module] -> slot * rooms + room, or -1
+		private final ArrayList<String> impossible, dropped;
+		private final int backtracks;
+		private final long nanos;
+
+		private Result(ScheduleProblem problem, int[] assigned, ArrayList<String> impossible,
+				ArrayList<String> dropped, int backtracks, long nanos)
+		{
+			this.problem = problem;
+			this.assigned = assigned;
+			this.impossible = impossible;
+			this.dropped = dropped;
+			this.backtracks = backtracks;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * Result of an earlier run of the same problem, e.g. from SolveCache.
+		 * @param assigned [module] -> slot * rooms + room, or -1 if not placed
+		 */
+		public static Result of(ScheduleProblem problem, int[] assigned)
+		{
+			return new Result(problem, assigned, new ArrayList<String>(), new ArrayList<String>(), 0, 0);
+		}
+
+		/**
+		 * Writes the new times and rooms into the list through setModuleInfo.
+		 */
+		public void apply(ModulesList list)
+		{
+			for (int i = 0; i < assigned.length; i++)
+				if (assigned[i] != -1)
+					list.setModuleInfo(problem.codes[i], slotOf(i), roomOf(i));
+		}
+
+		/**Time slot given to the module, or null if it was not placed*/
+		public String slotOf(int module)
+		{
+			return assigned[module] == -1 ? null : problem.slots[assigned[module] / problem.rooms.length];
+		}
+
+		/**Room given to the module, or null if it was not placed*/
+		public String roomOf(int module)
+		{
+			return assigned[module] == -1 ? null : problem.rooms[assigned[module] % problem.rooms.length];
+		}
+
+		/**Time slot and room given to the module as slot * rooms + room, or -1 if it was not placed*/
+		public int valueOf(int module) {return assigned[module];}
+
+		/**Number of modules placed by this run*/
+		public int placedAmount()
+		{
+			int placed = 0;
+			for (int i = 0; i < assigned.length; i++)
+				if (assigned[i] != -1)
+					placed++;
+			return placed;
+		}
+
+		/**Modules that have no possible time and room even with everything else unplaced*/
+		public ArrayList<String> provablyUnplaceable() {return impossible;}
+
+		/**Modules the search gave up on after running out of backtracks*/
+		public ArrayList<String> notPlaced() {return dropped;}
+
+		public int getBacktracks() {return backtracks;}
+		public long getNanos() {return nanos;}
+
+		/**
+		 * Short human readable summary of the run.
+		 */
+		public String summary()
+		{
+			String text = String.format("Placed %d modules in %d ms (%d backtracks).%n",
+					placedAmount(), nanos / 1000000, backtracks);
+			if (!impossible.isEmpty())
+				text += "Cannot be placed anywhere: " + String.join(", ", impossible) + System.lineSeparator();
+			if (!dropped.isEmpty())
+				text += "Could not be placed: " + String.join(", ", dropped) + System.lineSeparator();
+			return text;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Schedules modules without the GUI.
+ *
+ * Reads a modules file, then applies "CODE TIME ROOM" commands (one per line) from a file or the
+ * standard input. Every command goes through the same checks as the Save button and is reported as
+ * accepted or rejected with the reason. The output file is written once, after the last command.
+ * Commands between a "BEGIN" and a "COMMIT" line are made together or not at all (see ModulesList.commit),
+ * so that modules can swap times or rooms. A "SCHEDULE" line places every module still without a time and room
+ * (see DecomposedScheduler); its results are kept in the folder of SolveCache.defaultDirectory(), so that
+ * a nightly run over nearly the same modules only solves what changed.
+ *
+ * Usage: TTA --batch modulesFile [commandsFile|-] [outputFile]
+ */
+public class BatchScheduler
+{
+	private final ModulesList timetable;
+	private final Writer report; // per command results
+	private int accepted, rejected;
+	private ModulesList.Transaction transaction; // commands since BEGIN, null outside of BEGIN...COMMIT
+	private int transactionLine; // line of the BEGIN
+
+
+	/**
+	 * Creates a batch run over the modules.
+	 * @param timetable modules the commands apply to
+	 * @param report where the result of every command is written
+	 */
+	public BatchScheduler(ModulesList timetable, Writer report)
+	{
+		this.timetable = timetable;
+		this.report = report;
+	}
+
+
+	/**
+	 * Entry point for the headless mode.
+	 * @param args modules file, commands file ("-" or nothing for the standard input), output file
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: TTA --batch modulesFile [commandsFile|-] [outputFile]");
+			System.exit(2);
+		}
+		String commandsPath = args.length > 1 ? args[1] : "-";
+		String outputPath = args.length > 2 ? args[2] : "ModulesOut.txt";
+
+		try
+		{
+			ModuleFileParser parser = new ModuleFileParser();
+			ModulesList timetable = parser.load(args[0]);
+			for (String error : parser.getErrors())
+				System.err.println(args[0] + ": " + error);
+			for (String error : EnrolmentConflicts.attachIfPresent(timetable, args[0]))
+				System.err.println(EnrolmentConflicts.DEFAULT_PATH + ": " + error);
+
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+			BatchScheduler batch = new BatchScheduler(timetable, out);
+			InputStream in = commandsPath.equals("-") ? System.in : new FileInputStream(commandsPath);
+			long start = System.nanoTime();
+			batch.run(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16));
+			long nanos = System.nanoTime() - start;
+			in.close();
+
+			try (Writer file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputPath),
+					StandardCharsets.UTF_8), 1 << 16))
+			{
+				timetable.writeModules(file); // written once, at the end
+			}
+
+			int total = batch.accepted + batch.rejected;
+			out.write(String.format("%d commands (%d accepted, %d rejected) in %d ms, %.0f commands/s%n",
+					total, batch.accepted, batch.rejected, nanos / 1000000, total * 1e9 / Math.max(1, nanos)));
+			out.flush();
+		}
+		catch (IOException e)
+		{
+			System.err.println("I/O Exception: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * Applies every command of the input.
+	 * @param commands lines of "CODE TIME ROOM", "BEGIN", "COMMIT" or "SCHEDULE"; blank lines are skipped
+	 * @throws IOException if the commands cannot be read or the results written
+	 */
+	public void run(BufferedReader commands) throws IOException
+	{
+		String line;
+		int lineNumber = 0;
+		String[] fields = new String[3];
+		while ((line = commands.readLine()) != null)
+		{
+			lineNumber++;
+			int count = split(line, fields);
+			if (count == 0)
+				continue;
+			if (count == 1 && (fields[0].equals("BEGIN") || fields[0].equals("COMMIT")))
+			{
+				transaction(lineNumber, fields[0]);
+				continue;
+			}
+			if (count == 1 && fields[0].equals("SCHEDULE"))
+			{
+				schedule(lineNumber);
+				continue;
+			}
+			if (count != 3)
+			{
+				rejected++;
+				report.write("line " + lineNumber + ": rejected: expected CODE TIME ROOM" + System.lineSeparator());
+				continue;
+			}
+			if (transaction != null)
+				transaction.move(fields[0], fields[1], fields[2]);
+			else
+				apply(lineNumber, fields[0], fields[1], fields[2]);
+		}
+		if (transaction != null)
+		{
+			rejected += transaction.size();
+			report.write("line " + transactionLine + ": rejected: BEGIN without COMMIT" + System.lineSeparator());
+			transaction = null;
+		}
+	}
+	
+	
+	/**
+	 * Starts collecting commands, or commits the collected ones and reports the outcome.
+	 */
+	private void transaction(int lineNumber, String command) throws IOException
+	{
+		if (command.equals("BEGIN") == (transaction != null))
+		{
+			rejected++;
+			report.write("line " + lineNumber + ": rejected: " + (transaction != null ? "BEGIN inside a transaction"
+					: "COMMIT without BEGIN") + System.lineSeparator());
+			return;
+		}
+		if (command.equals("BEGIN"))
+		{
+			transaction = new ModulesList.Transaction();
+			transactionLine = lineNumber;
+			return;
+		}
+		SaveCheck check = timetable.commit(transaction);
+		report.write("line " + lineNumber + ": transaction of " + transaction.size() + " moves");
+		if (check == SaveCheck.OK)
+		{
+			accepted += transaction.size();
+			report.write(": accepted");
+		}
+		else
+		{
+			rejected += transaction.size();
+			report.write(": rejected: " + transaction.getFailedCode() + ": " + check.getMessage());
+		}
+		report.write(System.lineSeparator());
+		transaction = null;
+	}
+
+
+	/**
+	 * Places every module without a time and room, and reports the outcome.
+	 */
+	private void schedule(int lineNumber) throws IOException
+	{
+		if (transaction != null)
+		{
+			rejected++;
+			report.write("line " + lineNumber + ": rejected: SCHEDULE inside a transaction" + System.lineSeparator());
+			return;
+		}
+		report.write("line " + lineNumber + ": " + DecomposedScheduler.scheduleAll(timetable).summary());
+	}
+
+
+	/**
+	 * Checks one command like the Save button does and applies it if it passes.
+	 */
+	private void apply(int lineNumber, String code, String time, String room) throws IOException
+	{
+		SaveCheck check = timetable.checkSave(code, time, room);
+		report.write("line ");
+		report.write(Integer.toString(lineNumber));
+		report.write(": ");
+		report.write(code);
+		if (check == SaveCheck.OK)
+		{
+			timetable.setModuleInfo(code, time, room);
+			accepted++;
+			report.write(time.equals("WedPM") ? ": accepted (Wednesday afternoon is reserved for sports)" : ": accepted");
+		}
+		else
+		{
+			rejected++;
+			report.write(": rejected: ");
+			report.write(check.getMessage());
+		}
+		report.write(System.lineSeparator());
+	}
+
+
+	/**
+	 * Splits the line on spaces and tabs into at most fields.length fields.
+	 * @return number of fields on the line (may be more than were stored)
+	 */
+	private static int split(String line, String[] fields)
+	{
+		int count = 0, pos = 0, length = line.length();
+		while (pos < length)
+		{
+			while (pos < length && Character.isWhitespace(line.charAt(pos)))
+				pos++;
+			if (pos == length)
+				break;
+			int start = pos;
+			while (pos < length && !Character.isWhitespace(line.charAt(pos)))
+				pos++;
+			if (count < fields.length)
+				fields[count] = line.substring(start, pos);
+			count++;
+		}
+		return count;
+	}
+
+
+	public int getAccepted() {return accepted;}
+	public int getRejected() {return rejected;}
+}
@@ -0,0 +1,301 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Answers capacity planning questions such as "would another 100 seat room, or giving up Wednesday afternoon,
+ * let every module be scheduled?".
+ *
+ * Every configuration of rooms (with their sizes) and time slots is given all the modules with none of them
+ * scheduled, and AutoScheduler tries to place them under the rules of the Save button: the room must be big
+ * enough, one module of a programme at a time, one module per room at a time. The configurations are solved
+ * at the same time on a fork-join pool. They share the module arrays of one ScheduleProblem, so the modules
+ * file is read once, whatever the number of configurations.
+ *
+ * A configuration is either a catalogue file (see Catalogue) or changes to the rooms and slots of the
+ * timetable, separated by commas: "+room NAME SEATS", "-room NAME", "+slot NAME" or "-slot NAME".
+ *
+ * Usage: TTA --sweep modulesFile configuration...
+ */
+public class CapacitySweep
+{
+	private final ScheduleProblem problem; // modules shared by every configuration
+	private final Catalogue current;
+
+
+	/**
+	 * Creates a sweep over the modules of the list. Rooms withdrawn from it fit no module in the current configuration.
+	 */
+	public CapacitySweep(ModulesList list)
+	{
+		problem = new ScheduleProblem(list);
+		current = new Catalogue(problem.rooms, problem.capacity, problem.slots);
+	}
+
+
+	/**
+	 * Rooms and time slots the timetable has now, to compare the other configurations with.
+	 */
+	public Configuration current()
+	{
+		return new Configuration("current", current);
+	}
+
+
+	/**
+	 * Reads a configuration.
+	 * @param spec path of a catalogue file, or changes to the current rooms and slots (see the class comment)
+	 * @throws IOException if the catalogue file cannot be read
+	 * @throws IllegalArgumentException if a change is not understood, or leaves a room or slot listed twice
+	 */
+	public Configuration configuration(String spec) throws IOException
+	{
+		if (Files.isRegularFile(Paths.get(spec)))
+			return new Configuration(spec, Catalogue.load(spec));
+
+		ArrayList<String> rooms = new ArrayList<String>(Arrays.asList(current.getRooms()));
+		ArrayList<String> slots = new ArrayList<String>(Arrays.asList(current.getSlots()));
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		for (int capacity : current.getCapacity())
+			sizes.add(capacity);
+		for (String change : spec.split(","))
+		{
+			String[] fields = change.trim().split("\\s+");
+			if (fields[0].equals("+room") && fields.length == 3 && fields[2].matches("\\d{1,9}"))
+			{
+				rooms.add(fields[1]);
+				sizes.add(Integer.parseInt(fields[2]));
+			}
+			else if (fields[0].equals("-room") && fields.length == 2)
+			{
+				int room = rooms.indexOf(fields[1]);
+				if (room == -1)
+					throw new IllegalArgumentException(spec + ": there is no room " + fields[1] + ".");
+				rooms.remove(room);
+				sizes.remove(room);
+			}
+			else if (fields[0].equals("+slot") && fields.length == 2)
+				slots.add(fields[1]);
+			else if (fields[0].equals("-slot") && fields.length == 2)
+			{
+				if (!slots.remove(fields[1]))
+					throw new IllegalArgumentException(spec + ": there is no time slot " + fields[1] + ".");
+			}
+			else
+				throw new IllegalArgumentException(spec + ": expected a catalogue file or changes like "
+						+ "'+room NAME SEATS', '-room NAME', '+slot NAME', '-slot NAME'.");
+		}
+
+		int[] capacity = new int[sizes.size()];
+		for (int r = 0; r < capacity.length; r++)
+			capacity[r] = sizes.get(r);
+		return new Configuration(spec, new Catalogue(rooms.toArray(new String[0]), capacity, slots.toArray(new String[0])));
+	}
+
+
+	/**
+	 * Tries to schedule all the modules in every configuration.
+	 * @param configurations configurations to be tried
+	 * @param pool pool the configurations are solved on
+	 * @return result of every configuration, in the same order
+	 */
+	public Result[] run(List<Configuration> configurations, ForkJoinPool pool)
+	{
+		Result[] results = new Result[configurations.size()];
+		pool.invoke(new SweepTask(configurations, results, 0, results.length));
+		return results;
+	}
+
+
+	/**
+	 * Solves a range of configurations, splitting it in halves until one is left.
+	 */
+	private class SweepTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final List<Configuration> configurations;
+		private final Result[] results;
+		private final int from, to;
+
+		SweepTask(List<Configuration> configurations, Result[] results, int from, int to)
+		{
+			this.configurations = configurations;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if (to - from > 1)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new SweepTask(configurations, results, from, middle), new SweepTask(configurations, results, middle, to));
+				return;
+			}
+			if (from == to)
+				return;
+			Configuration configuration = configurations.get(from);
+			ScheduleProblem part = problem.unscheduled(configuration.catalogue);
+			results[from] = new Result(configuration, part, new AutoScheduler(part).solve());
+		}
+	}
+
+
+	/**
+	 * Entry point for the sweep.
+	 * @param args modules file, then one argument per configuration
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: TTA --sweep modulesFile [catalogueFile|\"+room NAME SEATS,-slot NAME,...\"]...");
+			System.exit(2);
+		}
+		try
+		{
+			ModuleFileParser parser = new ModuleFileParser();
+			ModulesList timetable = parser.load(args[0]);
+			for (String error : parser.getErrors())
+				System.err.println(args[0] + ": " + error);
+
+			CapacitySweep sweep = new CapacitySweep(timetable);
+			ArrayList<Configuration> configurations = new ArrayList<Configuration>();
+			configurations.add(sweep.current());
+			for (int i = 1; i < args.length; i++)
+				configurations.add(sweep.configuration(args[i]));
+
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			long start = System.nanoTime();
+			Result[] results = sweep.run(configurations, pool);
+			long nanos = System.nanoTime() - start;
+
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+			for (Result result : results)
+				out.write(result.summary());
+			out.write(String.format("%d configurations of %d modules in %d ms on %d threads%n", results.length,
+					timetable.getStore().size(), nanos / 1000000, pool.getParallelism()));
+			out.flush();
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+		catch (IOException e)
+		{
+			System.err.println("I/O Exception: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * Rooms and time slots to try the modules in.
+	 */
+	public static class Configuration
+	{
+		private final String name;
+		private final Catalogue catalogue;
+
+		/**
+		 * @param name how the configuration is shown in the results
+		 * @param catalogue its rooms and time slots
+		 */
+		public Configuration(String name, Catalogue catalogue)
+		{
+			this.name = name;
+			this.catalogue = catalogue;
+		}
+
+		public String getName() {return name;}
+		public Catalogue getCatalogue() {return catalogue;}
+	}
+
+
+	/**
+	 * How well the modules fit in one configuration.
+	 */
+	public static class Result
+	{
+		private final Configuration configuration;
+		private final AutoScheduler.Result solved;
+		private final int modules, placed;
+		private final long students, seats, seatsTaken; // students placed, seats of every room in every slot, seats of the cells given
+
+		private Result(Configuration configuration, ScheduleProblem part, AutoScheduler.Result solved)
+		{
+			this.configuration = configuration;
+			this.solved = solved;
+			Catalogue catalogue = configuration.catalogue;
+			modules = part.moduleAmount;
+			long seatsPerSlot = 0;
+			for (int capacity : catalogue.getCapacity())
+				seatsPerSlot += Math.max(0, capacity);
+			seats = seatsPerSlot * catalogue.slotAmount();
+			int placedModules = 0;
+			long placedStudents = 0, takenSeats = 0;
+			for (int i = 0; i < modules; i++)
+			{
+				String room = solved.roomOf(i);
+				if (room == null)
+					continue;
+				placedModules++;
+				placedStudents += part.size[i];
+				takenSeats += catalogue.capacityOf(catalogue.roomIndex(room));
+			}
+			placed = placedModules;
+			students = placedStudents;
+			seatsTaken = takenSeats;
+		}
+
+		public Configuration getConfiguration() {return configuration;}
+		/**Times and rooms found, by module index of the list*/
+		public AutoScheduler.Result getSchedule() {return solved;}
+		public int placedAmount() {return placed;}
+
+		/**Share of the modules that were placed, 1 if there are none*/
+		public double placementRate() {return modules == 0 ? 1 : (double) placed / modules;}
+
+		/**Share of the seats of the week (every room in every slot) taken by students*/
+		public double seatUtilisation() {return seats == 0 ? 0 : (double) students / seats;}
+
+		/**Share of the seats of the rooms given to modules that their students take*/
+		public double roomFill() {return seatsTaken == 0 ? 0 : (double) students / seatsTaken;}
+
+		/**Modules that did not get a time and room: those no room and slot can take, then those the search gave up on*/
+		public List<String> unplaceable()
+		{
+			ArrayList<String> codes = new ArrayList<String>(solved.provablyUnplaceable());
+			codes.addAll(solved.notPlaced());
+			return codes;
+		}
+
+		/**
+		 * Short human readable summary of the configuration.
+		 */
+		public String summary()
+		{
+			Catalogue catalogue = configuration.catalogue;
+			String text = String.format("%s (%d rooms, %d slots): placed %d of %d modules (%.1f%%), "
+					+ "%.1f%% of seats used, rooms %.1f%% full, in %d ms.%n", configuration.name, catalogue.roomAmount(),
+					catalogue.slotAmount(), placed, modules, 100 * placementRate(), 100 * seatUtilisation(),
+					100 * roomFill(), solved.getNanos() / 1000000);
+			if (!solved.provablyUnplaceable().isEmpty())
+				text += "  Cannot be placed anywhere: " + String.join(", ", solved.provablyUnplaceable()) + System.lineSeparator();
+			if (!solved.notPlaced().isEmpty())
+				text += "  Could not be placed: " + String.join(", ", solved.notPlaced()) + System.lineSeparator();
+			return text;
+		}
+	}
+}
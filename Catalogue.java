@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Rooms (with their sizes) and time slots of the timetable.
+ * Read from a config file with one "room NAME SEATS" or "slot NAME" per line ('#' starts a comment),
+ * so that the campus can change without changing the code. Rooms and slots are referred to by
+ * their position in the catalogue everywhere else.
+ */
+public class Catalogue
+{
+	/**Config file read by getDefault()*/
+	public static final String CONFIG_PATH = "Timetable.cfg";
+
+	/**Used when there is no config file: the rooms and slots the program always had*/
+	private static final String[] BUILT_IN_ROOMS = {"A","B","C","D","E","F","G","H"};
+	private static final int[] BUILT_IN_SIZES = {100,100,60,60,60,30,30,30};
+	private static final String[] BUILT_IN_SLOTS = {"MonAM","MonPM","TueAM","TuePM", "WedAM","WedPM","ThuAM","ThuPM","FriAM","FriPM"};
+
+	private static Catalogue defaultCatalogue;
+
+	private final String[] rooms, slots;
+	private final int[] capacity;
+	private final HashMap<String, Integer> roomIndex = new HashMap<String, Integer>();
+	private final HashMap<String, Integer> slotIndex = new HashMap<String, Integer>();
+
+
+	/**
+	 * Creates a catalogue from room and slot lists.
+	 * @param rooms room names
+	 * @param capacity seats per room, same order as rooms
+	 * @param slots time slot names, in timetable order
+	 */
+	public Catalogue(String[] rooms, int[] capacity, String[] slots)
+	{
+		if (rooms.length != capacity.length)
+			throw new IllegalArgumentException("Every room needs a size.");
+		this.rooms = rooms;
+		this.capacity = capacity;
+		this.slots = slots;
+		for (int i = 0; i < rooms.length; i++)
+			if (roomIndex.put(rooms[i], i) != null)
+				throw new IllegalArgumentException("Room " + rooms[i] + " is listed twice.");
+		for (int i = 0; i < slots.length; i++)
+			if (slotIndex.put(slots[i], i) != null)
+				throw new IllegalArgumentException("Time slot " + slots[i] + " is listed twice.");
+	}
+
+
+	/**
+	 * Reads a catalogue from a config file.
+	 * @param path config file
+	 * @throws IOException if the file cannot be read or a line is not understood
+	 */
+	public static Catalogue load(String path) throws IOException
+	{
+		ArrayList<String> rooms = new ArrayList<String>(), slots = new ArrayList<String>();
+		ArrayList<Integer> sizes = new ArrayList<Integer>();
+		int lineNumber = 0;
+		for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8))
+		{
+			lineNumber++;
+			int comment = line.indexOf('#');
+			String[] fields = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+			if (fields.length == 1 && fields[0].isEmpty())
+				continue; // blank or comment line
+			if (fields[0].equals("room") && fields.length == 3 && fields[2].matches("\\d+"))
+			{
+				rooms.add(fields[1]);
+				sizes.add(Integer.parseInt(fields[2]));
+			}
+			else if (fields[0].equals("slot") && fields.length == 2)
+				slots.add(fields[1]);
+			else
+				throw new IOException(path + " line " + lineNumber + ": expected 'room NAME SEATS' or 'slot NAME'.");
+		}
+
+		int[] capacity = new int[sizes.size()];
+		for (int i = 0; i < capacity.length; i++)
+			capacity[i] = sizes.get(i);
+		try
+		{
+			return new Catalogue(rooms.toArray(new String[0]), capacity, slots.toArray(new String[0]));
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException(path + ": " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Catalogue used by the program: read from CONFIG_PATH if it exists, the built-in rooms and slots otherwise.
+	 * A config file that cannot be read is reported and the built-in catalogue is used instead.
+	 */
+	public static synchronized Catalogue getDefault()
+	{
+		if (defaultCatalogue == null)
+		{
+			defaultCatalogue = new Catalogue(BUILT_IN_ROOMS, BUILT_IN_SIZES, BUILT_IN_SLOTS);
+			if (Files.exists(Paths.get(CONFIG_PATH)))
+			{
+				try
+				{
+					defaultCatalogue = load(CONFIG_PATH);
+				}
+				catch (IOException e)
+				{
+					System.err.println(e.getMessage() + " Using the built-in rooms and time slots.");
+				}
+			}
+		}
+		return defaultCatalogue;
+	}
+
+
+	/**Getters; the arrays are copies, so that callers cannot change the catalogue*/
+	public String[] getRooms() {return rooms.clone();}
+	public int[] getCapacity() {return capacity.clone();}
+	public String[] getSlots() {return slots.clone();}
+	public int roomAmount() {return rooms.length;}
+	public int slotAmount() {return slots.length;}
+	public String roomName(int room) {return rooms[room];}
+	public String slotName(int slot) {return slots[slot];}
+	public int capacityOf(int room) {return capacity[room];}
+
+
+	/**
+	 * Finds the position of a room.
+	 * @return index of the room or -1 if there is no such room
+	 */
+	public int roomIndex(String room)
+	{
+		Integer index = roomIndex.get(room);
+		return index == null ? -1 : index;
+	}
+
+
+	/**
+	 * Finds the position of a time slot.
+	 * @return index of the slot or -1 if there is no such slot
+	 */
+	public int slotIndex(String slot)
+	{
+		Integer index = slotIndex.get(slot);
+		return index == null ? -1 : index;
+	}
+}
@@ -0,0 +1,427 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Keeps the output file up to date without rewriting it on every save.
+ *
+ * Every change made through ModulesList.setModuleInfo is appended to a journal file as a
+ * "CODE TIME ROOM" line by a background thread. Changes that arrive while the previous ones are
+ * being written go out together in one write (and one fsync, if enabled). The moves of a committed
+ * transaction (ModulesList.commit) are written as one "CODE TIME ROOM CODE TIME ROOM..." line, and a
+ * last line cut short by a crash is not replayed, so recovery gets all of them or none. A new number of
+ * students (ModulesList.setModuleSize) is written as a "CODE SIZE" line. A module that is added
+ * (ModulesList.addModule) is written as its full line after a '+', "+CODE TITLE TIME ROOM SIZE", and one that
+ * is removed (ModulesList.removeModule) as "-CODE". Every compactEvery changes, the thread writes a full
+ * snapshot in the usual ModulesOut.txt format and empties the journal.
+ *
+ * The thread keeps its own copy of the module information, so snapshots never touch the ModulesList
+ * (which belongs to the Swing thread). If the program stops without closing the journal, the next
+ * start rebuilds the modules from the snapshot and the journal with recover().
+ */
+public class ChangeJournal implements ModulesList.ChangeListener
+{
+	/**Default number of journalled changes between two snapshots*/
+	public static final int DEFAULT_COMPACT_EVERY = 1000;
+
+	private static final String[] STOP = new String[0]; // tells the writer thread to finish
+	private static final String ADDED = new String("+"), REMOVED = new String("-"); // first field of such entries
+
+	private final Path snapshotPath, journalPath;
+	private final boolean fsync;
+	private final int compactEvery;
+	private final LinkedBlockingQueue<String[]> queue = new LinkedBlockingQueue<String[]>();
+	private final Thread writer;
+	private volatile IOException failure; // last write error, reported by close()
+
+	/**Writer thread's copy of the modules, in file order*/
+	private String[] codes, titles, times, rooms;
+	private int[] sizes;
+	private int amount; // modules in the copy
+	private final HashMap<String, Integer> codeIndex = new HashMap<String, Integer>();
+
+	private FileChannel journal;
+	private int journalled; // changes in the journal since the last snapshot
+
+
+	/**
+	 * Starts journalling the changes of the timetable. Writes a snapshot of its current state first,
+	 * so that the journal always applies to the snapshot next to it.
+	 * @param timetable modules whose changes are journalled
+	 * @param snapshotPath full output file, e.g. ModulesOut.txt
+	 * @param fsync whether every group of changes is forced to disk before the next one is written
+	 * @param compactEvery number of changes after which a new snapshot is written
+	 * @throws IOException if the snapshot or journal cannot be written
+	 */
+	public ChangeJournal(ModulesList timetable, String snapshotPath, boolean fsync, int compactEvery) throws IOException
+	{
+		this.snapshotPath = Paths.get(snapshotPath);
+		this.journalPath = journalPathOf(snapshotPath);
+		this.fsync = fsync;
+		this.compactEvery = compactEvery;
+
+		Module[] modules = timetable.returnModules();
+		codes = new String[modules.length];
+		titles = new String[modules.length];
+		times = new String[modules.length];
+		rooms = new String[modules.length];
+		sizes = new int[modules.length];
+		amount = modules.length;
+		for (int i = 0; i < modules.length; i++)
+		{
+			codes[i] = modules[i].getCode();
+			titles[i] = modules[i].getTitle();
+			times[i] = modules[i].getTimeslot();
+			rooms[i] = modules[i].getRoom();
+			sizes[i] = modules[i].getSize();
+			if (!codeIndex.containsKey(codes[i]))
+				codeIndex.put(codes[i], i); // same module findModule would change
+		}
+
+		compact();
+		timetable.addChangeListener(this);
+		writer = new Thread(new Runnable() {
+			public void run() {writeLoop();}
+		}, "ChangeJournal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+
+	/**
+	 * Journal file that belongs to a snapshot file.
+	 */
+	public static Path journalPathOf(String snapshotPath)
+	{
+		return Paths.get(snapshotPath + ".journal");
+	}
+
+
+	/**
+	 * Checks whether the last run ended without closing its journal.
+	 * @param snapshotPath full output file, e.g. ModulesOut.txt
+	 */
+	public static boolean needsRecovery(String snapshotPath)
+	{
+		return Files.exists(journalPathOf(snapshotPath));
+	}
+
+
+	/**
+	 * Rebuilds the modules left by the last run: reads the snapshot and applies the journal to it.
+	 * Added and removed modules are added and removed again, so the modules keep the order (and IDs) they had.
+	 * A last line cut short (e.g. a crash during a write) and changes of unknown modules are ignored.
+	 * @param snapshotPath full output file, e.g. ModulesOut.txt
+	 * @param inputPath file to start from if no snapshot was written yet
+	 * @return the rebuilt list of modules
+	 * @throws IOException if the files cannot be read
+	 */
+	public static ModulesList recover(String snapshotPath, String inputPath) throws IOException
+	{
+		String start = Files.exists(Paths.get(snapshotPath)) ? snapshotPath : inputPath;
+		ModulesList timetable = new ModuleFileParser().load(start);
+
+		String text = new String(Files.readAllBytes(journalPathOf(snapshotPath)), StandardCharsets.UTF_8);
+		String[] lines = text.split("\n", -1); // the last one is empty, unless it was cut short
+		for (int line = 0; line < lines.length - 1; line++)
+		{
+			String[] changes = lines[line].trim().split("\\s+");
+			if (changes.length == 5 && changes[0].startsWith(ADDED) && changes[4].matches("\\d+"))
+			{
+				timetable.addModule(changes[0].substring(1), changes[1], changes[2], changes[3], Integer.parseInt(changes[4]));
+				continue;
+			}
+			if (changes.length == 1 && changes[0].startsWith(REMOVED))
+			{
+				timetable.removeModule(changes[0].substring(1));
+				continue;
+			}
+			if (changes.length == 2 && changes[1].matches("\\d+"))
+				timetable.setModuleSize(changes[0], Integer.parseInt(changes[1]));
+			if (changes.length % 3 != 0)
+				continue;
+			for (int change = 0; change < changes.length; change += 3) // one change, or a whole transaction
+				if (timetable.findModule(changes[change]) != null)
+					timetable.setModuleInfo(changes[change], changes[change + 1], changes[change + 2]);
+		}
+		return timetable;
+	}
+
+
+	/**
+	 * Queues a change for the writer thread. Called by ModulesList.setModuleInfo.
+	 */
+	public void moduleChanged(String code, String time, String room)
+	{
+		queue.add(new String[] {code, time, room});
+	}
+
+
+	/**
+	 * Queues a new number of students. Called by ModulesList.setModuleSize.
+	 */
+	public void moduleResized(String code, int size)
+	{
+		queue.add(new String[] {code, Integer.toString(size)});
+	}
+
+
+	/**
+	 * Queues a new module. Called by ModulesList.addModule.
+	 */
+	public void moduleAdded(String code, String title, String time, String room, int size)
+	{
+		queue.add(new String[] {ADDED, code, title, time, room, Integer.toString(size)});
+	}
+
+
+	/**
+	 * Queues the removal of a module. Called by ModulesList.removeModule.
+	 */
+	public void moduleRemoved(String code, int id)
+	{
+		queue.add(new String[] {REMOVED, code});
+	}
+
+
+	/**
+	 * Queues the changes of a transaction as one entry, so that they are written on one line.
+	 * Called by ModulesList.commit.
+	 */
+	public void modulesChanged(String[] codes, String[] times, String[] rooms)
+	{
+		String[] changes = new String[codes.length * 3];
+		for (int i = 0; i < codes.length; i++)
+		{
+			changes[3 * i] = codes[i];
+			changes[3 * i + 1] = times[i];
+			changes[3 * i + 2] = rooms[i];
+		}
+		queue.add(changes);
+	}
+
+
+	/**
+	 * Writes everything still queued, writes a final snapshot and removes the journal.
+	 * @throws IOException if any write failed since the journal was opened
+	 */
+	public void close() throws IOException
+	{
+		queue.add(STOP);
+		try
+		{
+			writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		if (failure == null)
+		{
+			try
+			{
+				compact();
+				journal.close();
+				Files.deleteIfExists(journalPath);
+			}
+			catch (IOException e)
+			{
+				failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+
+	/**
+	 * Writer thread: takes all changes that are waiting, appends them in a single write,
+	 * and compacts once enough changes have piled up.
+	 */
+	private void writeLoop()
+	{
+		ArrayList<String[]> batch = new ArrayList<String[]>();
+		StringBuilder text = new StringBuilder();
+		boolean stop = false;
+		while (!stop)
+		{
+			try
+			{
+				batch.add(queue.take()); // wait for the first one
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			queue.drainTo(batch); // and group it with whatever else arrived
+
+			text.setLength(0);
+			for (String[] change : batch)
+			{
+				if (change == STOP)
+				{
+					stop = true;
+					break;
+				}
+				int lineStart = text.length();
+				if (change[0] == ADDED || change[0] == REMOVED)
+				{
+					if (reshape(change))
+					{
+						text.append(change[0]).append(change[1]);
+						for (int i = 2; i < change.length; i++)
+							text.append(' ').append(change[i]);
+						text.append('\n');
+						journalled++;
+					}
+					continue;
+				}
+				if (change.length == 2) // new size
+				{
+					Integer index = codeIndex.get(change[0]);
+					if (index != null)
+					{
+						sizes[index] = Integer.parseInt(change[1]);
+						text.append(change[0]).append(' ').append(change[1]).append('\n');
+						journalled++;
+					}
+					continue;
+				}
+				for (int i = 0; i < change.length; i += 3) // one change, or all those of a transaction
+				{
+					Integer index = codeIndex.get(change[i]);
+					if (index == null)
+						continue;
+					times[index] = change[i + 1];
+					rooms[index] = change[i + 2];
+					text.append(text.length() > lineStart ? " " : "").append(change[i]).append(' ')
+							.append(change[i + 1]).append(' ').append(change[i + 2]);
+					journalled++;
+				}
+				if (text.length() > lineStart)
+					text.append('\n');
+			}
+			batch.clear();
+
+			if (failure != null || text.length() == 0)
+				continue;
+			try
+			{
+				ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+				while (bytes.hasRemaining())
+					journal.write(bytes);
+				if (fsync)
+					journal.force(false);
+				if (journalled >= compactEvery && !stop)
+					compact();
+			}
+			catch (IOException e)
+			{
+				failure = e; // keep the in-memory copy going; close() reports the error
+			}
+		}
+	}
+
+
+	/**
+	 * Adds or removes a module in the writer thread's copy, the way the ModuleStore does:
+	 * the last module takes the place of a removed one.
+	 * @return false if a removed module was not in the copy, so there is nothing to journal
+	 */
+	private boolean reshape(String[] change)
+	{
+		if (change[0] == ADDED)
+		{
+			if (amount == codes.length)
+			{
+				int capacity = Math.max(16, amount * 2);
+				codes = Arrays.copyOf(codes, capacity);
+				titles = Arrays.copyOf(titles, capacity);
+				times = Arrays.copyOf(times, capacity);
+				rooms = Arrays.copyOf(rooms, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+			}
+			codes[amount] = change[1];
+			titles[amount] = change[2];
+			times[amount] = change[3];
+			rooms[amount] = change[4];
+			sizes[amount] = Integer.parseInt(change[5]);
+			codeIndex.putIfAbsent(change[1], amount++);
+			return true;
+		}
+		Integer index = codeIndex.remove(change[1]);
+		if (index == null)
+			return false;
+		int last = --amount;
+		if (index != last)
+		{
+			codes[index] = codes[last];
+			titles[index] = titles[last];
+			times[index] = times[last];
+			rooms[index] = rooms[last];
+			sizes[index] = sizes[last];
+			if (Integer.valueOf(last).equals(codeIndex.get(codes[index])))
+				codeIndex.put(codes[index], index);
+		}
+		codes[last] = titles[last] = times[last] = rooms[last] = null;
+		return true;
+	}
+
+
+	/**
+	 * Writes a full snapshot next to the old one, moves it into place and starts an empty journal.
+	 * If the program stops between the move and the truncation, replaying the old journal on the
+	 * new snapshot gives the same result, since every journal line sets an absolute time, room or size,
+	 * and adding a module that is there already, or removing one that is not, changes nothing.
+	 */
+	private void compact() throws IOException
+	{
+		long start = TimetableMetrics.get().start();
+		File temp = new File(snapshotPath + ".tmp");
+		try (FileOutputStream stream = new FileOutputStream(temp);
+				BufferedWriter out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8)))
+		{
+			for (int i = 0; i < amount; i++)
+			{
+				out.write(codes[i]);
+				out.write(' ');
+				out.write(titles[i]);
+				out.write(' ');
+				out.write(times[i]);
+				out.write(' ');
+				out.write(rooms[i]);
+				out.write(' ');
+				out.write(Integer.toString(sizes[i]));
+				out.write(' ');
+				out.write(System.lineSeparator()); // same layout as Module.outp
+			}
+			out.flush();
+			if (fsync)
+				stream.getFD().sync();
+		}
+		Files.move(temp.toPath(), snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		if (journal == null)
+			journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND);
+		journal.truncate(0);
+		if (fsync)
+			journal.force(true);
+		journalled = 0;
+		TimetableMetrics.get().record(TimetableMetrics.Operation.WRITE_FILE, start);
+	}
+}
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable set of small non-negative ints (student or module IDs), stored in whichever of two forms is
+ * smaller for it: a sorted int array while the set is sparse, or a plain bitmap once more than 1 in 32
+ * of the possible values are in it. Enrolment data is mostly sparse (a student takes a handful of the
+ * modules, a module has a small share of the students), so most sets stay arrays of a few ints,
+ * while large lectures still cost at most one bit per student.
+ */
+public final class CompressedBitSet
+{
+	private static final int[] NONE = new int[0];
+
+	private final int[] values; // sorted, if sparse
+	private final long[] bits; // bitmap, if dense; null otherwise
+	private final int cardinality;
+
+
+	private CompressedBitSet(int[] values, long[] bits, int cardinality)
+	{
+		this.values = values;
+		this.bits = bits;
+		this.cardinality = cardinality;
+	}
+
+
+	/**
+	 * Makes a set of the given values.
+	 * @param sorted values in increasing order, without repeats; not kept, so it can be reused by the caller
+	 * @param length number of values in the array to use
+	 * @param universe every value is below this
+	 */
+	public static CompressedBitSet of(int[] sorted, int length, int universe)
+	{
+		if ((long) length * 32 <= universe) // array is smaller than the bitmap
+			return new CompressedBitSet(length == 0 ? NONE : Arrays.copyOf(sorted, length), null, length);
+		long[] bits = new long[(universe + 63) >>> 6];
+		for (int i = 0; i < length; i++)
+			bits[sorted[i] >>> 6] |= 1L << sorted[i];
+		return new CompressedBitSet(null, bits, length);
+	}
+
+
+	public int cardinality() {return cardinality;}
+
+	public boolean isEmpty() {return cardinality == 0;}
+
+
+	public boolean contains(int value)
+	{
+		if (bits != null)
+			return value >>> 6 < bits.length && (bits[value >>> 6] & (1L << value)) != 0;
+		return Arrays.binarySearch(values, value) >= 0;
+	}
+
+
+	/**
+	 * Values of the set in increasing order.
+	 */
+	public int[] toArray()
+	{
+		if (bits == null)
+			return values.clone();
+		int[] all = new int[cardinality];
+		int count = 0;
+		for (int word = 0; word < bits.length; word++)
+			for (long w = bits[word]; w != 0; w &= w - 1)
+				all[count++] = (word << 6) + Long.numberOfTrailingZeros(w);
+		return all;
+	}
+
+
+	/**
+	 * Whether any value of the set passes the test; values are tried in increasing order, without copying them.
+	 */
+	public boolean anyMatch(IntPredicate test)
+	{
+		if (bits == null)
+		{
+			for (int value : values)
+				if (test.test(value))
+					return true;
+			return false;
+		}
+		for (int word = 0; word < bits.length; word++)
+			for (long w = bits[word]; w != 0; w &= w - 1)
+				if (test.test((word << 6) + Long.numberOfTrailingZeros(w)))
+					return true;
+		return false;
+	}
+
+
+	/**
+	 * Number of values both sets have. Two arrays are merged, an array is looked up in a bitmap,
+	 * and two bitmaps are compared a word at a time.
+	 */
+	public int intersectionSize(CompressedBitSet other)
+	{
+		if (bits != null && other.bits != null)
+		{
+			int count = 0;
+			for (int word = 0; word < Math.min(bits.length, other.bits.length); word++)
+				count += Long.bitCount(bits[word] & other.bits[word]);
+			return count;
+		}
+		if (bits != null || other.bits != null)
+		{
+			CompressedBitSet sparse = bits == null ? this : other, dense = bits == null ? other : this;
+			int count = 0;
+			for (int value : sparse.values)
+				if (dense.contains(value))
+					count++;
+			return count;
+		}
+		int count = 0;
+		for (int i = 0, j = 0; i < values.length && j < other.values.length; )
+		{
+			if (values[i] < other.values[j])
+				i++;
+			else if (values[i] > other.values[j])
+				j++;
+			else
+			{
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Whether the sets have any value in common.
+	 */
+	public boolean intersects(CompressedBitSet other)
+	{
+		return intersectionSize(other) > 0;
+	}
+
+
+	/**
+	 * Bytes taken by the values (not counting the object itself).
+	 */
+	public long sizeInBytes()
+	{
+		return bits != null ? 8L * bits.length : 4L * values.length;
+	}
+}
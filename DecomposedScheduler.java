@@ -0,0 +1,543 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fills in every module that is not on the timetable yet, like AutoScheduler, but one component at a time
+ * and on all cores, so that the time grows with the largest component rather than with the whole institution.
+ *
+ * 1) Interaction graph: two unplaced modules interact if they are of the same programme or, when enrolments
+ *    are loaded, share a student. Its connected components can be scheduled on their own, except that
+ *    they all use the same rooms.
+ * 2) Room pool: the free (time slot, room) cells are shared out so that no two components can take the same
+ *    cell. Cells are dealt biggest room first, each to the component whose biggest module still without a
+ *    cell is the biggest (the one with more such modules on a tie), so big modules get the big rooms;
+ *    a component gets cells at different times where it can, since a programme has one module at a time;
+ *    cells left over are dealt round robin as room to move. Wednesday afternoon is kept for sports, so its
+ *    cells are not dealt at all: like in AutoScheduler they are only used when nothing else is free, by
+ *    the reconciliation.
+ * 3) Every component is solved by an AutoScheduler restricted to its share, on a fork-join pool.
+ * 4) Reconciliation: the results are applied one by one through checkSave, so nothing breaks the checks
+ *    (e.g. a student clash with a module that was already placed). Modules that are turned down, or that
+ *    their component could not place in its share, are scheduled by one AutoScheduler run over the whole
+ *    timetable, in which only they are open; whatever that cannot place gets the best place suggest finds.
+ *
+ * With a SolveCache, a run over the same modules as an earlier one commits what that run found (through
+ * ModulesList.commit, so all of it or, if the timetable no longer allows it, none), and a component like one
+ * solved before takes the cells it got then if they are still free; only the other components share out
+ * the cells left and are solved. What is solved is stored for the next run.
+ */
+public class DecomposedScheduler
+{
+	/**Backtracks a run may take per module it has to place, so a component that cannot be fully placed gives up early*/
+	public static final int BACKTRACKS_PER_MODULE = 20;
+
+	private final ModulesList list;
+	private final SolveCache cache; // null if results are not kept
+	private final ScheduleProblem problem;
+	private final int roomAmount, cellAmount, words;
+	private final int wedPM; // index of the sports afternoon, -1 if there is none
+	private final int[][] placedOfProgramme; // [programme] -> modules of it that are already placed
+
+
+	/**
+	 * Creates a scheduler for the unplaced modules of the list.
+	 * @param list modules to be scheduled
+	 * @param cache results of earlier runs, and where those of this run are kept; null for none
+	 */
+	public DecomposedScheduler(ModulesList list, SolveCache cache)
+	{
+		this.list = list;
+		this.cache = cache;
+		problem = new ScheduleProblem(list);
+		roomAmount = problem.rooms.length;
+		cellAmount = problem.slots.length * roomAmount;
+		words = (cellAmount + 63) >>> 6;
+		wedPM = Arrays.asList(problem.slots).indexOf("WedPM");
+		int[] counts = new int[problem.programmeAmount()];
+		for (int i = 0; i < problem.moduleAmount; i++)
+			if (problem.isPlaced(i))
+				counts[problem.programme[i]]++;
+		placedOfProgramme = new int[counts.length][];
+		for (int p = 0; p < counts.length; p++)
+			placedOfProgramme[p] = new int[counts[p]];
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < problem.moduleAmount; i++)
+			if (problem.isPlaced(i))
+				placedOfProgramme[problem.programme[i]][counts[problem.programme[i]]++] = i;
+	}
+
+
+	/**
+	 * Schedules all unplaced modules of the list and writes the new times and rooms into it,
+	 * using the default cache (see SolveCache.getDefault).
+	 * @param list modules to be scheduled
+	 * @return result of the run
+	 */
+	public static Result scheduleAll(ModulesList list)
+	{
+		return new DecomposedScheduler(list, SolveCache.getDefault()).run(ForkJoinPool.commonPool());
+	}
+
+
+	/**
+	 * Splits, solves and reconciles.
+	 * @param pool pool the components are solved on
+	 * @return result of the run
+	 */
+	public Result run(ForkJoinPool pool)
+	{
+		long start = System.nanoTime();
+		List<int[]> components = components();
+		int amount = components.size(), largest = 0;
+		for (int[] component : components)
+			largest = Math.max(largest, component.length);
+		Result result = new Result(amount, largest);
+		int[] order = null;
+		String key = null;
+		if (cache != null && amount > 0)
+		{
+			order = SolveCache.canonicalOrder(problem);
+			key = SolveCache.key(problem, order, BACKTRACKS_PER_MODULE);
+			if (commitCached(key, order, result))
+			{
+				result.cached = amount;
+				result.nanos = System.nanoTime() - start;
+				return result;
+			}
+		}
+
+		ScheduleProblem[] parts = new ScheduleProblem[amount];
+		AutoScheduler.Result[] results = new AutoScheduler.Result[amount];
+		String[] keys = new String[amount];
+		int[][] orders = new int[amount][];
+		boolean[] taken = new boolean[cellAmount];
+		for (int i = 0; i < problem.moduleAmount; i++)
+			if (problem.isPlaced(i))
+				taken[problem.slot[i] * roomAmount + problem.room[i]] = true;
+		int[] unsolved = new int[amount];
+		List<int[]> unsolvedComponents = new ArrayList<int[]>();
+		for (int c = 0; c < amount; c++)
+		{
+			parts[c] = problem.subset(withPlacedOfSameProgrammes(components.get(c)));
+			if (cache != null)
+			{
+				orders[c] = SolveCache.canonicalOrder(parts[c]);
+				keys[c] = SolveCache.key(parts[c], orders[c], BACKTRACKS_PER_MODULE);
+				results[c] = cached(parts[c], keys[c], orders[c], taken);
+			}
+			if (results[c] != null)
+				result.cached++;
+			else
+			{
+				unsolved[unsolvedComponents.size()] = c;
+				unsolvedComponents.add(components.get(c));
+			}
+		}
+		unsolved = Arrays.copyOf(unsolved, unsolvedComponents.size());
+		long[][] shares = shareCells(unsolvedComponents, taken);
+		pool.invoke(new SolveTask(unsolved, components, shares, parts, results, 0, unsolved.length));
+		if (cache != null)
+			for (int c : unsolved)
+			{
+				int[] values = new int[orders[c].length];
+				for (int k = 0; k < values.length; k++)
+					values[k] = results[c].valueOf(orders[c][k]);
+				cache.put(keys[c], values);
+			}
+
+		reconcile(parts, results, result);
+		if (cache != null && amount > 0)
+		{
+			ModuleStore store = list.getStore(); // same module IDs as the problem: modules were only moved
+			int[] values = new int[order.length];
+			for (int k = 0; k < values.length; k++)
+				values[k] = store.isPlaced(order[k]) ? store.slot(order[k]) * roomAmount + store.room(order[k]) : -1;
+			cache.put(key, values);
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+
+	/**
+	 * Commits the times and rooms an earlier run over the same modules ended with.
+	 * @return whether there was such a run and its times and rooms pass the checks; nothing is changed otherwise
+	 */
+	private boolean commitCached(String key, int[] order, Result result)
+	{
+		int[] values = cache.get(key, order.length);
+		if (values == null)
+			return false;
+		int[] valueOf = new int[order.length]; // [module] -> its value, so that modules go in list order
+		for (int k = 0; k < order.length; k++)
+			valueOf[order[k]] = values[k];
+		ModulesList.Transaction transaction = new ModulesList.Transaction();
+		ArrayList<String> notPlaced = new ArrayList<String>();
+		for (int i = 0; i < valueOf.length; i++)
+		{
+			if (problem.isPlaced(i))
+				continue;
+			if (valueOf[i] < 0 || valueOf[i] >= cellAmount)
+				notPlaced.add(problem.codes[i]);
+			else
+				transaction.move(problem.codes[i], problem.slots[valueOf[i] / roomAmount], problem.rooms[valueOf[i] % roomAmount]);
+		}
+		if (list.commit(transaction) != SaveCheck.OK)
+			return false; // e.g. enrolments changed since
+		result.placed = transaction.size();
+		result.notPlaced.addAll(notPlaced);
+		return true;
+	}
+
+
+	/**
+	 * Result a component like this one got in an earlier run, if the cells it was given are all still free.
+	 * @param taken cells that are not free; those of the result are added
+	 * @return the result, or null if the component has to be solved
+	 */
+	private AutoScheduler.Result cached(ScheduleProblem part, String key, int[] order, boolean[] taken)
+	{
+		int[] values = cache.get(key, order.length);
+		if (values == null)
+			return null;
+		int[] assigned = new int[order.length];
+		for (int k = 0; k < order.length; k++)
+		{
+			int i = order[k];
+			assigned[i] = part.isPlaced(i) ? -1 : values[k];
+			if (assigned[i] >= cellAmount || (assigned[i] >= 0 && taken[assigned[i]]))
+				return null; // taken by a module placed since, or by another component
+		}
+		for (int value : assigned)
+			if (value >= 0)
+				taken[value] = true;
+		return AutoScheduler.Result.of(part, assigned);
+	}
+
+
+	/**
+	 * Connected components of the interaction graph of the unplaced modules (union-find).
+	 * Modules of a programme are joined through the programme's first unplaced module, and modules
+	 * sharing students through the enrolment conflict matrix.
+	 * @return module indexes of every component
+	 */
+	private List<int[]> components()
+	{
+		int n = problem.moduleAmount;
+		int[] parent = new int[n];
+		for (int i = 0; i < n; i++)
+			parent[i] = i;
+		int[] programmeFirst = new int[problem.programmeAmount()];
+		Arrays.fill(programmeFirst, -1);
+		EnrolmentConflicts enrolments = list.getEnrolments();
+		for (int i = 0; i < n; i++)
+		{
+			if (problem.isPlaced(i))
+				continue;
+			if (programmeFirst[problem.programme[i]] == -1)
+				programmeFirst[problem.programme[i]] = i;
+			else
+				union(parent, i, programmeFirst[problem.programme[i]]);
+			if (enrolments != null)
+				for (int other : enrolments.conflictsOf(i)) // ScheduleProblem(list) keeps the store's module IDs
+					if (!problem.isPlaced(other))
+						union(parent, i, other);
+		}
+
+		int[] componentOf = new int[n], sizes = new int[n];
+		int amount = 0;
+		Arrays.fill(componentOf, -1);
+		for (int i = 0; i < n; i++)
+			if (!problem.isPlaced(i))
+			{
+				int root = find(parent, i);
+				if (componentOf[root] == -1)
+					componentOf[root] = amount++;
+				sizes[componentOf[root]]++;
+			}
+		List<int[]> components = new ArrayList<int[]>(amount);
+		for (int c = 0; c < amount; c++)
+			components.add(new int[sizes[c]]);
+		Arrays.fill(sizes, 0);
+		for (int i = 0; i < n; i++)
+			if (!problem.isPlaced(i))
+			{
+				int c = componentOf[find(parent, i)];
+				components.get(c)[sizes[c]++] = i;
+			}
+		return components;
+	}
+
+
+	private static int find(int[] parent, int i)
+	{
+		while (parent[i] != i)
+			i = parent[i] = parent[parent[i]]; // path halving
+		return i;
+	}
+
+
+	private static void union(int[] parent, int a, int b)
+	{
+		parent[find(parent, a)] = find(parent, b);
+	}
+
+
+	/**
+	 * Deals the free cells out to the components.
+	 * @param taken cells that are not free
+	 * @return [component] -> bit (slot * rooms + room) set for every cell of its share
+	 */
+	private long[][] shareCells(List<int[]> components, boolean[] taken)
+	{
+		Integer[] cells = new Integer[cellAmount];
+		for (int cell = 0; cell < cellAmount; cell++)
+			cells[cell] = cell;
+		Arrays.sort(cells, (a, b) -> { // biggest room first; the slots of one room one after another
+			int ra = a % roomAmount, rb = b % roomAmount;
+			if (problem.capacity[ra] != problem.capacity[rb])
+				return problem.capacity[rb] - problem.capacity[ra];
+			return ra != rb ? ra - rb : a - b;
+		});
+
+		int amount = components.size();
+		long[][] shares = new long[amount][words];
+		int[][] sizes = new int[amount][]; // module sizes of each component, biggest first
+		int[] served = new int[amount]; // modules of each component that got a cell or can never fit one
+		for (int c = 0; c < amount; c++)
+		{
+			int[] component = components.get(c);
+			sizes[c] = new int[component.length];
+			for (int i = 0; i < component.length; i++)
+				sizes[c][i] = -problem.size[component[i]];
+			Arrays.sort(sizes[c]);
+			for (int i = 0; i < component.length; i++)
+				sizes[c][i] = -sizes[c][i];
+		}
+		PriorityQueue<Integer> waiting = new PriorityQueue<Integer>(Math.max(1, amount), (a, b) -> {
+			int sizeA = sizes[a][served[a]], sizeB = sizes[b][served[b]]; // every queued component has one left
+			if (sizeA != sizeB)
+				return sizeB - sizeA;
+			int leftA = sizes[a].length - served[a], leftB = sizes[b].length - served[b];
+			return leftA != leftB ? leftB - leftA : a - b;
+		});
+		for (int c = 0; c < amount; c++)
+			if (sizes[c].length > 0)
+				waiting.add(c);
+
+		BitSet[] shareSlots = new BitSet[amount]; // [component] -> time slots it has a cell in, so its cells spread over the week
+		int dealtSlots = problem.slots.length - (wedPM == -1 ? 0 : 1); // slots whose cells are dealt
+		for (int c = 0; c < amount; c++)
+		{
+			shareSlots[c] = new BitSet(problem.slots.length);
+			for (int i : components.get(c))
+				for (int placed : placedOfProgramme[problem.programme[i]])
+					shareSlots[c].set(problem.slot[placed]); // the programme is busy then anyway
+		}
+		int spare = 0; // next component to get a cell nobody needs
+		for (Integer cell : cells)
+		{
+			if (taken[cell] || cell / roomAmount == wedPM)
+				continue; // left to the reconciliation, which tries WedPM last
+			int capacity = problem.capacity[cell % roomAmount];
+			int owner = -1;
+			int slot = cell / roomAmount;
+			ArrayList<Integer> skipped = new ArrayList<Integer>(); // already have a cell at this time
+			while (owner == -1 && !waiting.isEmpty())
+			{
+				int c = waiting.poll();
+				if (sizes[c][served[c]] > capacity)
+				{
+					if (++served[c] < sizes[c].length) // no smaller cell will fit the module either: left to the reconciliation
+						waiting.add(c);
+				}
+				else if (shareSlots[c].get(slot)
+						&& shareSlots[c].cardinality() - (wedPM != -1 && shareSlots[c].get(wedPM) ? 1 : 0) < dealtSlots)
+					skipped.add(c); // a slot it has no cell in may still come
+				else
+				{
+					owner = c;
+					shareSlots[c].set(slot);
+					if (++served[c] < sizes[c].length)
+						waiting.add(c);
+				}
+			}
+			waiting.addAll(skipped);
+			if (owner == -1 && amount > 0)
+				owner = spare++ % amount;
+			if (owner != -1)
+				shares[owner][cell >>> 6] |= 1L << cell;
+		}
+		return shares;
+	}
+
+
+	/**
+	 * Solves a range of the unsolved components, splitting it in halves until one is left.
+	 */
+	private class SolveTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final int[] unsolved; // components to be solved; their shares are in the same order
+		private final List<int[]> components;
+		private final long[][] shares;
+		private final ScheduleProblem[] parts;
+		private final AutoScheduler.Result[] results;
+		private final int from, to;
+
+		SolveTask(int[] unsolved, List<int[]> components, long[][] shares, ScheduleProblem[] parts,
+				AutoScheduler.Result[] results, int from, int to)
+		{
+			this.unsolved = unsolved;
+			this.components = components;
+			this.shares = shares;
+			this.parts = parts;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if (to - from > 1)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new SolveTask(unsolved, components, shares, parts, results, from, middle),
+						new SolveTask(unsolved, components, shares, parts, results, middle, to));
+				return;
+			}
+			if (from == to)
+				return;
+			int c = unsolved[from];
+			int limit = BACKTRACKS_PER_MODULE * components.get(c).length;
+			results[c] = new AutoScheduler(parts[c], limit, shares[from]).solve();
+		}
+	}
+
+
+	/**
+	 * The component's modules and the placed modules of its programmes, which keep their slots busy.
+	 */
+	private int[] withPlacedOfSameProgrammes(int[] component)
+	{
+		int[] modules = Arrays.copyOf(component, component.length + 16);
+		int amount = component.length;
+		boolean[] added = new boolean[problem.programmeAmount()];
+		for (int i : component)
+		{
+			if (added[problem.programme[i]])
+				continue;
+			added[problem.programme[i]] = true;
+			for (int placed : placedOfProgramme[problem.programme[i]])
+			{
+				if (amount == modules.length)
+					modules = Arrays.copyOf(modules, amount * 2);
+				modules[amount++] = placed;
+			}
+		}
+		return Arrays.copyOf(modules, amount);
+	}
+
+
+	/**
+	 * Applies the component results through the Save checks, then places what is left where suggest says.
+	 */
+	private void reconcile(ScheduleProblem[] parts, AutoScheduler.Result[] results, Result result)
+	{
+		ArrayList<String> left = new ArrayList<String>();
+		for (int c = 0; c < results.length; c++)
+			for (int i = 0; i < parts[c].moduleAmount; i++)
+			{
+				if (parts[c].isPlaced(i))
+					continue; // placed before the run
+				String code = parts[c].codes[i], time = results[c].slotOf(i), room = results[c].roomOf(i);
+				if (time != null && list.checkSave(code, time, room) == SaveCheck.OK)
+				{
+					list.setModuleInfo(code, time, room);
+					result.placed++;
+				}
+				else
+					left.add(code);
+			}
+		if (left.isEmpty())
+			return;
+		ScheduleProblem rest = new ScheduleProblem(list); // everything placed so far is fixed
+		AutoScheduler.Result residual = new AutoScheduler(rest, BACKTRACKS_PER_MODULE * left.size()).solve();
+		for (int i = 0; i < rest.moduleAmount; i++)
+		{
+			String time = residual.slotOf(i), room = residual.roomOf(i);
+			if (time != null && list.checkSave(rest.codes[i], time, room) == SaveCheck.OK)
+			{
+				list.setModuleInfo(rest.codes[i], time, room);
+				result.placed++;
+				result.reconciled++;
+			}
+		}
+		for (String code : left)
+		{
+			if (list.moduleExists(code) != null)
+				continue; // placed by the residual run
+			List<ModulesList.Suggestion> best = list.suggest(code, 1);
+			if (best.isEmpty())
+				result.notPlaced.add(code);
+			else
+			{
+				list.setModuleInfo(code, best.get(0).getTime(), best.get(0).getRoom());
+				result.placed++;
+				result.reconciled++;
+			}
+		}
+	}
+
+
+	/**
+	 * Outcome of a run.
+	 */
+	public static class Result
+	{
+		private final int components, largest;
+		private int placed, reconciled, cached;
+		private final ArrayList<String> notPlaced = new ArrayList<String>();
+		private long nanos;
+
+		private Result(int components, int largest)
+		{
+			this.components = components;
+			this.largest = largest;
+		}
+
+		/**Number of modules placed by this run*/
+		public int placedAmount() {return placed;}
+
+		/**Modules placed by the reconciliation pass, not by their component*/
+		public int getReconciled() {return reconciled;}
+
+		/**Modules left without a time and room*/
+		public ArrayList<String> notPlaced() {return notPlaced;}
+
+		/**Components whose times and rooms came from the cache; all of them if the whole run did*/
+		public int getCached() {return cached;}
+
+		public int getComponents() {return components;}
+		/**Modules of the largest component*/
+		public int getLargestComponent() {return largest;}
+		public long getNanos() {return nanos;}
+
+		/**
+		 * Short human readable summary of the run.
+		 */
+		public String summary()
+		{
+			String text = String.format("Placed %d modules in %d ms (%d components, largest %d modules, %d reconciled, %d cached).%n",
+					placed, nanos / 1000000, components, largest, reconciled, cached);
+			if (!notPlaced.isEmpty())
+				text += "Could not be placed: " + String.join(", ", notPlaced) + System.lineSeparator();
+			return text;
+		}
+	}
+}
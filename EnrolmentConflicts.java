@@ -0,0 +1,413 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Which modules share students, from an enrolments file ("STUDENT CODE CODE..." per line; a student may
+ * be on several lines). Two modules that have a student in common cannot take place at the same time,
+ * whatever their programmes, so ModulesList.checkTime asks this matrix on top of the programme check.
+ *
+ * For every module the set of its students is kept as a CompressedBitSet, and so is its row of the
+ * conflict matrix: the modules it shares at least one student with. A row is the union of the module
+ * lists of its students, so it is found without comparing the module with every other one; the rows
+ * are independent and are built on all cores. The matrix does not change once built: when a module is
+ * added or removed while the program runs, ModulesList swaps in a copy made by withModuleAdded or
+ * withModuleRemoved, which shares the rows that stay the same. The students of codes that were not in the
+ * store are kept by code, so that a module added later gets them.
+ */
+public class EnrolmentConflicts
+{
+	public static final String DEFAULT_PATH = "Enrolments.txt"; // picked up next to the modules file if it exists
+
+	private final ModuleStore store;
+	private final int studentAmount;
+	private final CompressedBitSet[] students; // [module ID] -> students enrolled on it
+	private final CompressedBitSet[] conflicts; // [module ID] -> other modules with a student in common
+	private final Map<String, CompressedBitSet> unknown; // code not in the store -> students enrolled on it
+	private final ArrayList<String> errors;
+	private final byte[] contentHash; // SHA-256 of the enrolments file
+
+
+	private EnrolmentConflicts(ModuleStore store, int studentAmount, CompressedBitSet[] students,
+			CompressedBitSet[] conflicts, Map<String, CompressedBitSet> unknown, ArrayList<String> errors,
+			byte[] contentHash)
+	{
+		this.store = store;
+		this.studentAmount = studentAmount;
+		this.students = students;
+		this.conflicts = conflicts;
+		this.unknown = unknown;
+		this.errors = errors;
+		this.contentHash = contentHash;
+	}
+
+
+	/**
+	 * Reads an enrolments file and builds the conflict matrix of the store's modules.
+	 * Codes that are not in the store are reported (see getErrors) and kept for withModuleAdded.
+	 * @param path enrolments file
+	 * @param store modules the codes refer to
+	 * @return the matrix
+	 * @throws IOException if the file cannot be read
+	 */
+	public static EnrolmentConflicts load(Path path, ModuleStore store) throws IOException
+	{
+		ArrayList<String> errors = new ArrayList<String>();
+		Map<String, Integer> studentIds = new HashMap<String, Integer>();
+		Map<String, ArrayList<Integer>> unknownStudents = new HashMap<String, ArrayList<Integer>>();
+		int[] pairStudent = new int[1024], pairModule = new int[1024]; // one entry per enrolment
+		int pairs = 0, lineNumber = 0;
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e); // every Java platform has SHA-256
+		}
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new DigestInputStream(Files.newInputStream(path), digest), StandardCharsets.UTF_8.newDecoder())))
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				lineNumber++;
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length < 2)
+				{
+					if (!fields[0].isEmpty())
+						errors.add("Line " + lineNumber + ": no modules for student " + fields[0] + ".");
+					continue;
+				}
+				Integer student = studentIds.get(fields[0]);
+				if (student == null)
+					studentIds.put(fields[0], student = studentIds.size());
+				for (int field = 1; field < fields.length; field++)
+				{
+					int module = store.find(fields[field]);
+					if (module == -1)
+					{
+						errors.add("Line " + lineNumber + ": no such module " + fields[field] + ".");
+						unknownStudents.computeIfAbsent(fields[field], code -> new ArrayList<Integer>()).add(student);
+						continue;
+					}
+					if (pairs == pairStudent.length)
+					{
+						pairStudent = Arrays.copyOf(pairStudent, pairs * 2);
+						pairModule = Arrays.copyOf(pairModule, pairs * 2);
+					}
+					pairStudent[pairs] = student;
+					pairModule[pairs++] = module;
+				}
+			}
+		}
+		Map<String, CompressedBitSet> unknown = new HashMap<String, CompressedBitSet>();
+		for (Map.Entry<String, ArrayList<Integer>> entry : unknownStudents.entrySet())
+		{
+			int[] enrolled = entry.getValue().stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+			unknown.put(entry.getKey(), CompressedBitSet.of(enrolled, enrolled.length, studentIds.size()));
+		}
+		return build(store, studentIds.size(), pairStudent, pairModule, pairs, unknown, errors, digest.digest());
+	}
+
+
+	/**
+	 * Loads the enrolments file next to the modules file, if there is one, and makes the timetable check it.
+	 * @param timetable timetable to be checked against the enrolments
+	 * @param modulesFile path of the modules file the timetable was loaded from
+	 * @return problems found in the enrolments file; empty if there is none
+	 * @throws IOException if the file exists but cannot be read
+	 */
+	public static ArrayList<String> attachIfPresent(ModulesList timetable, String modulesFile) throws IOException
+	{
+		Path directory = Paths.get(modulesFile).toAbsolutePath().getParent();
+		Path path = directory == null ? Paths.get(DEFAULT_PATH) : directory.resolve(DEFAULT_PATH);
+		if (!Files.isRegularFile(path))
+			return new ArrayList<String>();
+		EnrolmentConflicts enrolments = load(path, timetable.getStore());
+		timetable.setEnrolments(enrolments);
+		return enrolments.getErrors();
+	}
+
+
+	/**
+	 * Builds the matrix from (student, module) pairs, which may repeat.
+	 * @param unknown code not in the store -> its students
+	 * @param contentHash hash of the file the pairs were read from (see getContentHash)
+	 */
+	static EnrolmentConflicts build(ModuleStore store, int studentAmount, int[] pairStudent, int[] pairModule,
+			int pairs, Map<String, CompressedBitSet> unknown, ArrayList<String> errors, byte[] contentHash)
+	{
+		int moduleAmount = store.size();
+		int[][] byModule = group(pairModule, pairStudent, pairs, moduleAmount); // [module] -> its students, sorted
+		int[][] byStudent = group(pairStudent, pairModule, pairs, studentAmount); // [student] -> their modules, sorted
+
+		CompressedBitSet[] students = new CompressedBitSet[moduleAmount];
+		CompressedBitSet[] conflicts = new CompressedBitSet[moduleAmount];
+		ThreadLocal<long[]> marks = ThreadLocal.withInitial(() -> new long[(moduleAmount + 63) >>> 6]);
+		ThreadLocal<int[]> found = ThreadLocal.withInitial(() -> new int[16]);
+		IntStream.range(0, moduleAmount).parallel().forEach(module -> {
+			int[] enrolled = byModule[module];
+			students[module] = CompressedBitSet.of(enrolled, enrolled.length, studentAmount);
+
+			long[] seen = marks.get(); // all clear between two modules of the same thread
+			int[] row = found.get();
+			int length = 0;
+			for (int student : enrolled)
+				for (int other : byStudent[student])
+					if (other != module && (seen[other >>> 6] & (1L << other)) == 0)
+					{
+						seen[other >>> 6] |= 1L << other;
+						if (length == row.length)
+							found.set(row = Arrays.copyOf(row, length * 2));
+						row[length++] = other;
+					}
+			for (int i = 0; i < length; i++)
+				seen[row[i] >>> 6] &= ~(1L << row[i]);
+			Arrays.sort(row, 0, length);
+			conflicts[module] = CompressedBitSet.of(row, length, moduleAmount);
+		});
+		return new EnrolmentConflicts(store, studentAmount, students, conflicts, unknown, errors, contentHash);
+	}
+
+
+	/**
+	 * The matrix with a module that was just added to the store. Its students are those the file gave for its
+	 * code, if it was not in the store when the file was read; its row is found by comparing them with the
+	 * students of every other module, and only the rows of the modules it shares students with are made again.
+	 * @param id ID the module got in the store
+	 * @param code code of the module
+	 * @return a new matrix; this one is left as it is
+	 */
+	public EnrolmentConflicts withModuleAdded(int id, String code)
+	{
+		int moduleAmount = Math.max(conflicts.length, id + 1);
+		CompressedBitSet[] newStudents = padded(students, moduleAmount);
+		CompressedBitSet[] newConflicts = padded(conflicts, moduleAmount);
+		Map<String, CompressedBitSet> newUnknown = new HashMap<String, CompressedBitSet>(unknown);
+		CompressedBitSet enrolled = newUnknown.remove(code);
+		if (enrolled == null)
+			enrolled = CompressedBitSet.of(new int[0], 0, studentAmount);
+		newStudents[id] = enrolled;
+		int[] row = new int[16];
+		int length = 0;
+		if (!enrolled.isEmpty())
+			for (int other = 0; other < moduleAmount; other++)
+				if (other != id && newStudents[other].intersects(enrolled))
+				{
+					if (length == row.length)
+						row = Arrays.copyOf(row, length * 2);
+					row[length++] = other;
+					newConflicts[other] = changed(newConflicts[other], -1, id, moduleAmount);
+				}
+		newConflicts[id] = CompressedBitSet.of(row, length, moduleAmount);
+		return new EnrolmentConflicts(store, studentAmount, newStudents, newConflicts, newUnknown, errors, contentHash);
+	}
+
+
+	/**
+	 * The matrix after a module was removed from the store and the module with the last ID took its ID
+	 * (see ModuleStore.remove): the removed ID is taken out of the rows of its neighbours, the last ID is
+	 * changed to the removed one in the rows of the last module's neighbours, and the last row moves down.
+	 * The students of the removed module are kept by its code, in case it comes back.
+	 * @param id ID of the removed module
+	 * @param last ID the last module had before the removal (id itself if it was the last)
+	 * @param code code of the removed module
+	 * @return a new matrix; this one is left as it is
+	 */
+	public EnrolmentConflicts withModuleRemoved(int id, int last, String code)
+	{
+		CompressedBitSet[] newStudents = padded(students, last + 1);
+		CompressedBitSet[] newConflicts = padded(conflicts, last + 1);
+		Map<String, CompressedBitSet> newUnknown = unknown;
+		if (!newStudents[id].isEmpty())
+		{
+			newUnknown = new HashMap<String, CompressedBitSet>(unknown);
+			newUnknown.put(code, newStudents[id]);
+		}
+		for (int other : newConflicts[id].toArray())
+			if (other != last)
+				newConflicts[other] = changed(newConflicts[other], id, -1, last);
+		if (id != last)
+		{
+			for (int other : newConflicts[last].toArray())
+				if (other != id)
+					newConflicts[other] = changed(newConflicts[other], last, id, last);
+			newStudents[id] = newStudents[last];
+			newConflicts[id] = changed(newConflicts[last], id, -1, last);
+		}
+		return new EnrolmentConflicts(store, studentAmount, Arrays.copyOf(newStudents, last),
+				Arrays.copyOf(newConflicts, last), newUnknown, errors, contentHash);
+	}
+
+
+	/**
+	 * Copy of the rows, with empty ones up to the given length for modules the file had no students for.
+	 */
+	private CompressedBitSet[] padded(CompressedBitSet[] rows, int length)
+	{
+		CompressedBitSet[] copy = Arrays.copyOf(rows, Math.max(rows.length, length));
+		for (int module = rows.length; module < copy.length; module++)
+			copy[module] = CompressedBitSet.of(new int[0], 0, rows == students ? studentAmount : length);
+		return copy;
+	}
+
+
+	/**
+	 * The set without one value and with another.
+	 * @param removed value to take out, or -1
+	 * @param added value to put in, or -1
+	 * @param universe every value of the new set is below this
+	 */
+	private static CompressedBitSet changed(CompressedBitSet set, int removed, int added, int universe)
+	{
+		int[] values = set.toArray();
+		int[] sorted = new int[values.length + 1];
+		int length = 0;
+		for (int value : values)
+			if (value != removed && value != added)
+				sorted[length++] = value;
+		if (added != -1)
+			sorted[length++] = added;
+		Arrays.sort(sorted, 0, length);
+		return CompressedBitSet.of(sorted, length, universe);
+	}
+
+
+	/**
+	 * Groups pairs by their key (counting sort), each group sorted and without repeats.
+	 */
+	private static int[][] group(int[] keys, int[] values, int pairs, int keyAmount)
+	{
+		int[] counts = new int[keyAmount];
+		for (int i = 0; i < pairs; i++)
+			counts[keys[i]]++;
+		int[][] groups = new int[keyAmount][];
+		for (int key = 0; key < keyAmount; key++)
+			groups[key] = new int[counts[key]];
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < pairs; i++)
+			groups[keys[i]][counts[keys[i]]++] = values[i];
+		for (int key = 0; key < keyAmount; key++)
+		{
+			int[] group = groups[key];
+			Arrays.sort(group);
+			int distinct = 0;
+			for (int i = 0; i < group.length; i++)
+				if (distinct == 0 || group[i] != group[distinct - 1])
+					group[distinct++] = group[i];
+			if (distinct < group.length)
+				groups[key] = Arrays.copyOf(group, distinct);
+		}
+		return groups;
+	}
+
+
+	/**
+	 * Whether a student on the module has another module in the time slot.
+	 * @param module module ID
+	 * @param slot time slot ID
+	 * @return true if the module cannot take place then
+	 */
+	public boolean clashesAt(int module, int slot)
+	{
+		return clashesAt(module, slot, store::slot);
+	}
+
+
+	/**
+	 * Whether a student on the module would have another module in the time slot, with the other modules
+	 * in the given time slots (e.g. as they will be after a transaction).
+	 * @param slotOf module ID -> its time slot ID
+	 */
+	public boolean clashesAt(int module, int slot, IntUnaryOperator slotOf)
+	{
+		if (module >= conflicts.length)
+			return false; // module has no enrolments
+		return conflicts[module].anyMatch(other -> slotOf.applyAsInt(other) == slot);
+	}
+
+
+	/**
+	 * Marks the time slots a student on the module has another module in.
+	 * @param module module ID
+	 * @param busy [slot] -> set to true for every such slot
+	 */
+	public void markBusySlots(int module, boolean[] busy)
+	{
+		if (module >= conflicts.length)
+			return;
+		conflicts[module].anyMatch(other -> {
+			int slot = store.slot(other);
+			if (slot >= 0 && slot < busy.length)
+				busy[slot] = true;
+			return false; // every one of them
+		});
+	}
+
+
+	/**
+	 * Whether two modules have a student in common.
+	 */
+	public boolean clashes(int module, int other)
+	{
+		return module < conflicts.length && conflicts[module].contains(other);
+	}
+
+
+	/**
+	 * Number of students enrolled on both modules.
+	 */
+	public int sharedStudents(int module, int other)
+	{
+		if (module >= students.length || other >= students.length)
+			return 0;
+		return students[module].intersectionSize(students[other]);
+	}
+
+
+	/**
+	 * IDs of the modules that share a student with the module, in increasing order.
+	 */
+	public int[] conflictsOf(int module)
+	{
+		return module < conflicts.length ? conflicts[module].toArray() : new int[0];
+	}
+
+
+	public int getStudentAmount() {return studentAmount;}
+
+	public int getEnrolmentAmount(int module) {return module < students.length ? students[module].cardinality() : 0;}
+
+	/**Problems found in the enrolments file, one message per skipped entry*/
+	public ArrayList<String> getErrors() {return errors;}
+
+	/**SHA-256 of the enrolments file, so that results found with other enrolments are told apart (see SolveCache)*/
+	public byte[] getContentHash() {return contentHash.clone();}
+
+
+	/**
+	 * Bytes taken by the student sets and the matrix rows.
+	 */
+	public long sizeInBytes()
+	{
+		long bytes = 0;
+		for (int module = 0; module < conflicts.length; module++)
+			bytes += students[module].sizeInBytes() + conflicts[module].sizeInBytes();
+		return bytes;
+	}
+}
@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, in the style of HdrHistogram: every power of two
+ * is split into 8 equal buckets, so any value is counted with at most 12.5% error, over the whole
+ * range from 1 ns to hours, in a fixed 4KB of counters. Recording is one array increment.
+ */
+public class LatencyHistogram
+{
+	private static final int SUB_BITS = 3, SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+
+	/**
+	 * Counts one latency.
+	 * @param nanos latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos)
+	{
+		buckets.incrementAndGet(bucketOf(Math.max(0, nanos)));
+	}
+
+
+	/**
+	 * Bucket of a value: values below 8 get one bucket each, larger ones are found by their highest bit
+	 * (the power of two) and the next 3 bits (which eighth of it).
+	 */
+	private static int bucketOf(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int power = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+		int sub = (int) (value >>> (power - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (power - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+
+	/**
+	 * Largest value that falls in the bucket.
+	 */
+	private static long highestIn(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int power = bucket / SUB_BUCKETS + SUB_BITS - 1, sub = bucket % SUB_BUCKETS;
+		long step = 1L << (power - SUB_BITS);
+		return (1L << power) + (sub + 1) * step - 1;
+	}
+
+
+	/**
+	 * Number of values recorded.
+	 */
+	public long count()
+	{
+		long count = 0;
+		for (int i = 0; i < buckets.length(); i++)
+			count += buckets.get(i);
+		return count;
+	}
+
+
+	/**
+	 * Value below which the given share of the recorded values fall (within the bucket error).
+	 * @param fraction e.g. 0.99 for the 99th percentile
+	 * @return latency in nanoseconds, 0 if nothing was recorded
+	 */
+	public long percentile(double fraction)
+	{
+		long[] counts = new long[buckets.length()];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++)
+			total += counts[i] = buckets.get(i); // one pass, so the answer is consistent
+		long rank = (long) Math.ceil(total * fraction), seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank && seen > 0)
+				return highestIn(i);
+		}
+		return 0;
+	}
+
+
+	/**
+	 * Forgets every recorded value.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < buckets.length(); i++)
+			buckets.set(i, 0);
+	}
+}
@@ -1,14 +1,24 @@
+import java.io.IOException;
 import java.util.Scanner;
 
+/**
+ * A module is a view of one row of a ModuleStore: it holds no data of its own, only the store
+ * and its position in it, so that large timetables do not need an object per module.
+ * Modules created from a line of text are not in a store; they just keep their fields.
+ * Modules are read only: the timetable is changed through ModulesList, which keeps its indexes and locks.
+ */
 public class Module {
 	/**Instance variables*/
-	public String code, title, timeslot;  
-	public String room;
-	public int size; 
+	private final ModuleStore store; // where the fields are kept, null for a module of its own
+	private final int id; // row in the store, -1 for a module of its own
+	private final String code, title, timeslot, room; // fields of a module of its own, null for a view
+	private final int size;
 	
     /**Constructor*/
 	public Module (String inputline)
 	{    
+		String code = null, title = null, timeslot = null, room = null;
+		int size = 0;
 		Scanner in = new Scanner(inputline);
 	    while (in.hasNext())
 	    {
@@ -19,14 +29,52 @@ public class Module {
 			size = in.nextInt(); 
 	    }
 	    in.close();
+	    this.store = null;
+	    this.id = -1;
+	    this.code = code;
+	    this.title = title;
+	    this.timeslot = timeslot;
+	    this.room = room;
+	    this.size = size;
+	}
+	
+	/**
+	 * Constructor for modules whose fields were already split up.
+	 */
+	public Module (String code, String title, String timeslot, String room, int size)
+	{
+	    this.store = null;
+	    this.id = -1;
+	    this.code = code;
+	    this.title = title;
+	    this.timeslot = timeslot;
+	    this.room = room;
+	    this.size = size;
+	}
+	
+	/**
+	 * Constructor for a view of a module that is kept in a store, e.g. by ModulesList.
+	 * @param store store holding the module
+	 * @param id row of the module in the store
+	 */
+	public Module (ModuleStore store, int id)
+	{
+		this.store = store;
+		this.id = id;
+		this.code = this.title = this.timeslot = this.room = null;
+		this.size = 0;
 	}
 	
 	/**Getters*/
-	public String getCode(){return code;}
-//	public String getTitle(){return title;} // not used in this version
-	public String getTimeslot(){return timeslot;}
-	public String getRoom(){return room;}
-	public int getSize(){return size;}
+	public String getCode(){return store == null ? code : store.code(id);}
+	public String getTitle(){return store == null ? title : store.title(id);}
+	public String getTimeslot(){return store == null ? timeslot : store.slotName(store.slot(id));}
+	public String getRoom(){return store == null ? room : store.roomName(store.room(id));}
+	public int getSize(){return store == null ? size : store.moduleSize(id);}
+	/**Store the module is kept in, null if it is a module of its own*/
+	public ModuleStore getStore(){return store;}
+	/**Row of the module in its store, -1 if it is a module of its own*/
+	public int getId(){return id;}
 
 	/**
 	 * Returns the programme code & year information
@@ -34,24 +82,67 @@ public class Module {
 	 */
 	public String getProgramme() 
 	{
-		return getCode().substring(0, 3);
+		if (store == null)
+			return code.length() > 3 ? code.substring(0, 3) : code;
+		return store.programmeName(store.programme(id));
 	}
     
     /**Setters*/
-	public void setCode(String Code) {code = Code;}
+//	public void setCode(String Code) {code = Code;} // codes are indexed by the store, so they do not change
 //	public void setTitle(String Title) {title = Title;} // not used in this version
-	public void setTimeSlot(String Timeslot) {timeslot = Timeslot;}
-	public void setRoom(String Room) {room = Room;}
+//	public void setTimeSlot(String Timeslot) // moves go through ModulesList.setModuleInfo, reserve or commit
+//	public void setRoom(String Room) // (they keep its indexes, locks and listeners in step)
 //	public void setSize(int Size) {size = Size;} // not used in this version
 	
+	/**
+	 * Two views are the same module if they show the same row of the same store.
+	 * A module of its own is only equal to itself.
+	 */
+	public boolean equals(Object other)
+	{
+		if (store == null)
+			return other == this;
+		return other instanceof Module && ((Module) other).store == store && ((Module) other).id == id;
+	}
+	
+	public int hashCode() {return store == null ? System.identityHashCode(this) : id;}
+	
 	/**
 	 * Prints full information of the module.
 	 * @return String containing code, title, time slot, room and its size.
 	 */
 	public String outp()
     {
-    	String outp = String.format("%s %s %s %s %d %n", code, title, timeslot, room, size);
-    	return outp;
+		StringBuilder outp = new StringBuilder(48);
+		try 
+		{
+			appendTo(outp);
+		} 
+		catch (IOException e) 
+		{
+			throw new IllegalStateException(e); // StringBuilder does not throw
+		}
+    	return outp.toString();
+    }
+	
+	/**
+	 * Appends full information of the module to the output, same text as outp().
+	 * @param out writer/buffer to append to
+	 * @throws IOException if the output cannot be written
+	 */
+	public void appendTo(Appendable out) throws IOException
+    {
+		if (store == null)
+			out.append(code).append(' ').append(title);
+		else
+		{
+			store.appendCode(id, out);
+			out.append(' ');
+			store.appendTitle(id, out);
+		}
+		out.append(' ').append(getTimeslot()).append(' ').append(getRoom()).append(' ');
+		appendNumber(out, getSize());
+		out.append(' ').append(LINE_BREAK);
     }
 	
 	/**
@@ -60,6 +151,79 @@ public class Module {
 	 */
 	public String printEssential()
     {
-    	return String.format("%9s %10s %10s %12d %n", code, timeslot, room, size);
+		StringBuilder row = new StringBuilder(ESSENTIAL_WIDTH);
+		try 
+		{
+			appendEssential(row);
+		} 
+		catch (IOException e) 
+		{
+			throw new IllegalStateException(e); // StringBuilder does not throw
+		}
+    	return row.toString();
+    }
+	
+	/**
+	 * Appends the essential information as a fixed width report row, same text as printEssential().
+	 * Columns are right aligned to 9, 10, 10 and 12 characters, like "%9s %10s %10s %12d %n".
+	 * @param out writer/buffer to append to
+	 * @throws IOException if the output cannot be written
+	 */
+	public void appendEssential(Appendable out) throws IOException
+    {
+		if (store == null)
+			appendRight(out, code, 9);
+		else
+		{
+			pad(out, 9 - store.codeLength(id));
+			store.appendCode(id, out);
+		}
+		out.append(' ');
+		appendRight(out, getTimeslot(), 10);
+		out.append(' ');
+		appendRight(out, getRoom(), 10);
+		out.append(' ');
+		pad(out, 12 - digits(getSize()));
+		appendNumber(out, getSize());
+		out.append(' ').append(LINE_BREAK);
     }
+	
+	/**Fixed width row encoding helpers*/
+	public static final int ESSENTIAL_WIDTH = 9 + 10 + 10 + 12 + 4 + 2; // columns, separators and line break
+	private static final String LINE_BREAK = System.lineSeparator(); // what %n prints
+	private static final String SPACES = "                ";
+	
+	private static void appendRight(Appendable out, String text, int width) throws IOException
+	{
+		pad(out, width - text.length());
+		out.append(text);
+	}
+	
+	private static void pad(Appendable out, int amount) throws IOException
+	{
+		for (; amount > 0; amount -= SPACES.length())
+			out.append(SPACES, 0, Math.min(amount, SPACES.length()));
+	}
+	
+	private static int digits(int number)
+	{
+		if (number < 0)
+			return Integer.toString(number).length(); // never happens for real modules
+		int digits = 1;
+		for (; number >= 10; number /= 10)
+			digits++;
+		return digits;
+	}
+	
+	private static void appendNumber(Appendable out, int number) throws IOException
+	{
+		if (number < 0)
+			out.append(Integer.toString(number)); // never happens for real modules
+		else
+		{
+			if (number >= 10)
+				appendNumber(out, number / 10);
+			out.append((char) ('0' + number % 10));
+		}
+	}
 }
\ No newline at end of file
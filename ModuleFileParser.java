@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads a modules file ("CODE Title Slot Room Size" per line) straight from a memory-mapped buffer.
+ * Fields are split on the bytes themselves, so no Scanner and no String per line is created:
+ * codes and titles are copied as bytes into a ModuleStore. Time slots and rooms repeat on almost
+ * every line and are looked up in a shared table instead of being created again.
+ * Lines that do not have exactly five fields, or whose size is not a number, are skipped and reported.
+ */
+public class ModuleFileParser
+{
+	private static final int FIELDS = 5;
+	private static final long WINDOW = 1L << 30; // mapped at most 1GB at a time
+
+	private final ArrayList<String> errors = new ArrayList<String>();
+	private final int[] start = new int[FIELDS], end = new int[FIELDS]; // field positions on the current line
+	private byte[] scratch = new byte[64]; // bytes of a new time slot/room being turned into a String
+	private String[] shared = new String[64]; // open addressing table of time slot/room strings
+	private int sharedAmount;
+	private int lineNumber; // line being parsed, for error messages
+
+	private final Catalogue catalogue;
+	private ModuleStore store; // modules of the file being parsed
+
+
+	/**
+	 * Creates a parser for files whose rooms and time slots are in the catalogue.
+	 */
+	public ModuleFileParser(Catalogue catalogue)
+	{
+		this.catalogue = catalogue;
+	}
+
+
+	/**
+	 * Creates a parser using the default catalogue.
+	 */
+	public ModuleFileParser()
+	{
+		this(Catalogue.getDefault());
+	}
+
+
+	/**
+	 * Reads the file and builds the list of modules in one pass.
+	 * @param filePath path to the modules file
+	 * @return list with every well formed module of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public ModulesList load(String filePath) throws IOException
+	{
+		return new ModulesList(parse(Paths.get(filePath)));
+	}
+
+
+	/**
+	 * Reads the file into a store of modules. Binary snapshots (see ModuleSnapshot) are read as they are.
+	 * @param path path to the modules file
+	 * @return store with the modules, in file order
+	 * @throws IOException if the file cannot be read
+	 */
+	public ModuleStore parse(Path path) throws IOException
+	{
+		errors.clear();
+		if (ModuleSnapshot.isSnapshot(path))
+			return ModuleSnapshot.read(path, catalogue); // binary, nothing to parse
+		store = new ModuleStore(catalogue);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size(), position = 0;
+			lineNumber = 1;
+			while (position < size)
+			{
+				long length = Math.min(WINDOW, size - position);
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				boolean last = position + length == size;
+				int consumed = parseWindow(buffer, (int) length, last);
+				if (consumed == 0) // a single line longer than the window
+					throw new IOException("Line " + lineNumber + " is too long.");
+				position += consumed;
+			}
+		}
+		store.publish(); // once, not for every module added
+		return store;
+	}
+
+
+	/**
+	 * Problems found by the last parse, one message per malformed line.
+	 */
+	public ArrayList<String> getErrors() {return errors;}
+
+
+	/**
+	 * Parses every complete line of the window.
+	 * @param last whether the window ends at the end of the file (last line needs no line break)
+	 * @return number of bytes consumed; the unfinished last line is left for the next window
+	 */
+	private int parseWindow(MappedByteBuffer buffer, int length, boolean last)
+	{
+		int lineStart = 0, fields = 0;
+		boolean inField = false;
+		for (int pos = 0; pos <= length; pos++)
+		{
+			if (pos == length && !last)
+				break; // line continues in the next window
+			byte b = pos == length ? (byte) '\n' : buffer.get(pos);
+			if (b == '\n' || b == '\r' || b == ' ' || b == '\t')
+			{
+				if (inField)
+				{
+					if (fields < FIELDS)
+						end[fields] = pos;
+					fields++;
+					inField = false;
+				}
+				if (b == '\n')
+				{
+					endLine(buffer, fields);
+					fields = 0;
+					lineStart = pos + 1;
+					lineNumber++;
+				}
+			}
+			else if (!inField)
+			{
+				if (fields < FIELDS)
+					start[fields] = pos;
+				inField = true;
+			}
+		}
+		return Math.min(lineStart, length);
+	}
+
+
+	/**
+	 * Turns the fields of a finished line into a module, or records why it cannot be done.
+	 */
+	private void endLine(MappedByteBuffer buffer, int fields)
+	{
+		if (fields == 0)
+			return; // blank line
+		if (fields != FIELDS)
+		{
+			errors.add("Line " + lineNumber + ": expected " + FIELDS + " fields, found " + fields + ".");
+			return;
+		}
+
+		int size = 0;
+		for (int pos = start[4]; pos < end[4]; pos++)
+		{
+			byte digit = buffer.get(pos);
+			if (digit < '0' || digit > '9' || size > (Integer.MAX_VALUE - 9) / 10)
+			{
+				errors.add("Line " + lineNumber + ": size is not a valid number.");
+				return;
+			}
+			size = size * 10 + (digit - '0');
+		}
+
+		int slot = store.slotId(sharedText(buffer, 2)), room = store.roomId(sharedText(buffer, 3));
+		store.add(buffer, start[0], end[0] - start[0], start[1], end[1] - start[1], slot, room, size); // copies the bytes
+	}
+
+
+	/**
+	 * Creates a String from the bytes of a field.
+	 */
+	private String text(MappedByteBuffer buffer, int field)
+	{
+		int length = end[field] - start[field];
+		if (length > scratch.length)
+			scratch = new byte[length];
+		for (int i = 0; i < length; i++)
+			scratch[i] = buffer.get(start[field] + i);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Returns the String for the bytes of a field, reusing the one created the last time the same
+	 * bytes were seen. The bytes are compared in place, so nothing is allocated for known values.
+	 */
+	private String sharedText(MappedByteBuffer buffer, int field)
+	{
+		int hash = 0;
+		for (int pos = start[field]; pos < end[field]; pos++)
+		{
+			if (buffer.get(pos) < 0)
+				return text(buffer, field); // not plain ASCII, not worth sharing
+			hash = 31 * hash + buffer.get(pos);
+		}
+		int mask = shared.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask)
+		{
+			String known = shared[slot];
+			if (known == null)
+			{
+				String text = text(buffer, field);
+				shared[slot] = text;
+				if (++sharedAmount * 2 > shared.length)
+					growShared();
+				return text;
+			}
+			if (sameBytes(buffer, field, known))
+				return known;
+		}
+	}
+
+
+	/**
+	 * Compares a field with a known ASCII String without creating a new one.
+	 */
+	private boolean sameBytes(MappedByteBuffer buffer, int field, String known)
+	{
+		if (known.length() != end[field] - start[field])
+			return false;
+		for (int i = 0; i < known.length(); i++)
+			if (known.charAt(i) != buffer.get(start[field] + i))
+				return false;
+		return true;
+	}
+
+
+	/**
+	 * Doubles the shared String table once it is half full.
+	 */
+	private void growShared()
+	{
+		String[] old = shared;
+		shared = new String[old.length * 2];
+		int mask = shared.length - 1;
+		for (String text : old)
+			if (text != null)
+			{
+				int hash = 0;
+				for (int i = 0; i < text.length(); i++)
+					hash = 31 * hash + (byte) text.charAt(i);
+				int slot = hash & mask;
+				while (shared[slot] != null)
+					slot = (slot + 1) & mask;
+				shared[slot] = text;
+			}
+	}
+}
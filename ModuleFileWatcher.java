@@ -0,0 +1,326 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the modules file while the program runs, so that updates from the registry reach the timetable
+ * without a restart and without losing what was scheduled since it was loaded.
+ *
+ * A WatchService on the file's folder wakes a background thread when the file is written or replaced.
+ * Writes that follow each other within SETTLE_MILLIS are taken as one change, and the owner is told through
+ * the Runnable given to start, so that it can call reload on the thread it likes (the GUI waits until no
+ * other work is running).
+ *
+ * reload reads the file again but only parses the lines that changed: a 64-bit hash of every line is kept
+ * in an open addressing table by the hash of its code, and a line with the same hash as in the last read is
+ * skipped without making a String of it. The bytes of the last read are kept to name the codes that went
+ * away. The changed lines are
+ * compared with the timetable and the difference is applied one module at a time, so the indexes, grid,
+ * history and journal follow through the ModulesList listeners instead of being built again:
+ * 1) a new code is added with addModule, where the file places it (like the modules read at the start)
+ * 2) a code that is no longer in the file is removed with removeModule
+ * 3) a new size goes through TimetableRepair.resize, which moves the module if its room is now too small
+ * Times and rooms of modules already on the timetable are the user's, so those in the file are not taken
+ * again; neither are titles. A line that cannot be read is reported once and leaves its module as it is.
+ * The enrolments follow added and removed modules in ModulesList, without reading the enrolments file again.
+ */
+public class ModuleFileWatcher implements Closeable
+{
+	/**Quiet time after a write before the file is read, so that a file written in several parts is read once*/
+	public static final long SETTLE_MILLIS = 200;
+
+	private final ModulesList timetable;
+	private final TimetableRepair repair;
+	private final Path file;
+	private byte[] lastBytes; // file as it was last read
+	private LineTable lastLines; // its lines, by code
+	private WatchService watcher;
+	private Thread thread;
+
+
+	/**
+	 * Remembers the lines of the file the timetable was loaded from, so that the next reload only applies what
+	 * changes after this. Nothing is watched until start is called.
+	 * @param timetable modules the changes of the file are applied to
+	 * @param modulesFile path of the modules file
+	 * @throws IOException if the file cannot be read
+	 */
+	public ModuleFileWatcher(ModulesList timetable, String modulesFile) throws IOException
+	{
+		this.timetable = timetable;
+		repair = new TimetableRepair(timetable);
+		file = Paths.get(modulesFile).toAbsolutePath();
+		read(null);
+	}
+
+
+	/**
+	 * Starts watching the file in a background thread.
+	 * @param onChange told, on the watching thread, every time the file changed; it should make reload run
+	 * @throws IOException if the folder of the file cannot be watched
+	 */
+	public void start(Runnable onChange) throws IOException
+	{
+		watcher = file.getFileSystem().newWatchService();
+		file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		thread = new Thread(new Runnable() {
+			public void run() {watchLoop(onChange);}
+		}, "ModuleFileWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Stops watching the file.
+	 */
+	public void close() throws IOException
+	{
+		if (watcher != null)
+			watcher.close(); // wakes the thread, which then ends
+	}
+
+
+	private void watchLoop(Runnable onChange)
+	{
+		try
+		{
+			while (true)
+			{
+				WatchKey key = watcher.take();
+				if (!touchesFile(key))
+					continue;
+				while ((key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+					touchesFile(key); // still being written
+				onChange.run();
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			// closed
+		}
+	}
+
+
+	/**
+	 * Whether the events of the key are about the modules file (or too many to tell), and readies the key for more.
+	 */
+	private boolean touchesFile(WatchKey key)
+	{
+		boolean touches = false;
+		for (WatchEvent<?> event : key.pollEvents())
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+				touches = true;
+		key.reset();
+		return touches;
+	}
+
+
+	/**
+	 * Reads the file again and applies what changed since the last read to the timetable.
+	 * @return the changes made
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized Changes reload() throws IOException
+	{
+		long start = System.nanoTime();
+		Changes changes = new Changes();
+		byte[] oldBytes = lastBytes;
+		LineTable oldLines = lastLines;
+		read(changes);
+		for (int slot = 0; slot < oldLines.codes.length; slot++)
+			if (oldLines.codes[slot] != 0 && lastLines.find(oldLines.codes[slot]) == -1)
+			{
+				int codeStart = oldLines.starts[slot], codeEnd = codeStart;
+				while (codeEnd < oldBytes.length && !isSpace(oldBytes[codeEnd]) && oldBytes[codeEnd] != '\n')
+					codeEnd++;
+				String code = new String(oldBytes, codeStart, codeEnd - codeStart, StandardCharsets.UTF_8);
+				while (timetable.removeModule(code)) // (every module with the code, if the file had it twice)
+					changes.removed.add(code);
+			}
+		changes.nanos = System.nanoTime() - start;
+		return changes;
+	}
+
+
+	/**
+	 * Hashes every line of the file and, unless changes is null, applies those that differ from the last read.
+	 * The file becomes the last read.
+	 */
+	private void read(Changes changes) throws IOException
+	{
+		byte[] bytes = Files.readAllBytes(file);
+		LineTable lines = new LineTable(lastLines == null ? 16 : lastLines.amount);
+		int lineNumber = 0;
+		for (int lineStart = 0; lineStart < bytes.length; lineNumber++)
+		{
+			int lineEnd = lineStart;
+			while (lineEnd < bytes.length && bytes[lineEnd] != '\n')
+				lineEnd++;
+			int end = lineEnd > lineStart && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			int codeStart = lineStart;
+			while (codeStart < end && isSpace(bytes[codeStart]))
+				codeStart++;
+			int codeEnd = codeStart;
+			while (codeEnd < end && !isSpace(bytes[codeEnd]))
+				codeEnd++;
+			long code = hash(bytes, codeStart, codeEnd) | 1; // (0 marks a free slot)
+			if (codeStart < end && lines.find(code) == -1) // not blank, and not a code that came before
+			{
+				long hash = hash(bytes, lineStart, end);
+				lines.put(code, hash, codeStart);
+				int old = changes == null ? -1 : lastLines.find(code);
+				if (changes != null && (old == -1 || lastLines.lines[old] != hash))
+				{
+					String line = new String(bytes, lineStart, end - lineStart, StandardCharsets.UTF_8);
+					if (!apply(line.trim().split("\\s+"), changes))
+						changes.errors.add("Line " + (lineNumber + 1) + ": expected CODE Title Slot Room Size, ignored.");
+				}
+			}
+			lineStart = lineEnd + 1;
+		}
+		lastBytes = bytes;
+		lastLines = lines;
+	}
+
+
+	/**
+	 * Adds or resizes the module of a changed line.
+	 * @return false if the line is malformed
+	 */
+	private boolean apply(String[] fields, Changes changes)
+	{
+		if (fields.length != 5 || !fields[4].matches("\\d{1,9}"))
+			return false;
+		String code = fields[0];
+		int size = Integer.parseInt(fields[4]);
+		int id = timetable.indexOf(code);
+		if (id == -1)
+		{
+			if (timetable.addModule(code, fields[1], fields[2], fields[3], size))
+				changes.added.add(code);
+		}
+		else if (timetable.getStore().moduleSize(id) != size)
+		{
+			changes.resized.add(code);
+			changes.moves.addAll(repair.resize(code, size).getMoves());
+		}
+		return true;
+	}
+
+
+	private static boolean isSpace(byte b) {return b == ' ' || b == '\t' || b == '\r';}
+
+
+	/**
+	 * 64-bit FNV-1a hash of the bytes, so that two different lines practically never look the same.
+	 */
+	private static long hash(byte[] bytes, int start, int end)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = start; i < end; i++)
+			hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001b3L;
+		return hash;
+	}
+
+
+	/**
+	 * Hashes of the lines of a read, by the hash of their code. Two codes with the same 64-bit hash are taken
+	 * as one, which practically never happens.
+	 */
+	private static class LineTable
+	{
+		private long[] codes, lines; // [slot] -> hash of the code (0 if free), hash of the whole line
+		private int[] starts; // [slot] -> offset of the code in the bytes of the read
+		private int amount;
+
+		private LineTable(int expected)
+		{
+			int capacity = 16;
+			while (capacity < expected * 2)
+				capacity <<= 1;
+			codes = new long[capacity];
+			lines = new long[capacity];
+			starts = new int[capacity];
+		}
+
+		/**@return slot of the code, or -1 if it is not in the table*/
+		private int find(long code)
+		{
+			int mask = codes.length - 1;
+			for (int slot = (int) (code ^ (code >>> 32)) & mask; codes[slot] != 0; slot = (slot + 1) & mask)
+				if (codes[slot] == code)
+					return slot;
+			return -1;
+		}
+
+		private void put(long code, long line, int start)
+		{
+			if (++amount * 2 > codes.length)
+			{
+				LineTable grown = new LineTable(amount);
+				for (int slot = 0; slot < codes.length; slot++)
+					if (codes[slot] != 0)
+						grown.put(codes[slot], lines[slot], starts[slot]);
+				codes = grown.codes;
+				lines = grown.lines;
+				starts = grown.starts;
+			}
+			int mask = codes.length - 1, slot = (int) (code ^ (code >>> 32)) & mask;
+			while (codes[slot] != 0)
+				slot = (slot + 1) & mask;
+			codes[slot] = code;
+			lines[slot] = line;
+			starts[slot] = start;
+		}
+	}
+
+
+	/**
+	 * What a reload changed.
+	 */
+	public static class Changes
+	{
+		private final ArrayList<String> added = new ArrayList<String>(), removed = new ArrayList<String>(),
+				resized = new ArrayList<String>(), errors = new ArrayList<String>();
+		private final ArrayList<TimetableRepair.Move> moves = new ArrayList<TimetableRepair.Move>();
+		private long nanos;
+
+		private Changes() {}
+
+		public List<String> getAdded() {return added;}
+		public List<String> getRemoved() {return removed;}
+		public List<String> getResized() {return resized;}
+		/**Modules moved because a resized one no longer fitted its room (see TimetableRepair)*/
+		public List<TimetableRepair.Move> getMoves() {return moves;}
+		/**Lines that could not be read, and problems in the enrolments file*/
+		public List<String> getErrors() {return errors;}
+		public long getNanos() {return nanos;}
+
+		/**Whether nothing was changed*/
+		public boolean isEmpty() {return added.isEmpty() && removed.isEmpty() && resized.isEmpty() && errors.isEmpty();}
+
+		/**
+		 * Short human readable summary of the reload.
+		 */
+		public String summary()
+		{
+			String text = String.format("Modules file reloaded in %.1f ms: %d added, %d removed, %d resized, %d moved.%n",
+					nanos / 1e6, added.size(), removed.size(), resized.size(), moves.size());
+			for (String error : errors)
+				text += error + System.lineSeparator();
+			return text;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of a modules file, for a fast start with large timetables.
+ *
+ * A snapshot holds the ModuleStore as it is in memory (see ModuleStore.writeTo): one pool of the
+ * codes and titles, int columns for time slot, room, size and programme, and the code hash table.
+ * Loading it maps the file and copies the columns in bulk, so nothing is parsed or hashed again and
+ * the start takes about as long as reading the bytes. The file starts with a magic number and a
+ * format version; ModuleFileParser recognises it, so a snapshot can be used wherever a modules
+ * file can (e.g. "TTA --batch modules.tts").
+ *
+ * Usage: TTA --convert inputFile outputFile
+ * Converts a text modules file into a snapshot, or a snapshot back into a text modules file.
+ */
+public class ModuleSnapshot
+{
+	public static final int MAGIC = 0x89545453; // 0x89 "TTS": cannot be the start of a text modules file
+	public static final int VERSION = 1;
+	private static final int HEADER = 8; // magic and version
+
+
+	/**
+	 * Writes the store to a snapshot file. The file is written next to the target and moved into place,
+	 * so a failed write never leaves half a snapshot behind.
+	 * @param store modules to be written
+	 * @param path snapshot file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(ModuleStore store, Path path) throws IOException
+	{
+		long size = HEADER + store.binarySize();
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Timetable too large for a snapshot (" + size + " bytes).");
+		Path temp = Paths.get(path + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			out.putInt(MAGIC).putInt(VERSION);
+			store.writeTo(out);
+			out.force();
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 * Reads a snapshot file.
+	 * @param path snapshot file
+	 * @param catalogue rooms and time slots the modules are to refer to
+	 * @return the modules
+	 * @throws IOException if the file cannot be read or is not a snapshot of a known version
+	 */
+	public static ModuleStore read(Path path, Catalogue catalogue) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(path + ": snapshot too large.");
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.limit() < HEADER || in.getInt() != MAGIC)
+				throw new IOException(path + ": not a modules snapshot.");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException(path + ": snapshot version " + version + " is not supported.");
+			return ModuleStore.readFrom(catalogue, in);
+		}
+		catch (RuntimeException e) // cut short or damaged
+		{
+			throw new IOException(path + ": damaged snapshot.", e);
+		}
+	}
+
+
+	/**
+	 * Checks whether the file is a snapshot (rather than a text modules file) by its first bytes.
+	 */
+	public static boolean isSnapshot(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			while (magic.hasRemaining() && channel.read(magic) > 0)
+				;
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+
+
+	/**
+	 * Entry point for the converter.
+	 * @param args input file, output file
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: TTA --convert inputFile outputFile");
+			System.exit(2);
+		}
+		try
+		{
+			Path input = Paths.get(args[0]), output = Paths.get(args[1]);
+			boolean toText = isSnapshot(input);
+			ModuleFileParser parser = new ModuleFileParser();
+			long start = System.nanoTime();
+			ModuleStore store = parser.parse(input); // either format
+			long loaded = System.nanoTime();
+			for (String error : parser.getErrors())
+				System.err.println(args[0] + ": " + error);
+
+			if (toText)
+				try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(output),
+						StandardCharsets.UTF_8), 1 << 16))
+				{
+					new ModulesList(store).writeModules(out);
+				}
+			else
+				write(store, output);
+			System.out.printf("%d modules: read %s in %d ms, wrote %s in %d ms%n", store.size(),
+					toText ? "snapshot" : "text", (loaded - start) / 1000000, toText ? "text" : "snapshot",
+					(System.nanoTime() - loaded) / 1000000);
+		}
+		catch (IOException e)
+		{
+			System.err.println("I/O Exception: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
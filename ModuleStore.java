@@ -0,0 +1,719 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Column storage for all modules: one array per field instead of one object per module.
+ *
+ * Codes and titles are kept as UTF-8 bytes in one shared byte array (two length bytes, then the text),
+ * time slots and rooms as int IDs from the Catalogue, and sizes and programmes as ints. A module is just
+ * its position (ID) in the columns. Codes are found through an open addressing table of IDs, which compares
+ * the bytes in place, so no String is kept per module.
+ *
+ * Time slots and rooms that are not in the catalogue ("?????", "?" or anything else read from a file)
+ * get IDs after the catalogue ones, so that they are written back exactly as they were read.
+ *
+ * Thread safety: one thread changes the store at a time (ModulesList holds all its slot locks to add or
+ * remove a module), while others read it without locks, e.g. find for a request of SchedulingService while
+ * ModuleFileWatcher adds a module. Full arrays are grown by copying, and the getters only read the arrays
+ * published through the volatile columns after every add and remove, so a reader never sees a grown array
+ * before it is filled. Loads (ModuleFileParser, readFrom) publish once at the end instead. Names are in copy-on-write lists and concurrent maps for the same reason.
+ */
+public class ModuleStore
+{
+	private final Catalogue catalogue;
+
+	private byte[] text = new byte[1024]; // codes and titles: 2 length bytes + UTF-8 bytes each
+	private int textSize;
+	private int[] codeAt = new int[16], titleAt = new int[16]; // offsets into text
+	private int[] slot = new int[16], room = new int[16], size = new int[16], programme = new int[16];
+	private int amount;
+
+	private int[] table = new int[32]; // code hash table: module ID + 1, 0 = empty
+	private ArrayList<Integer> duplicates = new ArrayList<Integer>(); // modules not in the table, as an earlier one has their code
+	private volatile Columns columns; // what the getters read, see publish
+	private final List<String> extraSlots = new CopyOnWriteArrayList<String>(), extraRooms = new CopyOnWriteArrayList<String>();
+	private final HashMap<String, Integer> extraSlotIndex = new HashMap<String, Integer>(); // only used under the store's monitor
+	private final HashMap<String, Integer> extraRoomIndex = new HashMap<String, Integer>();
+	private final List<String> programmeNames = new CopyOnWriteArrayList<String>();
+	private final Map<String, Integer> programmeIndex = new ConcurrentHashMap<String, Integer>();
+	private final HashMap<Integer, Integer> programmeByKey = new HashMap<Integer, Integer>(); // packed ASCII name -> ID
+
+
+	/**
+	 * Creates an empty store.
+	 * @param catalogue rooms and time slots the IDs refer to
+	 */
+	public ModuleStore(Catalogue catalogue)
+	{
+		this.catalogue = catalogue;
+		publish();
+	}
+
+
+	public Catalogue getCatalogue() {return catalogue;}
+
+	/**Number of modules in the store*/
+	public int size() {return columns.amount;}
+
+
+	/**
+	 * Adds a module.
+	 * @return ID of the new module
+	 */
+	public int add(String code, String title, String timeslot, String room, int size)
+	{
+		byte[] codeBytes = code.getBytes(StandardCharsets.UTF_8);
+		byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+		int id = newModule(slotId(timeslot), roomId(room), size);
+		codeAt[id] = appendText(ByteBuffer.wrap(codeBytes), 0, codeBytes.length);
+		titleAt[id] = appendText(ByteBuffer.wrap(titleBytes), 0, titleBytes.length);
+		finishModule(id);
+		publish();
+		return id;
+	}
+
+
+	/**
+	 * Adds a module whose code and title are read straight from a buffer, e.g. a mapped file.
+	 * This is for loading a store that nobody else reads yet, so the module is not published:
+	 * call publish once after the last one.
+	 * @return ID of the new module
+	 */
+	public int add(ByteBuffer buffer, int codeStart, int codeLength, int titleStart, int titleLength,
+			int slotId, int roomId, int size)
+	{
+		int id = newModule(slotId, roomId, size);
+		codeAt[id] = appendText(buffer, codeStart, codeLength);
+		titleAt[id] = appendText(buffer, titleStart, titleLength);
+		finishModule(id);
+		return id;
+	}
+
+
+	private int newModule(int slotId, int roomId, int moduleSize)
+	{
+		if (amount == slot.length)
+		{
+			int capacity = amount * 2;
+			codeAt = Arrays.copyOf(codeAt, capacity);
+			titleAt = Arrays.copyOf(titleAt, capacity);
+			slot = Arrays.copyOf(slot, capacity);
+			room = Arrays.copyOf(room, capacity);
+			size = Arrays.copyOf(size, capacity);
+			programme = Arrays.copyOf(programme, capacity);
+		}
+		slot[amount] = slotId;
+		room[amount] = roomId;
+		size[amount] = moduleSize;
+		return amount++;
+	}
+
+
+	/**
+	 * Works out the programme and adds the code to the hash table (the first module with a code wins).
+	 */
+	private void finishModule(int id)
+	{
+		programme[id] = programmeId(id);
+		if (amount * 2 > table.length)
+			growTable();
+		int hash = hashAt(text, codeAt[id]);
+		int mask = table.length - 1;
+		for (int i = hash & mask; ; i = (i + 1) & mask)
+		{
+			if (table[i] == 0)
+			{
+				table[i] = id + 1;
+				return;
+			}
+			if (sameText(text, codeAt[table[i] - 1], codeAt[id]))
+			{
+				if (table[i] != id + 1 && (duplicates.isEmpty() || duplicates.get(duplicates.size() - 1) != id))
+					duplicates.add(id); // (unless growTable put it in the table or the list already)
+				return; // duplicate code, findModule keeps returning the first one
+			}
+		}
+	}
+
+
+	/**
+	 * Removes a module. The last module takes its ID, so that the IDs stay 0 to size() - 1 and nothing is
+	 * shifted; the bytes of the removed code and title stay in the text pool until the store is written again.
+	 * @param id module to be removed
+	 * @return ID the moved module had (the old size() - 1), which is id itself if the last module was removed
+	 */
+	public int remove(int id)
+	{
+		if (duplicates == null)
+		{
+			duplicates = new ArrayList<Integer>(); // read from a binary snapshot, not listed yet
+			for (int other = 0; other < amount; other++)
+				if (findBytes(codeAt[other]) != other)
+					duplicates.add(other);
+		}
+		int last = amount - 1;
+		if (unindex(id))
+			findNext(id);
+		else
+			duplicates.remove((Integer) id);
+		if (id != last)
+		{
+			boolean indexed = unindex(last);
+			if (!indexed)
+				duplicates.set(duplicates.indexOf(last), id);
+			codeAt[id] = codeAt[last];
+			titleAt[id] = titleAt[last];
+			slot[id] = slot[last];
+			room[id] = room[last];
+			size[id] = size[last];
+			programme[id] = programme[last];
+			if (indexed)
+			{
+				int mask = table.length - 1, i = hashAt(text, codeAt[id]) & mask;
+				while (table[i] != 0)
+					i = (i + 1) & mask;
+				table[i] = id + 1;
+			}
+		}
+		amount--;
+		publish();
+		return last;
+	}
+
+
+	/**
+	 * Puts the first duplicate of a module's code, if any, into the table in its place.
+	 */
+	private void findNext(int id)
+	{
+		int next = -1;
+		for (int other : duplicates)
+			if (sameText(text, codeAt[other], codeAt[id]) && (next == -1 || other < next))
+				next = other;
+		if (next == -1)
+			return;
+		duplicates.remove((Integer) next);
+		int mask = table.length - 1, i = hashAt(text, codeAt[next]) & mask;
+		while (table[i] != 0)
+			i = (i + 1) & mask;
+		table[i] = next + 1;
+	}
+
+
+	/**
+	 * Takes the module's code out of the hash table, moving the entries after it back so no probe chain breaks.
+	 * @return false if the module was not in the table (a duplicate code)
+	 */
+	private boolean unindex(int id)
+	{
+		int mask = table.length - 1, hole = hashAt(text, codeAt[id]) & mask;
+		while (table[hole] != id + 1)
+		{
+			if (table[hole] == 0)
+				return false;
+			hole = (hole + 1) & mask;
+		}
+		for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask)
+		{
+			int home = hashAt(text, codeAt[table[i] - 1]) & mask;
+			if (((i - home) & mask) >= ((i - hole) & mask)) // may move back into the hole
+			{
+				table[hole] = table[i];
+				hole = i;
+			}
+		}
+		table[hole] = 0;
+		return true;
+	}
+
+
+	/**
+	 * Makes the arrays and the number of modules as they are now the ones the getters read. Everything
+	 * written before it, e.g. a grown array, is seen by whoever reads columns afterwards.
+	 * Only needs calling after modules were added from a buffer; the other changes publish themselves.
+	 */
+	public void publish()
+	{
+		columns = new Columns(text, textSize, codeAt, titleAt, slot, room, size, programme, amount, table);
+	}
+
+
+	/**
+	 * The arrays of the store as they were published. Arrays are grown by copying, so these stay whole.
+	 * Changed in place are the slot, room and size of a module (see the setters), which add and remove do
+	 * not race with, and the code table, where find skips the IDs from amount on.
+	 */
+	private static class Columns
+	{
+		private final byte[] text;
+		private final int textSize;
+		private final int[] codeAt, titleAt, slot, room, size, programme;
+		private final int amount;
+		private final int[] table;
+
+		private Columns(byte[] text, int textSize, int[] codeAt, int[] titleAt, int[] slot, int[] room, int[] size,
+				int[] programme, int amount, int[] table)
+		{
+			this.text = text;
+			this.textSize = textSize;
+			this.codeAt = codeAt;
+			this.titleAt = titleAt;
+			this.slot = slot;
+			this.room = room;
+			this.size = size;
+			this.programme = programme;
+			this.amount = amount;
+			this.table = table;
+		}
+	}
+
+
+	/**
+	 * Copies text into the byte pool.
+	 * @return offset of the text (its length bytes)
+	 */
+	private int appendText(ByteBuffer buffer, int start, int length)
+	{
+		if (length > 0xFFFF)
+			throw new IllegalArgumentException("Code or title longer than 65535 bytes.");
+		if (textSize + length + 2 > text.length)
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textSize + length + 2));
+		int offset = textSize;
+		text[textSize++] = (byte) (length >>> 8);
+		text[textSize++] = (byte) length;
+		for (int i = 0; i < length; i++)
+			text[textSize++] = buffer.get(start + i);
+		return offset;
+	}
+
+
+	private static int lengthAt(byte[] text, int offset) {return ((text[offset] & 0xFF) << 8) | (text[offset + 1] & 0xFF);}
+
+	private static String textAt(byte[] text, int offset)
+	{
+		return new String(text, offset + 2, lengthAt(text, offset), StandardCharsets.UTF_8);
+	}
+
+	private static int hashAt(byte[] text, int offset)
+	{
+		int hash = 0;
+		for (int i = offset + 2, end = i + lengthAt(text, offset); i < end; i++)
+			hash = 31 * hash + text[i];
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean sameText(byte[] text, int a, int b)
+	{
+		int length = lengthAt(text, a);
+		if (length != lengthAt(text, b))
+			return false;
+		for (int i = 2; i < length + 2; i++)
+			if (text[a + i] != text[b + i])
+				return false;
+		return true;
+	}
+
+	private void growTable()
+	{
+		table = new int[table.length * 2];
+		duplicates = new ArrayList<Integer>();
+		int mask = table.length - 1;
+		for (int id = 0; id < amount; id++)
+		{
+			if (findBytes(codeAt[id]) != -1)
+			{
+				duplicates.add(id);
+				continue; // a duplicate code, only the first one goes in the table
+			}
+			int i = hashAt(text, codeAt[id]) & mask;
+			while (table[i] != 0)
+				i = (i + 1) & mask;
+			table[i] = id + 1;
+		}
+	}
+
+	private int findBytes(int offset)
+	{
+		return findBytes(text, codeAt, table, offset);
+	}
+
+	private static int findBytes(byte[] text, int[] codeAt, int[] table, int offset)
+	{
+		int mask = table.length - 1;
+		for (int i = hashAt(text, offset) & mask; table[i] != 0; i = (i + 1) & mask)
+			if (sameText(text, codeAt[table[i] - 1], offset))
+				return table[i] - 1;
+		return -1;
+	}
+
+
+	/**
+	 * Programme of the module: the first three characters of its code.
+	 * For ASCII codes the three bytes are packed into an int key, so no String is made per module.
+	 */
+	private int programmeId(int id)
+	{
+		int offset = codeAt[id], length = Math.min(3, lengthAt(text, offset)), key = length << 24;
+		for (int i = 0; i < length; i++)
+		{
+			byte b = text[offset + 2 + i];
+			if (b < 0)
+				return programmeId(textAt(text, offset)); // not plain ASCII
+			key |= (b & 0xFF) << (16 - 8 * i);
+		}
+		Integer index = programmeByKey.get(key);
+		if (index == null)
+		{
+			index = programmeId(textAt(text, offset));
+			programmeByKey.put(key, index);
+		}
+		return index;
+	}
+
+
+	private int programmeId(String code)
+	{
+		String name = code.length() > 3 ? code.substring(0, 3) : code;
+		Integer index = programmeIndex.get(name);
+		if (index == null)
+		{
+			index = programmeNames.size();
+			programmeNames.add(name);
+			programmeIndex.put(name, index);
+		}
+		return index;
+	}
+
+
+	/**
+	 * Finds a programme by its name (first three characters of the codes).
+	 * @return ID of the programme or -1 if no module belongs to it
+	 */
+	public int findProgramme(String name)
+	{
+		Integer index = programmeIndex.get(name);
+		return index == null ? -1 : index;
+	}
+
+
+	/**
+	 * Finds a module by its code.
+	 * @return ID of the module or -1 if there is none
+	 */
+	public int find(String code)
+	{
+		byte[] bytes = null;
+		int hash = 0, length = code.length();
+		for (int i = 0; i < length; i++)
+		{
+			char c = code.charAt(i);
+			if (c >= 0x80)
+			{
+				bytes = code.getBytes(StandardCharsets.UTF_8); // not plain ASCII, compare the encoded bytes
+				break;
+			}
+			hash = 31 * hash + c;
+		}
+		if (bytes != null)
+		{
+			hash = 0;
+			for (byte b : bytes)
+				hash = 31 * hash + b;
+			length = bytes.length;
+		}
+		hash ^= hash >>> 16;
+
+		Columns c = columns;
+		int mask = c.table.length - 1;
+		for (int i = hash & mask; c.table[i] != 0; i = (i + 1) & mask)
+		{
+			int id = c.table[i] - 1;
+			if (id >= c.amount)
+				continue; // being added: the table is filled in place, before the module is published
+			int offset = c.codeAt[id];
+			if (lengthAt(c.text, offset) != length)
+				continue;
+			boolean same = true;
+			for (int j = 0; j < length && same; j++)
+				same = c.text[offset + 2 + j] == (bytes != null ? bytes[j] : (byte) code.charAt(j));
+			if (same)
+				return id;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Finds the module that the code of the given module leads to, without making a String of the code.
+	 * @return the given ID, or the ID of an earlier module with the same code
+	 */
+	public int findFirst(int id)
+	{
+		Columns c = columns;
+		return findBytes(c.text, c.codeAt, c.table, c.codeAt[id]);
+	}
+
+
+	/**
+	 * ID of a time slot name: its catalogue index, or an ID after the catalogue ones for unknown names.
+	 */
+	public synchronized int slotId(String name)
+	{
+		int id = catalogue.slotIndex(name);
+		if (id != -1)
+			return id;
+		Integer extra = extraSlotIndex.get(name);
+		if (extra == null)
+		{
+			extra = extraSlots.size();
+			extraSlots.add(name);
+			extraSlotIndex.put(name, extra);
+		}
+		return catalogue.slotAmount() + extra;
+	}
+
+
+	/**
+	 * ID of a room name: its catalogue index, or an ID after the catalogue ones for unknown names.
+	 */
+	public synchronized int roomId(String name)
+	{
+		int id = catalogue.roomIndex(name);
+		if (id != -1)
+			return id;
+		Integer extra = extraRoomIndex.get(name);
+		if (extra == null)
+		{
+			extra = extraRooms.size();
+			extraRooms.add(name);
+			extraRoomIndex.put(name, extra);
+		}
+		return catalogue.roomAmount() + extra;
+	}
+
+
+	public String slotName(int slotId)
+	{
+		return slotId < catalogue.slotAmount() ? catalogue.slotName(slotId) : extraSlots.get(slotId - catalogue.slotAmount());
+	}
+
+	public String roomName(int roomId)
+	{
+		return roomId < catalogue.roomAmount() ? catalogue.roomName(roomId) : extraRooms.get(roomId - catalogue.roomAmount());
+	}
+
+
+	/**Column getters, by module ID*/
+	public String code(int id) {Columns c = columns; return textAt(c.text, c.codeAt[id]);}
+	public String title(int id) {Columns c = columns; return textAt(c.text, c.titleAt[id]);}
+	public int slot(int id) {return columns.slot[id];}
+	public int room(int id) {return columns.room[id];}
+	public int moduleSize(int id) {return columns.size[id];}
+	public int programme(int id) {return columns.programme[id];}
+	public String programmeName(int programmeId) {return programmeNames.get(programmeId);}
+	public int programmeAmount() {return programmeNames.size();}
+
+	/**
+	 * Checks whether the module is on the timetable: both its time slot and room are in the catalogue.
+	 */
+	public boolean isPlaced(int id)
+	{
+		Columns c = columns;
+		return c.slot[id] < catalogue.slotAmount() && c.room[id] < catalogue.roomAmount();
+	}
+
+	/**Column setters, by module ID. Callers keep their own indexes up to date, and keep add and remove out meanwhile.*/
+	public void setSlot(int id, int slotId) {slot[id] = slotId;}
+	public void setRoom(int id, int roomId) {room[id] = roomId;}
+	public void setSize(int id, int moduleSize) {size[id] = moduleSize;}
+
+
+	/**
+	 * Number of bytes writeTo needs.
+	 */
+	public long binarySize()
+	{
+		Columns c = columns;
+		long bytes = 4L * 3 + c.textSize + 6L * 4 * c.amount + 4L * c.table.length;
+		for (ArrayList<String> names : nameLists())
+		{
+			bytes += 4;
+			for (String name : names)
+				bytes += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+		}
+		return bytes;
+	}
+
+
+	/**
+	 * Time slot, room and programme names by ID, as written by writeTo.
+	 */
+	private List<ArrayList<String>> nameLists()
+	{
+		ArrayList<String> slots = new ArrayList<String>(Arrays.asList(catalogue.getSlots()));
+		slots.addAll(extraSlots);
+		ArrayList<String> rooms = new ArrayList<String>(Arrays.asList(catalogue.getRooms()));
+		rooms.addAll(extraRooms);
+		return Arrays.asList(slots, rooms, new ArrayList<String>(programmeNames));
+	}
+
+
+	/**
+	 * Writes the store as it is held in memory, for ModuleSnapshot:
+	 * module count, text pool size, the time slot, room and programme names (so that the IDs can be
+	 * matched to any catalogue later), the text pool, the code, title, slot, room, size and programme
+	 * columns, and the code hash table. Everything is big endian.
+	 * @param out buffer with at least binarySize() bytes left
+	 */
+	public void writeTo(ByteBuffer out)
+	{
+		Columns c = columns;
+		out.putInt(c.amount).putInt(c.textSize);
+		for (ArrayList<String> names : nameLists())
+		{
+			out.putInt(names.size());
+			for (String name : names)
+			{
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				out.putShort((short) bytes.length).put(bytes);
+			}
+		}
+		out.put(c.text, 0, c.textSize);
+		IntBuffer ints = out.asIntBuffer();
+		for (int[] column : new int[][] {c.codeAt, c.titleAt, c.slot, c.room, c.size, c.programme})
+			ints.put(column, 0, c.amount);
+		ints.put(c.table.length).put(c.table);
+		out.position(out.position() + 4 * ints.position());
+	}
+
+
+	/**
+	 * Reads a store written by writeTo. The columns are copied in bulk; time slot and room IDs are only
+	 * translated if the catalogue is not the one the store was written with.
+	 * @param catalogue rooms and time slots the IDs are to refer to
+	 * @param in buffer positioned at the start of the store
+	 * @return the store
+	 */
+	public static ModuleStore readFrom(Catalogue catalogue, ByteBuffer in)
+	{
+		ModuleStore store = new ModuleStore(catalogue);
+		int amount = in.getInt(), textSize = in.getInt();
+		int[] slotIds = readNames(in, store, 0), roomIds = readNames(in, store, 1);
+		int programmes = in.getInt();
+		for (int p = 0; p < programmes; p++)
+			store.programmeId(readName(in));
+
+		store.text = new byte[Math.max(textSize, 16)];
+		in.get(store.text, 0, textSize);
+		store.textSize = textSize;
+		store.amount = amount;
+		int capacity = Math.max(amount, 16);
+		IntBuffer ints = in.asIntBuffer();
+		store.codeAt = column(ints, amount, capacity);
+		store.titleAt = column(ints, amount, capacity);
+		store.slot = column(ints, amount, capacity);
+		store.room = column(ints, amount, capacity);
+		store.size = column(ints, amount, capacity);
+		store.programme = column(ints, amount, capacity);
+		store.table = new int[ints.get()];
+		ints.get(store.table);
+		store.duplicates = null; // listed by remove, if it is ever called
+		in.position(in.position() + 4 * ints.position());
+
+		translate(store.slot, amount, slotIds);
+		translate(store.room, amount, roomIds);
+		store.publish();
+		return store;
+	}
+
+
+	private static int[] column(IntBuffer ints, int amount, int capacity)
+	{
+		int[] column = new int[capacity];
+		ints.get(column, 0, amount);
+		return column;
+	}
+
+
+	private static String readName(ByteBuffer in)
+	{
+		byte[] bytes = new byte[in.getShort() & 0xFFFF];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Reads a list of time slot (kind 0) or room (kind 1) names and finds the ID each one has in this store.
+	 * @return [ID in the file] -> ID in this store, or null if they are all the same
+	 */
+	private static int[] readNames(ByteBuffer in, ModuleStore store, int kind)
+	{
+		int[] ids = new int[in.getInt()];
+		boolean same = true;
+		for (int i = 0; i < ids.length; i++)
+		{
+			String name = readName(in);
+			ids[i] = kind == 0 ? store.slotId(name) : store.roomId(name);
+			same &= ids[i] == i;
+		}
+		return same ? null : ids;
+	}
+
+
+	private static void translate(int[] column, int amount, int[] ids)
+	{
+		if (ids != null)
+			for (int i = 0; i < amount; i++)
+				column[i] = ids[column[i]];
+	}
+
+
+	/**
+	 * Appends the bytes of the module's code to the output without creating a String, for ASCII codes.
+	 */
+	public void appendCode(int id, Appendable out) throws IOException
+	{
+		Columns c = columns;
+		appendText(c.text, c.codeAt[id], out);
+	}
+
+	public void appendTitle(int id, Appendable out) throws IOException
+	{
+		Columns c = columns;
+		appendText(c.text, c.titleAt[id], out);
+	}
+
+	private static void appendText(byte[] text, int offset, Appendable out) throws IOException
+	{
+		int length = lengthAt(text, offset);
+		for (int i = offset + 2; i < offset + 2 + length; i++)
+			if (text[i] < 0)
+			{
+				out.append(textAt(text, offset)); // not plain ASCII, decode it properly
+				return;
+			}
+		for (int i = offset + 2; i < offset + 2 + length; i++)
+			out.append((char) text[i]);
+	}
+
+	/**Length of the code in characters, for fixed width columns*/
+	public int codeLength(int id)
+	{
+		Columns c = columns;
+		int offset = c.codeAt[id], length = lengthAt(c.text, offset);
+		for (int i = offset + 2; i < offset + 2 + length; i++)
+			if (c.text[i] < 0)
+				return textAt(c.text, offset).length();
+		return length;
+	}
+}
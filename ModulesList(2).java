@@ -1,27 +1,411 @@
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ModulesList 
 {
 	/**Declaring & initializing instance variables*/
-	private Module[] modulesList; // array (since the length of the list is known) of all modules
-	private int roomAmount = TimeTableGUI.ROOMS.length; // number of rooms 
-	private int moduleAmount; // number of modules in the file - used for iterations
-	private Module module;
+	private ModuleStore store; // columns holding all the modules; a module is a row ID in it
+	private Catalogue catalogue; // rooms & time slots
+	private int roomAmount; // number of rooms 
+	private int slotAmount; // number of time slots
+	private static final String REPORT_HEADER = String.format("%8s %10s %14s %9s %n", "Code", "Time", "Room", "Size");
+	
+	/**Indexes kept consistent by setModuleInfo, so that the checks below do not scan the whole store*/
+	private int[] occupant; // [time * rooms + room] -> ID of the module occupying the cell (last one placed, if double booked), -1 if free
+	private int[] occupancy; // [time * rooms + room] -> number of modules in the cell
+	private volatile int[][] programmeSlots = new int[0][]; // [programme] -> number of its modules in each time slot
+	
+	/**
+	 * Views: every scheduled module is linked into three lists, those of its cell (starting at occupant),
+	 * of its time slot and of its programme in that time slot. place and unplace link and unlink it in
+	 * constant time, so modulesInRoom, modulesAt and modulesOfProgramme only walk the modules they return.
+	 * All three lists of a module belong to its time slot and only change under that slot's lock.
+	 */
+	private int[] cellNext, cellPrev; // [module ID] -> neighbours in its cell, -1 at either end
+	private int[] slotNext, slotPrev; // [module ID] -> neighbours in its time slot
+	private int[] programmeNext, programmePrev; // [module ID] -> neighbours in its programme & time slot
+	private int[] slotFirst; // [time slot] -> first module of the slot, -1 if none
+	private volatile int[][] programmeFirst = new int[0][]; // [programme] -> first module of the programme in each time slot
+	private List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>(); // told about every change
+	private final TimetableMetrics metrics = TimetableMetrics.get(); // latencies and save outcomes
+	private volatile EnrolmentConflicts enrolments; // modules that share students, null if no enrolments were loaded
+	
+	/**
+	 * Thread safety: every change of a module's time and room holds the locks of its old and new time slot
+	 * (one lock per slot, plus one shared by all unscheduled modules), since a slot's counters and cells only
+	 * change under its lock. Each module has a version that goes up on every change, so that an edit based
+	 * on an old view of the module can be turned down instead of silently overwriting somebody else's.
+	 */
+	private ReentrantLock[] slotLocks; // [time slot] -> lock, last one for modules that are not scheduled
+	private volatile AtomicIntegerArray versions; // [module ID] -> number of changes so far, replaced when modules are added
+	
+	// Suggestion indexes: rooms sorted by size, and per time slot a bitset of the free ones in that order
+	private int[] roomsBySize; // [position] -> room ID, smallest room first
+	private int[] roomPosition; // [room ID] -> position in roomsBySize
+	private long[][] freeRooms; // [time slot] -> bit per position in roomsBySize, set while the room is free
+	private int wedPM; // slot kept for sports, suggested last; -1 if the catalogue has none
+	private boolean[] withdrawn; // [room ID] -> no longer available, see withdrawRoom
+	
+	/**
+	 * A time and room the module could be moved to, see suggest.
+	 */
+	public static class Suggestion
+	{
+		private final String time, room;
+		private final int wastedSeats;
+		
+		public Suggestion(String time, String room, int wastedSeats)
+		{
+			this.time = time;
+			this.room = room;
+			this.wastedSeats = wastedSeats;
+		}
+		
+		public String getTime() {return time;}
+		public String getRoom() {return room;}
+		/**Seats of the room the module would not use*/
+		public int getWastedSeats() {return wastedSeats;}
+		public String toString() {return time + " " + room;}
+	}
+	
+	
+	/**
+	 * Gets told every time a module is given a new time and room, e.g. to persist the change.
+	 * Listeners are called while the slot locks of the change are still held, so the changes of a module
+	 * reach them in the order they were made. They must be quick and must not wait for another thread
+	 * that may be changing the timetable.
+	 */
+	public interface ChangeListener
+	{
+		void moduleChanged(String code, String time, String room);
+		
+		/**
+		 * Gets told when a module's number of students changes (see setModuleSize). Ignored by default.
+		 */
+		default void moduleResized(String code, int size) {}
+		
+		/**
+		 * Gets told about a module added by addModule. Ignored by default.
+		 */
+		default void moduleAdded(String code, String title, String time, String room, int size) {}
+		
+		/**
+		 * Gets told about a module taken out by removeModule. Ignored by default.
+		 * @param id ID the module had, which the module with the last ID has now (see ModuleStore.remove)
+		 */
+		default void moduleRemoved(String code, int id) {}
+		
+		/**
+		 * Gets told about all the changes of a committed transaction at once, after every one of them was made.
+		 * Listeners that persist changes should write them together, so that none of them is kept without the others.
+		 */
+		default void modulesChanged(String[] codes, String[] times, String[] rooms)
+		{
+			for (int i = 0; i < codes.length; i++)
+				moduleChanged(codes[i], times[i], rooms[i]);
+		}
+	}
+	
+	
+	/**
+	 * Reschedules of several modules that commit makes together or not at all, e.g. to swap two modules.
+	 * If a module is moved more than once, its last move counts.
+	 */
+	public static class Transaction
+	{
+		private final List<String> codes = new ArrayList<String>(), times = new ArrayList<String>(), rooms = new ArrayList<String>();
+		private final List<Integer> versions = new ArrayList<Integer>();
+		private int failed = -1;
+		private int[] committedVersions; // [move] -> version of its module after the last commit, null if it failed
+		
+		/**
+		 * Adds a reschedule without a version check.
+		 */
+		public Transaction move(String code, String time, String room)
+		{
+			return move(code, time, room, -1);
+		}
+		
+		/**
+		 * Adds a reschedule.
+		 * @param expectedVersion version of the module the user saw (see getVersion), or -1 to skip the version check
+		 * @return this transaction, so that moves can be chained
+		 */
+		public Transaction move(String code, String time, String room, int expectedVersion)
+		{
+			codes.add(code);
+			times.add(time);
+			rooms.add(room);
+			versions.add(expectedVersion);
+			return this;
+		}
+		
+		public int size() {return codes.size();}
+		/**Position of the move the last commit failed on, -1 if it succeeded*/
+		public int getFailed() {return failed;}
+		public String getFailedCode() {return failed == -1 ? null : codes.get(failed);}
+		/**
+		 * Version of the move's module right after the last commit, read while its time slots were still locked,
+		 * so that a change made by someone else afterwards is not taken for this one.
+		 * @param move position of the move
+		 * @return version, or -1 if the last commit failed
+		 */
+		public int getVersion(int move) {return committedVersions == null ? -1 : committedVersions[move];}
+	}
 	
 	/**
-	 * Constructor. Initializes an array of modules (size derived from ArrayList) with input from a text file.
+	 * Constructor. Initializes the store of modules with input from a text file.
 	 * @param textInput: ArrayList of strings that were derived from the text file.
 	 */
 	public ModulesList(ArrayList<String> textInput)
 	{
-		modulesList = new Module[textInput.size()];
+		this(storeOf(textInput));
+	}	
+	
+	
+	private static ModuleStore storeOf(ArrayList<String> textInput)
+	{
+		ModuleStore store = new ModuleStore(Catalogue.getDefault());
 		for (int index = 0; index < textInput.size(); index++)
-			modulesList[index] = new Module(textInput.get(index));
-		
-		moduleAmount = modulesList.length;
+		{
+			Scanner in = new Scanner(textInput.get(index));
+			store.add(in.next(), in.next(), in.next(), in.next(), in.nextInt());
+			in.close();
+		}
+		return store; // indexes are sized and filled by the store constructor
+	}
+	
+	
+	/**
+	 * Constructor for modules that were already created. They are copied into a new store.
+	 * @param modules array of modules.
+	 */
+	public ModulesList(Module[] modules)
+	{
+		this(storeOf(modules));
+	}	
+	
+	
+	private static ModuleStore storeOf(Module[] modules)
+	{
+		ModuleStore store = new ModuleStore(Catalogue.getDefault());
+		for (int index = 0; index < modules.length; index++)
+			store.add(modules[index].getCode(), modules[index].getTitle(), modules[index].getTimeslot(),
+					modules[index].getRoom(), modules[index].getSize());
+		return store;
+	}
+	
+	
+	/**
+	 * Constructor for modules that are already in a store, e.g. filled by ModuleFileParser.
+	 * @param store store holding the modules, used as it is (not copied).
+	 */
+	public ModulesList(ModuleStore store)
+	{
+		this.store = store;
+		catalogue = store.getCatalogue();
+		roomAmount = catalogue.roomAmount();
+		slotAmount = catalogue.slotAmount();
+		occupant = new int[slotAmount * roomAmount];
+		Arrays.fill(occupant, -1);
+		occupancy = new int[slotAmount * roomAmount];
+		cellNext = new int[store.size()];
+		cellPrev = new int[store.size()];
+		slotNext = new int[store.size()];
+		slotPrev = new int[store.size()];
+		programmeNext = new int[store.size()];
+		programmePrev = new int[store.size()];
+		slotFirst = new int[slotAmount];
+		Arrays.fill(slotFirst, -1);
+		if (store.programmeAmount() > 0)
+			programmeCounts(store.programmeAmount() - 1); // allocated up front, so concurrent changes never resize it
+		slotLocks = new ReentrantLock[slotAmount + 1];
+		for (int lock = 0; lock < slotLocks.length; lock++)
+			slotLocks[lock] = new ReentrantLock();
+		versions = new AtomicIntegerArray(store.size());
+		indexRoomsBySize();
+		for (int id = 0; id < store.size(); id++)
+			place(id);
 	}	
 	
 	
+	/**
+	 * Sorts the rooms by size and marks every room free in every time slot, before any module is placed.
+	 */
+	private void indexRoomsBySize()
+	{
+		Integer[] order = new Integer[roomAmount];
+		for (int room = 0; room < roomAmount; room++)
+			order[room] = room;
+		Arrays.sort(order, (a, b) -> catalogue.capacityOf(a) != catalogue.capacityOf(b) 
+				? Integer.compare(catalogue.capacityOf(a), catalogue.capacityOf(b)) : Integer.compare(a, b));
+		roomsBySize = new int[roomAmount];
+		roomPosition = new int[roomAmount];
+		for (int position = 0; position < roomAmount; position++)
+		{
+			roomsBySize[position] = order[position];
+			roomPosition[order[position]] = position;
+		}
+		freeRooms = new long[slotAmount][(roomAmount + 63) >>> 6];
+		for (long[] free : freeRooms)
+			for (int position = 0; position < roomAmount; position++)
+				free[position >>> 6] |= 1L << position;
+		wedPM = catalogue.slotIndex("WedPM");
+		withdrawn = new boolean[roomAmount];
+	}
+	
+	
+	/**
+	 * Adds the module's current time and room to the cell and programme indexes and the views.
+	 * Modules that are not scheduled ("?????" / "?") are not indexed.
+	 * @param id module to be added
+	 */
+	private void place(int id)
+	{
+		int time = store.slot(id), room = store.room(id);
+		if (time >= slotAmount)
+			return; // not scheduled
+		programmeCounts(store.programme(id))[time]++;
+		link(slotNext, slotPrev, slotFirst, time, id);
+		link(programmeNext, programmePrev, programmeFirst[store.programme(id)], time, id);
+		if (room < roomAmount)
+		{
+			occupancy[time * roomAmount + room]++;
+			link(cellNext, cellPrev, occupant, time * roomAmount + room, id); // becomes the cell's occupant
+			freeRooms[time][roomPosition[room] >>> 6] &= ~(1L << roomPosition[room]); // taken
+		}
+	}
+	
+	
+	/**
+	 * Removes the module's current time and room from the cell and programme indexes.
+	 * @param id module to be removed
+	 */
+	private void unplace(int id)
+	{
+		int time = store.slot(id), room = store.room(id);
+		if (time >= slotAmount)
+			return; // not scheduled
+		programmeCounts(store.programme(id))[time]--;
+		unlink(slotNext, slotPrev, slotFirst, time, id);
+		unlink(programmeNext, programmePrev, programmeFirst[store.programme(id)], time, id);
+		if (room >= roomAmount)
+			return;
+		int cell = time * roomAmount + room;
+		unlink(cellNext, cellPrev, occupant, cell, id); // a double booked cell keeps its other module
+		if (--occupancy[cell] == 0 && !withdrawn[room])
+			freeRooms[time][roomPosition[room] >>> 6] |= 1L << roomPosition[room]; // free again
+	}
+	
+	
+	/**
+	 * Puts the module at the front of a list.
+	 * @param next [module ID] -> next module of the list
+	 * @param prev [module ID] -> previous module of the list
+	 * @param first first module of each list
+	 * @param list which list
+	 */
+	private static void link(int[] next, int[] prev, int[] first, int list, int id)
+	{
+		next[id] = first[list];
+		prev[id] = -1;
+		if (first[list] != -1)
+			prev[first[list]] = id;
+		first[list] = id;
+	}
+	
+	
+	/**
+	 * Takes the module out of a list, see link.
+	 */
+	private static void unlink(int[] next, int[] prev, int[] first, int list, int id)
+	{
+		if (prev[id] == -1)
+			first[list] = next[id];
+		else
+			next[prev[id]] = next[id];
+		if (next[id] != -1)
+			prev[next[id]] = prev[id];
+	}
+	
+	
+	/**
+	 * Gets (creating if needed) the per time slot module counts of the programme.
+	 * Rows are only created while all the slot locks are held (the constructor and addModule), and the grown
+	 * arrays are filled before they are published, so lock-free readers never see a missing row.
+	 * @param programme programme ID from the store
+	 * @return array with one counter per time slot
+	 */
+	private int[] programmeCounts(int programme)
+	{
+		if (programme >= programmeSlots.length && programme >= 0)
+		{
+			int old = programmeSlots.length;
+			int[][] counts = Arrays.copyOf(programmeSlots, Math.max(programme + 1, old * 2));
+			int[][] first = Arrays.copyOf(programmeFirst, counts.length);
+			for (int p = old; p < counts.length; p++)
+			{
+				counts[p] = new int[slotAmount];
+				first[p] = new int[slotAmount];
+				Arrays.fill(first[p], -1);
+			}
+			programmeFirst = first;
+			programmeSlots = counts; // last, readers check its length
+		}
+		return programmeSlots[programme];
+	}
+	
+	
+	/**
+	 * Returns the module occupying the room at the given time.
+	 * @param time time slot name
+	 * @param room room name
+	 * @return Module object or null if the cell is free (or time/room are unknown)
+	 */
+	public Module occupantOf(String time, String room)
+	{
+		int t = catalogue.slotIndex(time), r = catalogue.roomIndex(room);
+		if (t == -1 || r == -1 || occupant[t * roomAmount + r] == -1)
+			return null;
+		return new Module(store, occupant[t * roomAmount + r]);
+	}
+	
+	
+	/**
+	 * Returns the ID of the module occupying a cell, by catalogue indexes (no names to look up).
+	 * @param time time slot index in the catalogue
+	 * @param room room index in the catalogue
+	 * @return module ID in the store, or -1 if the cell is free
+	 */
+	public int occupantId(int time, int room)
+	{
+		return occupant[time * roomAmount + room];
+	}
+	
+	
+	/**
+	 * Number of modules in a cell, by catalogue indexes (more than one only if the file double books it).
+	 */
+	public int occupancyOf(int time, int room)
+	{
+		return occupancy[time * roomAmount + room];
+	}
+	
+	
+	/**
+	 * Number of modules of a programme in a time slot, by IDs.
+	 * @param programme programme ID in the store
+	 * @param time time slot index in the catalogue
+	 */
+	public int programmeCount(int programme, int time)
+	{
+		return programme < programmeSlots.length ? programmeSlots[programme][time] : 0;
+	}
+	
+	
 	/**
 	 * Finds module with the specified code.
 	 * @param codeName the code of the module.
@@ -29,30 +413,36 @@ public class ModulesList
 	 */
 	public Module findModule(String codeName)
 	{
-		for	(int i = 0; i < moduleAmount; i++)	
-			if (codeName.equals(modulesList[i].getCode()))
-				return modulesList[i];
-		return null;
+		long start = metrics.start();
+		int id = store.find(codeName);
+		metrics.record(TimetableMetrics.Operation.FIND_MODULE, start);
+		return id == -1 ? null : new Module(store, id);
+	}
+	
+	
+	/**
+	 * Finds the position of the module with the specified code, which is also its row in the report.
+	 * @param codeName the code of the module.
+	 * @return ID of the module in the store, or -1 if not found.
+	 */
+	public int indexOf(String codeName)
+	{
+		return store.find(codeName);
 	}
 	
 	
 	/**
 	 * Checks whether the class can fit in the specified room.
-	 * Finds the capacity of specified room by finding a matching room in a room list.
-	 * Since room lists/capacity never changes, gets the appropriate room size using room's index. 
+	 * Finds the capacity of specified room by looking up the room's index in the catalogue.
 	 * @param roomName room in which the module is to be scheduled.
 	 * @param codeName module's code that is to be scheduled in a specified room.
 	 * @return boolean: 'true' if room is big enough, 'false' if it is not.
 	 */
 	public boolean checkRoomSize(String roomName, String codeName)
 	{
-		int roomCap = 0;
-		int requiredCap = findModule(codeName).getSize();
-		moduleAmount = modulesList.length;	 
-
-		for (int i = 0; i <roomAmount; i++)	//find room capacity
-			if(roomName.equals(TimeTableGUI.ROOMS[i]))
-				roomCap = TimeTableGUI.ROOM_SIZE[i];				
+		int requiredCap = store.moduleSize(store.find(codeName));
+		int room = catalogue.roomIndex(roomName); // find room capacity
+		int roomCap = room == -1 ? 0 : catalogue.capacityOf(room);
 		
 		if (requiredCap <= roomCap)	// check if students fit in the room		
 			return true; // room is big enough
@@ -68,8 +458,8 @@ public class ModulesList
 	 */
 	public Module moduleExists(String codeName)
 	{
-		module = findModule(codeName);
-		if (module != null && !module.getRoom().equals("?")) // if module has a room, it is scheduled
+		Module module = findModule(codeName); // local, so that several threads can ask at once
+		if (module != null && store.isPlaced(module.getId())) // if module has a time & room, it is scheduled
 			return module; // module is on a timetable	
 		return null; // module is not on a timetable
 	}
@@ -77,8 +467,8 @@ public class ModulesList
 	
 	/**
 	 * Checks whether the specified time is available for the module of a particular programme.
-	 * Goes through every module, checks what time does it take place. If time is the same as specified,
-	 * only then checks whether it is from the same programme - so as to avoid unnecessary calculations.
+	 * Looks up how many modules of the programme take place at the specified time and, if enrolments
+	 * were loaded, whether a student of the module already has another module then.
 	 * Exception: same module. This implies movement of the module, rather than scheduling of a new one.
 	 * @param code: code of the module that is to be (re)scheduled.
 	 * @param proposedTime: new time the module is to be (re)scheduled at.
@@ -86,19 +476,36 @@ public class ModulesList
 	 */
 	public boolean checkTime(String code, String proposedTime)
 	{
-		String inputProgramme = code.substring(0, 3); // first 3 letters of the to-be-scheduled module
-		for(int index = 0; index < moduleAmount; index++)
-		{
-			String iterationTime = modulesList[index].getTimeslot(); // get time for each module in the list
-			if (proposedTime.equals(iterationTime)) // if the time is the same as one on the module's list  
-			{
-				// Checks if programme's students have another lecture at that time
-				String iterationProgramme = modulesList[index].getProgramme(); // get year & programme
-				if (inputProgramme.equals(iterationProgramme) && !code.equals(modulesList[index].getCode()))
-					return false; // scheduling is impossible
-			}
-		}
-		return true; // scheduling is possible
+		long start = metrics.start();
+		boolean free = timeFree(code, proposedTime) && studentsFree(code, proposedTime);
+		metrics.record(TimetableMetrics.Operation.CHECK_TIME, start);
+		return free;
+	}
+	
+	
+	private boolean timeFree(String code, String proposedTime)
+	{
+		int time = catalogue.slotIndex(proposedTime);
+		int programme = store.findProgramme(code.substring(0, 3)); // year & programme of the module
+		if (time == -1 || programme == -1 || programme >= programmeSlots.length)
+			return true; // no module of this programme is at that time
+		
+		int others = programmeSlots[programme][time];
+		int self = store.find(code);
+		if (self != -1 && store.slot(self) == time)
+			others--; // the module itself does not clash with its own old time
+		return others == 0; // scheduling is possible only if no other module of the programme is there
+	}
+	
+	
+	private boolean studentsFree(String code, String proposedTime)
+	{
+		EnrolmentConflicts conflicts = enrolments;
+		int time = catalogue.slotIndex(proposedTime);
+		int self = store.find(code);
+		if (conflicts == null || time == -1 || self == -1)
+			return true;
+		return !conflicts.clashesAt(self, time); // no student of the module is busy then
 	}
 	
 	
@@ -112,15 +519,322 @@ public class ModulesList
 	 */
 	public boolean roomAvailable(String code, String proposedTime, String proposedRoom)
 	{
-		for (int index = 0; index < moduleAmount; index++) // iterate through array of modules
-			if (proposedTime.equals(modulesList[index].getTimeslot()) // if time is the same
-					&& proposedRoom.equals(modulesList[index].getRoom()) // and room is the same
-					&& !code.equals(modulesList[index].getCode())) // (exactly the same module does not count)
-					return false; // room is unavailable
-		return true; // room is available
+		long start = metrics.start();
+		boolean free = roomFree(code, proposedTime, proposedRoom);
+		metrics.record(TimetableMetrics.Operation.ROOM_AVAILABLE, start);
+		return free;
+	}
+	
+	
+	private boolean roomFree(String code, String proposedTime, String proposedRoom)
+	{
+		int time = catalogue.slotIndex(proposedTime), room = catalogue.roomIndex(proposedRoom);
+		if (time == -1 || room == -1)
+			return true; // nothing can be indexed in an unknown cell
+		
+		int others = occupancy[time * roomAmount + room];
+		int self = store.find(code);
+		if (self != -1 && store.slot(self) == time && store.room(self) == room)
+			others--; // (exactly the same module does not count)
+		return others == 0; // room is available only if nobody else is in it
 	}
 
 	
+	/**
+	 * Modules taking place in a room, in time slot order.
+	 * The cost grows with the number of time slots and modules returned, not with the whole timetable.
+	 * @param room room name
+	 * @return modules (views, see returnModules); empty if the room is unknown or never used
+	 */
+	public List<Module> modulesInRoom(String room)
+	{
+		return toModules(roomIds(room));
+	}
+	
+	
+	/**
+	 * Modules taking place at a time, in room order.
+	 * @param when time slot name (e.g. "TueAM"), or a day (e.g. "Tue") for all of its slots
+	 * @return modules (views, see returnModules); empty if no slot matches
+	 */
+	public List<Module> modulesAt(String when)
+	{
+		return toModules(slotIds(-1, when));
+	}
+	
+	
+	/**
+	 * Modules of a programme, in time slot and room order, e.g. what IT2 has on Tuesday.
+	 * Modules of the programme that are not scheduled are left out.
+	 * @param programme year & programme (first three characters of the codes, e.g. "IT2")
+	 * @param when time slot name, day, or null for the whole week
+	 * @return modules (views, see returnModules); empty if there is no such programme
+	 */
+	public List<Module> modulesOfProgramme(String programme, String when)
+	{
+		int id = store.findProgramme(programme);
+		return id == -1 ? new ArrayList<Module>() : toModules(slotIds(id, when));
+	}
+	
+	
+	/**
+	 * Streams the report rows of the modules taking place in a room, see modulesInRoom.
+	 * @param room room name
+	 * @param output writer/buffer the header and rows are appended to
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeRoomReport(String room, Appendable output) throws IOException
+	{
+		writeRows(roomIds(room), output);
+	}
+	
+	
+	/**
+	 * Streams the report rows of the modules taking place at a time, see modulesAt.
+	 */
+	public void writeTimeReport(String when, Appendable output) throws IOException
+	{
+		writeRows(slotIds(-1, when), output);
+	}
+	
+	
+	/**
+	 * Streams the report rows of a programme's modules, see modulesOfProgramme.
+	 */
+	public void writeProgrammeReport(String programme, String when, Appendable output) throws IOException
+	{
+		int id = store.findProgramme(programme);
+		writeRows(id == -1 ? new int[0] : slotIds(id, when), output);
+	}
+	
+	
+	/**
+	 * IDs of the modules in a room: the room's cell list of every time slot, each walked under the slot's lock.
+	 */
+	private int[] roomIds(String roomName)
+	{
+		int room = catalogue.roomIndex(roomName);
+		int[] ids = new int[0];
+		if (room == -1)
+			return ids;
+		int amount = 0;
+		for (int time = 0; time < slotAmount; time++)
+		{
+			slotLocks[time].lock();
+			try
+			{
+				int start = amount;
+				for (int id = occupant[time * roomAmount + room]; id != -1; id = cellNext[id])
+				{
+					if (amount == ids.length)
+						ids = Arrays.copyOf(ids, Math.max(8, amount * 2));
+					ids[amount++] = id;
+				}
+				Arrays.sort(ids, start, amount); // double bookings in file order
+			}
+			finally
+			{
+				slotLocks[time].unlock();
+			}
+		}
+		return Arrays.copyOf(ids, amount);
+	}
+	
+	
+	/**
+	 * IDs of the modules in the matching time slots, from the slot lists or from a programme's lists.
+	 * @param programme programme ID, or -1 for every programme
+	 * @param when time slot name, day (first three letters of slot names), or null for every slot
+	 */
+	private int[] slotIds(int programme, String when)
+	{
+		int exact = when == null ? -1 : catalogue.slotIndex(when);
+		long[] keys = new long[0]; // room << 32 | ID, so that sorting puts each slot's modules in room order
+		int amount = 0;
+		for (int time = 0; time < slotAmount; time++)
+		{
+			if (when != null && (exact != -1 ? time != exact : !catalogue.slotName(time).startsWith(when)))
+				continue;
+			slotLocks[time].lock();
+			try
+			{
+				int start = amount;
+				int[] next = programme == -1 ? slotNext : programmeNext;
+				for (int id = programme == -1 ? slotFirst[time] : programmeFirst[programme][time]; id != -1; id = next[id])
+				{
+					if (amount == keys.length)
+						keys = Arrays.copyOf(keys, Math.max(8, amount * 2));
+					keys[amount++] = (long) store.room(id) << 32 | id;
+				}
+				Arrays.sort(keys, start, amount);
+			}
+			finally
+			{
+				slotLocks[time].unlock();
+			}
+		}
+		int[] ids = new int[amount];
+		for (int i = 0; i < amount; i++)
+			ids[i] = (int) keys[i];
+		return ids;
+	}
+	
+	
+	private List<Module> toModules(int[] ids)
+	{
+		List<Module> modules = new ArrayList<Module>(ids.length);
+		for (int id : ids)
+			modules.add(new Module(store, id));
+		return modules;
+	}
+	
+	
+	private void writeRows(int[] ids, Appendable output) throws IOException
+	{
+		long start = metrics.start();
+		output.append(REPORT_HEADER);
+		for (int id : ids)
+			new Module(store, id).appendEssential(output);
+		metrics.record(TimetableMetrics.Operation.PRINT_REPORT, start);
+	}
+	
+	
+	/**
+	 * Lists the times and rooms the module can be moved to without breaking any check, best first:
+	 * least wasted seats first, with Wednesday afternoon (kept for sports) after all other times.
+	 * Each time slot keeps its free rooms as a bitset in room size order, so the best room of a slot is the
+	 * first free bit at or after the smallest room that is big enough, and the slots are merged by wasted seats.
+	 * The cost grows with the number of time slots and suggestions asked for, not with the modules or rooms.
+	 * Suggestions are a snapshot: a change made at the same time by another thread may take one of them.
+	 * @param code code of the module
+	 * @param limit how many suggestions at most, Integer.MAX_VALUE for all of them
+	 * @return suggestions in ranked order; empty if there is no such module or no place for it
+	 */
+	public List<Suggestion> suggest(String code, int limit)
+	{
+		List<Suggestion> suggestions = new ArrayList<Suggestion>();
+		int id = store.find(code);
+		if (id == -1)
+			return suggestions;
+		int size = store.moduleSize(id);
+		int programme = store.programme(id);
+		int[] programmeBusy = programme < programmeSlots.length ? programmeSlots[programme] : new int[slotAmount];
+		boolean[] studentBusy = new boolean[slotAmount]; // slots a student of the module has another module in
+		EnrolmentConflicts conflicts = enrolments;
+		if (conflicts != null)
+			conflicts.markBusySlots(id, studentBusy);
+		
+		int smallest = 0, largest = roomAmount; // first room big enough: binary search over the sorted sizes
+		while (smallest < largest)
+		{
+			int middle = (smallest + largest) >>> 1;
+			if (catalogue.capacityOf(roomsBySize[middle]) < size)
+				smallest = middle + 1;
+			else
+				largest = middle;
+		}
+		
+		int[] next = new int[slotAmount]; // [slot] -> position of its next free room, -1 when none left
+		for (int slot = 0; slot < slotAmount; slot++)
+		{
+			int others = programmeBusy[slot] - (store.slot(id) == slot ? 1 : 0);
+			next[slot] = others == 0 && !studentBusy[slot] ? nextFree(slot, smallest) : -1;
+		}
+		
+		while (suggestions.size() < limit)
+		{
+			int best = -1; // slot whose next free room wastes the fewest seats
+			for (int slot = 0; slot < slotAmount; slot++)
+				if (next[slot] != -1 && (best == -1 || ranksBefore(slot, best, next)))
+					best = slot;
+			if (best == -1)
+				break; // no more free places
+			int room = roomsBySize[next[best]];
+			suggestions.add(new Suggestion(catalogue.slotName(best), catalogue.roomName(room), catalogue.capacityOf(room) - size));
+			next[best] = nextFree(best, next[best] + 1);
+		}
+		return suggestions;
+	}
+	
+	
+	/**
+	 * Whether the next free room of one slot is a better suggestion than that of another:
+	 * WedPM goes last, then fewer wasted seats (a smaller room, as both are big enough).
+	 */
+	private boolean ranksBefore(int slot, int other, int[] next)
+	{
+		if ((slot == wedPM) != (other == wedPM))
+			return other == wedPM;
+		return catalogue.capacityOf(roomsBySize[next[slot]]) < catalogue.capacityOf(roomsBySize[next[other]]);
+	}
+	
+	
+	/**
+	 * Position (in roomsBySize) of the first free room of the slot at or after the given one.
+	 * @return position, or -1 if every room from there on is taken
+	 */
+	private int nextFree(int slot, int from)
+	{
+		long[] free = freeRooms[slot];
+		int word = from >>> 6;
+		if (word >= free.length)
+			return -1;
+		long bits = free[word] & (-1L << from); // rooms before 'from' do not count
+		while (true)
+		{
+			if (bits != 0)
+			{
+				int position = (word << 6) + Long.numberOfTrailingZeros(bits);
+				return position < roomAmount ? position : -1;
+			}
+			if (++word == free.length)
+				return -1;
+			bits = free[word];
+		}
+	}
+	
+	
+	/**
+	 * Runs every check the Save button needs, in the order it needs them:
+	 * 1) anything was entered as the code
+	 * 2) such module exists
+	 * 3) the time and room exist, and the room was not withdrawn
+	 * 4) the room is big enough
+	 * 5) no module from the same programme, and no other module of its students, is happening at the same time
+	 * 6) no other module is scheduled at the same time & room
+	 * @param code code of the module that is to be (re)scheduled.
+	 * @param time time it is to be scheduled at.
+	 * @param room room it is to be scheduled in.
+	 * @return SaveCheck.OK if setModuleInfo may be called, otherwise the first check that failed.
+	 */
+	public SaveCheck checkSave(String code, String time, String room)
+	{
+		return metrics.count(runChecks(code, time, room)); // counted by outcome
+	}
+	
+	
+	private SaveCheck runChecks(String code, String time, String room)
+	{
+		if (code.trim().equals(""))
+			return SaveCheck.NO_INPUT;
+		if (findModule(code) == null)
+			return SaveCheck.NO_SUCH_MODULE;
+		if (catalogue.slotIndex(time) == -1)
+			return SaveCheck.UNKNOWN_TIME;
+		if (catalogue.roomIndex(room) == -1)
+			return SaveCheck.UNKNOWN_ROOM;
+		if (withdrawn[catalogue.roomIndex(room)])
+			return SaveCheck.ROOM_WITHDRAWN;
+		if (!checkRoomSize(room, code))	// is room big enough?
+			return SaveCheck.ROOM_TOO_SMALL;
+		if (!checkTime(code, time)) // is the timeslot free for particular programme and the students?
+			return timeFree(code, time) ? SaveCheck.STUDENT_CLASH : SaveCheck.PROGRAMME_CLASH;
+		if (!roomAvailable(code, time, room)) // any other modules in this room at this time?
+			return SaveCheck.ROOM_TAKEN;
+		return SaveCheck.OK;
+	}
+	
+	
 	/**
 	 * Sets/changes module's time and room. Should only be used when all checks are true.
 	 * @param code module that is to be edited
@@ -129,17 +843,481 @@ public class ModulesList
 	 */
 	public void setModuleInfo(String code, String time, String room)
 	{
-		module = findModule(code);
-		module.setTimeSlot(time);
-		module.setRoom(room);		
+		long start = metrics.start();
+		int id = store.find(code);
+		int newSlot = store.slotId(time);
+		int oldSlot;
+		while ((oldSlot = lockMove(id, newSlot)) == -1)
+			; // module moved while we were waiting, lock its new slot instead
+		try
+		{
+			move(id, newSlot, store.roomId(room));
+			for (ChangeListener listener : listeners)
+				listener.moduleChanged(code, time, room); // still locked, so listeners see the changes of a module in order
+		}
+		finally
+		{
+			unlockMove(oldSlot, newSlot);
+		}
+		metrics.record(TimetableMetrics.Operation.SET_MODULE_INFO, start);
+	}
+	
+	
+	/**
+	 * Checks and applies a change as one atomic step, for several users working at once.
+	 * Runs the same checks as checkSave while holding the locks of the module's old and new time slot,
+	 * so nobody can take the time or room between the check and the change.
+	 * @param code module that is to be edited
+	 * @param time time to which it is rescheduled
+	 * @param room room to which it is rescheduled
+	 * @param expectedVersion version of the module the user saw (see getVersion), or -1 to skip the version check
+	 * @return SaveCheck.OK if the change was made, SaveCheck.VERSION_CONFLICT if the module changed in the meantime,
+	 * otherwise the check that failed.
+	 */
+	public SaveCheck reserve(String code, String time, String room, int expectedVersion)
+	{
+		int id = store.find(code);
+		int newSlot = catalogue.slotIndex(time);
+		if (id == -1 || newSlot == -1)
+			return checkSave(code, time, room); // nothing to lock, just report why
+		int oldSlot;
+		while ((oldSlot = lockMove(id, newSlot)) == -1)
+			;
+		try
+		{
+			if (expectedVersion != -1 && versions.get(id) != expectedVersion)
+				return metrics.count(SaveCheck.VERSION_CONFLICT);
+			SaveCheck check = checkSave(code, time, room);
+			if (check != SaveCheck.OK)
+				return check;
+			move(id, newSlot, catalogue.roomIndex(room));
+			for (ChangeListener listener : listeners)
+				listener.moduleChanged(code, time, room);
+		}
+		finally
+		{
+			unlockMove(oldSlot, newSlot);
+		}
+		return SaveCheck.OK;
+	}
+	
+	
+	/**
+	 * Makes every move of the transaction as one atomic step, or none of them.
+	 * The moves are checked like checkSave does, but against the timetable as it will be after all of them,
+	 * so modules may swap times or rooms. All the time slots involved are locked while the moves are checked
+	 * and made, and listeners are told about them in one modulesChanged call (a single journal write).
+	 * @param transaction moves to be made
+	 * @return SaveCheck.OK if all moves were made, otherwise the first check that failed (see Transaction.getFailed);
+	 * nothing is changed then
+	 */
+	public SaveCheck commit(Transaction transaction)
+	{
+		int amount = transaction.size();
+		transaction.failed = -1;
+		transaction.committedVersions = null;
+		int[] ids = new int[amount], slots = new int[amount], rooms = new int[amount];
+		HashMap<Integer, Integer> lastMove = new HashMap<Integer, Integer>(); // module ID -> position of its last move
+		for (int i = 0; i < amount; i++)
+		{
+			String code = transaction.codes.get(i), time = transaction.times.get(i), room = transaction.rooms.get(i);
+			SaveCheck check = code.trim().equals("") ? SaveCheck.NO_INPUT
+					: (ids[i] = store.find(code)) == -1 ? SaveCheck.NO_SUCH_MODULE
+					: (slots[i] = catalogue.slotIndex(time)) == -1 ? SaveCheck.UNKNOWN_TIME
+					: (rooms[i] = catalogue.roomIndex(room)) == -1 ? SaveCheck.UNKNOWN_ROOM
+					: withdrawn[rooms[i]] ? SaveCheck.ROOM_WITHDRAWN
+					: !checkRoomSize(room, code) ? SaveCheck.ROOM_TOO_SMALL : SaveCheck.OK;
+			if (check != SaveCheck.OK)
+				return failed(transaction, i, check);
+			lastMove.put(ids[i], i);
+		}
+		
+		boolean[] locked;
+		while ((locked = lockAll(ids, slots)) == null)
+			; // a module moved while we were waiting, lock its new slot instead
+		try
+		{
+			for (int i = 0; i < amount; i++)
+				if (transaction.versions.get(i) != -1 && versions.get(ids[i]) != transaction.versions.get(i))
+					return failed(transaction, i, SaveCheck.VERSION_CONFLICT);
+			
+			// counts of the cells and programme slots the moves leave and enter
+			HashMap<Integer, Integer> cellChange = new HashMap<Integer, Integer>();
+			HashMap<Long, Integer> programmeChange = new HashMap<Long, Integer>();
+			for (int i : lastMove.values())
+			{
+				int id = ids[i], programme = store.programme(id), oldSlot = store.slot(id), oldRoom = store.room(id);
+				if (oldSlot < slotAmount)
+				{
+					programmeChange.merge((long) programme * slotAmount + oldSlot, -1, Integer::sum);
+					if (oldRoom < roomAmount)
+						cellChange.merge(oldSlot * roomAmount + oldRoom, -1, Integer::sum);
+				}
+				programmeChange.merge((long) programme * slotAmount + slots[i], 1, Integer::sum);
+				cellChange.merge(slots[i] * roomAmount + rooms[i], 1, Integer::sum);
+			}
+			EnrolmentConflicts conflicts = enrolments;
+			for (int i = 0; i < amount; i++)
+			{
+				if (lastMove.get(ids[i]) != i)
+					continue; // overridden by a later move of the same module
+				int programme = store.programme(ids[i]), cell = slots[i] * roomAmount + rooms[i];
+				int already = programme < programmeSlots.length ? programmeSlots[programme][slots[i]] : 0;
+				if (already + programmeChange.get((long) programme * slotAmount + slots[i]) > 1)
+					return failed(transaction, i, SaveCheck.PROGRAMME_CLASH);
+				if (conflicts != null && conflicts.clashesAt(ids[i], slots[i], 
+						other -> lastMove.containsKey(other) ? slots[lastMove.get(other)] : store.slot(other)))
+					return failed(transaction, i, SaveCheck.STUDENT_CLASH);
+				if (occupancy[cell] + cellChange.get(cell) > 1)
+					return failed(transaction, i, SaveCheck.ROOM_TAKEN);
+			}
+			
+			String[] codes = new String[lastMove.size()], times = new String[codes.length], roomNames = new String[codes.length];
+			int changed = 0;
+			for (int i = 0; i < amount; i++)
+				if (lastMove.get(ids[i]) == i)
+				{
+					move(ids[i], slots[i], rooms[i]);
+					codes[changed] = transaction.codes.get(i);
+					times[changed] = transaction.times.get(i);
+					roomNames[changed++] = transaction.rooms.get(i);
+				}
+			transaction.committedVersions = new int[amount];
+			for (int i = 0; i < amount; i++)
+				transaction.committedVersions[i] = versions.get(ids[i]);
+			for (ChangeListener listener : listeners)
+				listener.modulesChanged(codes, times, roomNames);
+		}
+		finally
+		{
+			for (int lock = 0; lock < locked.length; lock++)
+				if (locked[lock])
+					slotLocks[lock].unlock();
+		}
+		return metrics.count(SaveCheck.OK);
+	}
+	
+	
+	private SaveCheck failed(Transaction transaction, int move, SaveCheck check)
+	{
+		transaction.failed = move;
+		return metrics.count(check);
+	}
+	
+	
+	/**
+	 * Locks the current and new slots of all the modules, in index order so that two commits cannot deadlock.
+	 * @return [lock] -> whether it was locked, or null if a module moved before it was locked (nothing is left locked then)
+	 */
+	private boolean[] lockAll(int[] ids, int[] newSlots)
+	{
+		boolean[] locked = new boolean[slotLocks.length];
+		int[] oldSlots = new int[ids.length];
+		for (int i = 0; i < ids.length; i++)
+		{
+			oldSlots[i] = store.slot(ids[i]);
+			locked[lockIndex(oldSlots[i])] = locked[lockIndex(newSlots[i])] = true;
+		}
+		for (int lock = 0; lock < locked.length; lock++)
+			if (locked[lock])
+				slotLocks[lock].lock();
+		for (int i = 0; i < ids.length; i++)
+			if (store.slot(ids[i]) != oldSlots[i])
+			{
+				for (int lock = 0; lock < locked.length; lock++)
+					if (locked[lock])
+						slotLocks[lock].unlock();
+				return null;
+			}
+		return locked;
+	}
+	
+	
+	/**
+	 * Number of changes made to the module so far. Pass it to reserve to detect concurrent edits.
+	 * @param code code of the module
+	 * @return version, or -1 if there is no such module
+	 */
+	public int getVersion(String code)
+	{
+		int id = store.find(code);
+		return id == -1 ? -1 : versions.get(id);
+	}
+	
+	
+	/**
+	 * Reads the module's time, room, size and version together, without another thread changing them halfway.
+	 * @param code code of the module
+	 * @return "CODE TIME ROOM SIZE VERSION", or null if there is no such module
+	 */
+	public String describe(String code)
+	{
+		int id = store.find(code);
+		if (id == -1)
+			return null;
+		while (true)
+		{
+			int slot = store.slot(id);
+			ReentrantLock lock = slotLocks[lockIndex(slot)];
+			lock.lock();
+			try
+			{
+				if (store.slot(id) == slot) // still in the slot we locked
+					return code + " " + store.slotName(slot) + " " + store.roomName(store.room(id)) + " "
+							+ store.moduleSize(id) + " " + versions.get(id);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
 	}
+	
+	
+	/**
+	 * Takes a room out of use: checkSave, commit and suggest no longer give it to any module, and the
+	 * schedulers leave it out. Modules already in it stay there until they are moved (see TimetableRepair).
+	 * Lasts until the program ends; remove the room from Timetable.cfg to withdraw it for good.
+	 * @param room room name
+	 * @return false if there is no such room
+	 */
+	public boolean withdrawRoom(String room)
+	{
+		int index = catalogue.roomIndex(room);
+		if (index == -1)
+			return false;
+		for (ReentrantLock lock : slotLocks)
+			lock.lock();
+		try
+		{
+			withdrawn[index] = true;
+			for (long[] free : freeRooms)
+				free[roomPosition[index] >>> 6] &= ~(1L << roomPosition[index]); // never suggested again
+		}
+		finally
+		{
+			for (ReentrantLock lock : slotLocks)
+				lock.unlock();
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Whether the room was withdrawn.
+	 * @param room room ID in the catalogue
+	 */
+	public boolean isWithdrawn(int room) {return withdrawn[room];}
+	
+	
+	/**
+	 * Changes the number of students of a module. The module stays where it is, even if its room is now
+	 * too small (see TimetableRepair). Listeners are told through moduleResized.
+	 * @param code code of the module
+	 * @param size new number of students
+	 * @return false if there is no such module
+	 */
+	public boolean setModuleSize(String code, int size)
+	{
+		ReentrantLock lock = slotLocks[slotAmount]; // any slot lock keeps addModule and removeModule out
+		lock.lock();
+		try
+		{
+			int id = store.find(code);
+			if (id == -1)
+				return false;
+			store.setSize(id, size);
+			for (ChangeListener listener : listeners)
+				listener.moduleResized(code, size);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Adds a module while the program runs, e.g. one that appeared in the modules file (see ModuleFileWatcher).
+	 * Like the modules read at the start, it is placed where the file says without running the checks.
+	 * All time slots are locked meanwhile. Listeners are told through moduleAdded.
+	 * @return false if there is a module with the code already
+	 */
+	public boolean addModule(String code, String title, String time, String room, int size)
+	{
+		for (ReentrantLock lock : slotLocks)
+			lock.lock();
+		try
+		{
+			if (store.find(code) != -1)
+				return false;
+			if (store.size() >= cellNext.length) // before the module can be found, e.g. by getVersion
+				growViews(Math.max(store.size() + 1, cellNext.length * 2));
+			int id = store.add(code, title, time, room, size);
+			programmeCounts(store.programme(id)); // even if it is not scheduled, so that moves never have to grow them
+			place(id);
+			EnrolmentConflicts conflicts = enrolments;
+			if (conflicts != null)
+				enrolments = conflicts.withModuleAdded(id, code);
+			for (ChangeListener listener : listeners)
+				listener.moduleAdded(code, title, time, room, size);
+		}
+		finally
+		{
+			for (ReentrantLock lock : slotLocks)
+				lock.unlock();
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Takes a module out of the timetable for good, e.g. one that is no longer in the modules file.
+	 * The module with the last ID takes its ID, so IDs held elsewhere must follow moduleRemoved.
+	 * The enrolments follow the change of IDs (see EnrolmentConflicts.withModuleRemoved).
+	 * All time slots are locked meanwhile.
+	 * @return false if there is no such module
+	 */
+	public boolean removeModule(String code)
+	{
+		int id;
+		for (ReentrantLock lock : slotLocks)
+			lock.lock();
+		try
+		{
+			id = store.find(code);
+			if (id == -1)
+				return false;
+			int last = store.size() - 1, version = versions.get(last);
+			unplace(id);
+			if (id != last)
+				unplace(last);
+			store.remove(id);
+			if (id != last)
+			{
+				versions.set(id, version);
+				place(id); // the last module, under its new ID
+			}
+			versions.set(last, 0);
+			EnrolmentConflicts conflicts = enrolments;
+			if (conflicts != null)
+				enrolments = conflicts.withModuleRemoved(id, last, code);
+			for (ChangeListener listener : listeners)
+				listener.moduleRemoved(code, id);
+		}
+		finally
+		{
+			for (ReentrantLock lock : slotLocks)
+				lock.unlock();
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Makes room in the views and versions for more modules. The caller holds all the slot locks.
+	 */
+	private void growViews(int capacity)
+	{
+		cellNext = Arrays.copyOf(cellNext, capacity);
+		cellPrev = Arrays.copyOf(cellPrev, capacity);
+		slotNext = Arrays.copyOf(slotNext, capacity);
+		slotPrev = Arrays.copyOf(slotPrev, capacity);
+		programmeNext = Arrays.copyOf(programmeNext, capacity);
+		programmePrev = Arrays.copyOf(programmePrev, capacity);
+		AtomicIntegerArray grown = new AtomicIntegerArray(capacity);
+		for (int id = 0; id < versions.length(); id++)
+			grown.set(id, versions.get(id));
+		versions = grown;
+	}
+	
+	
+	/**
+	 * Moves the module in the indexes and the store. The caller holds the locks of the old and new slot.
+	 */
+	private void move(int id, int slot, int room)
+	{
+		unplace(id); // keep the indexes in step with the module
+		store.setSlot(id, slot);
+		store.setRoom(id, room);		
+		place(id);
+		versions.incrementAndGet(id);
+	}
+	
+	
+	/**
+	 * Lock that guards a time slot; all unscheduled "slots" share the last one.
+	 */
+	private int lockIndex(int slot)
+	{
+		return slot < slotAmount ? slot : slotAmount;
+	}
+	
+	
+	/**
+	 * Locks the module's current slot and the new one, lower index first so two moves cannot deadlock.
+	 * @return the module's slot that was locked, or -1 if the module moved before it was locked (nothing is left locked then)
+	 */
+	private int lockMove(int id, int newSlot)
+	{
+		int oldSlot = store.slot(id);
+		int first = Math.min(lockIndex(oldSlot), lockIndex(newSlot));
+		int second = Math.max(lockIndex(oldSlot), lockIndex(newSlot));
+		slotLocks[first].lock();
+		if (second != first)
+			slotLocks[second].lock();
+		if (store.slot(id) == oldSlot)
+			return oldSlot;
+		unlockMove(oldSlot, newSlot);
+		return -1;
+	}
+	
+	
+	/**
+	 * Releases the locks taken by lockMove.
+	 */
+	private void unlockMove(int oldSlot, int newSlot)
+	{
+		slotLocks[lockIndex(oldSlot)].unlock();
+		if (lockIndex(newSlot) != lockIndex(oldSlot))
+			slotLocks[lockIndex(newSlot)].unlock();
+	}
+	
+	
+	/**
+	 * Registers a listener that is told about every setModuleInfo call.
+	 * @param listener object to be notified
+	 */
+	public void addChangeListener(ChangeListener listener) {listeners.add(listener);}
 
 	
 	/**
 	 * Method to return all the modules. For other modules to derive information from it.
-	 * @return: ArrayList containing all the modules.
+	 * The Module objects are views created on each call; large scale code should use getStore().
+	 * @return: array containing all the modules.
 	 */
-	public Module[] returnModules() {return modulesList;}
+	public Module[] returnModules() 
+	{
+		Module[] modules = new Module[store.size()];
+		for (int id = 0; id < modules.length; id++)
+			modules[id] = new Module(store, id);
+		return modules;
+	}
+	
+	
+	/**Getters*/
+	public ModuleStore getStore() {return store;}
+	public Catalogue getCatalogue() {return catalogue;}
+	public EnrolmentConflicts getEnrolments() {return enrolments;}
+	
+	
+	/**
+	 * Makes checkTime, checkSave and suggest also turn down times at which a student of the module
+	 * has another module.
+	 * @param enrolments conflict matrix built for this list's store, or null to check programmes only
+	 */
+	public void setEnrolments(EnrolmentConflicts enrolments) {this.enrolments = enrolments;}
 
 	
 	/**
@@ -147,10 +1325,30 @@ public class ModulesList
 	 */
 	public String printModules()
 	{
-		String output = "";
-		for (int index = 0; index < moduleAmount; index++)
-			output += modulesList[index].outp();
-		return output;
+		StringBuilder output = new StringBuilder(store.size() * 48);
+		try 
+		{
+			writeModules(output);
+		} 
+		catch (IOException e) 
+		{
+			throw new IllegalStateException(e); // StringBuilder does not throw
+		}
+		return output.toString();
+	}
+	
+	
+	/**
+	 * Streams each module's info, in the text file format, to the output.
+	 * @param output writer/buffer the lines are appended to
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeModules(Appendable output) throws IOException
+	{
+		long start = metrics.start();
+		for (int id = 0; id < store.size(); id++)
+			new Module(store, id).appendTo(output);
+		metrics.record(TimetableMetrics.Operation.WRITE_FILE, start);
 	}
 	
 	
@@ -159,10 +1357,42 @@ public class ModulesList
 	 */
 	public String printReport()
 	{
-		String output = "";
-		output += String.format("%8s %10s %14s %9s %n", "Code", "Time", "Room", "Size");
-		for (int index = 0; index < moduleAmount; index++)
-			output += modulesList[index].printEssential();
-		return output;
+		StringBuilder output = new StringBuilder((store.size() + 1) * Module.ESSENTIAL_WIDTH);
+		try 
+		{
+			writeReport(output);
+		} 
+		catch (IOException e) 
+		{
+			throw new IllegalStateException(e); // StringBuilder does not throw
+		}
+		return output.toString();
+	}
+	
+	
+	/**
+	 * Streams the report - a header and one fixed width row per module - to the output.
+	 * @param output writer/buffer the rows are appended to
+	 * @throws IOException if the output cannot be written
+	 */
+	public void writeReport(Appendable output) throws IOException
+	{
+		long start = metrics.start();
+		output.append(REPORT_HEADER);
+		for (int id = 0; id < store.size(); id++)
+			new Module(store, id).appendEssential(output);
+		metrics.record(TimetableMetrics.Operation.PRINT_REPORT, start);
+	}
+	
+	
+	/**
+	 * Report row of a single module, for updating just that row of a displayed report.
+	 * The row of the module is indexOf(code) + 1, since the header comes first.
+	 * @param codeName code of the module
+	 * @return the row, ending with a line break
+	 */
+	public String printReportRow(String codeName)
+	{
+		return findModule(codeName).printEssential();
 	}
 }
\ No newline at end of file
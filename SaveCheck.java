@@ -0,0 +1,34 @@
+/**
+ * Outcome of checking whether a module can be (re)scheduled at a time and room.
+ * The order of the checks and the messages are the ones the Save button has always used.
+ * TimetableValidator uses the same values for the rules a loaded file breaks.
+ */
+public enum SaveCheck
+{
+	OK("Module can be scheduled.", "Saved"),
+	NO_INPUT("No input provided.", "No input"),
+	NO_SUCH_MODULE("Such module does not exist.", "Module does not exist"),
+	UNKNOWN_TIME("Such time slot does not exist.", "Time slot does not exist"),
+	UNKNOWN_ROOM("Such room does not exist.", "Room does not exist"),
+	ROOM_WITHDRAWN("Selected room is no longer available.", "Room withdrawn"),
+	ROOM_TOO_SMALL("Selected room is too small for this module.", "Room is too small"),
+	PROGRAMME_CLASH("Another module from the same programme is happening at this time.", "Timetable clash"),
+	STUDENT_CLASH("A student of this module has another module at this time.", "Timetable clash"),
+	ROOM_TAKEN("Room is already taken by another module.", "Timetable clash"),
+	VERSION_CONFLICT("Module was changed by someone else in the meantime.", "Edit conflict"),
+	DUPLICATE_CODE("Another module has the same code.", "Duplicate module");
+
+	private final String message, title;
+
+	private SaveCheck(String message, String title)
+	{
+		this.message = message;
+		this.title = title;
+	}
+
+	/**Text shown to the user*/
+	public String getMessage() {return message;}
+
+	/**Title of the dialog that shows the message*/
+	public String getTitle() {return title;}
+}
@@ -0,0 +1,247 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Integer encoding of a timetable, used by the automatic scheduling tools.
+ * Rooms, time slots and programmes are replaced by their indexes so that the solvers
+ * can work with plain arrays instead of comparing strings.
+ */
+public class ScheduleProblem
+{
+	/**Catalogue of rooms and time slots*/
+	public final String[] rooms; // room names
+	public final int[] capacity; // seats per room, same order as rooms
+	public final String[] slots; // time slot names
+
+	/**One entry per module, same order as in the ModulesList*/
+	public final int moduleAmount;
+	public final String[] codes;
+	public final int[] size; // students per module
+	public final int[] programme; // programme index (see programmeNames)
+	public final int[] slot; // time slot index or -1 if not scheduled
+	public final int[] room; // room index or -1 if not scheduled
+	public final String[] programmeNames;
+
+	/**Modules that share students, by module ID of the store; null if no enrolments are loaded (see clashesAt)*/
+	public final EnrolmentConflicts enrolments;
+	private final int[] storeIds; // [module] -> its ID in the store; null if they are the same
+	private final int[] moduleOf; // [store ID] -> index of the module in this problem, -1 if not in it; null if the same
+	private final int[] storeSlot; // [store ID] -> time slot index when the problem was encoded, or -1
+
+
+	/**
+	 * Encodes the modules against the given room and time slot catalogue.
+	 * Modules whose time or room is not in the catalogue are treated as not scheduled.
+	 * @param modules modules to be encoded
+	 * @param rooms room names
+	 * @param capacity room sizes
+	 * @param slots time slot names
+	 */
+	public ScheduleProblem(Module[] modules, String[] rooms, int[] capacity, String[] slots)
+	{
+		this.rooms = rooms;
+		this.capacity = capacity;
+		this.slots = slots;
+		moduleAmount = modules.length;
+		codes = new String[moduleAmount];
+		size = new int[moduleAmount];
+		programme = new int[moduleAmount];
+		slot = new int[moduleAmount];
+		room = new int[moduleAmount];
+
+		HashMap<String, Integer> roomIndex = indexOf(rooms);
+		HashMap<String, Integer> slotIndex = indexOf(slots);
+		HashMap<String, Integer> programmeIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < moduleAmount; i++)
+		{
+			codes[i] = modules[i].getCode();
+			size[i] = modules[i].getSize();
+
+			Integer p = programmeIndex.get(modules[i].getProgramme());
+			if (p == null)
+			{
+				p = programmeIndex.size();
+				programmeIndex.put(modules[i].getProgramme(), p);
+			}
+			programme[i] = p;
+
+			Integer s = slotIndex.get(modules[i].getTimeslot());
+			Integer r = roomIndex.get(modules[i].getRoom());
+			slot[i] = (s == null || r == null) ? -1 : s; // both are needed to be on the timetable
+			room[i] = (s == null || r == null) ? -1 : r;
+		}
+
+		programmeNames = new String[programmeIndex.size()];
+		for (String name : programmeIndex.keySet())
+			programmeNames[programmeIndex.get(name)] = name;
+		enrolments = null; // the modules are not in a store
+		storeIds = moduleOf = null;
+		storeSlot = slot;
+	}
+
+
+	/**
+	 * Encodes the modules of the list against its own catalogue, straight from its store.
+	 * Withdrawn rooms are kept, with a capacity that fits no module. The enrolments of the list come along.
+	 * @param list modules to be encoded
+	 */
+	public ScheduleProblem(ModulesList list)
+	{
+		ModuleStore store = list.getStore();
+		Catalogue catalogue = list.getCatalogue();
+		rooms = catalogue.getRooms();
+		capacity = catalogue.getCapacity();
+		for (int r = 0; r < capacity.length; r++)
+			if (list.isWithdrawn(r))
+				capacity[r] = -1; // fits no module
+		slots = catalogue.getSlots();
+		moduleAmount = store.size();
+		codes = new String[moduleAmount];
+		size = new int[moduleAmount];
+		programme = new int[moduleAmount];
+		slot = new int[moduleAmount];
+		room = new int[moduleAmount];
+		for (int i = 0; i < moduleAmount; i++)
+		{
+			codes[i] = store.code(i);
+			size[i] = store.moduleSize(i);
+			programme[i] = store.programme(i);
+			slot[i] = store.isPlaced(i) ? store.slot(i) : -1;
+			room[i] = store.isPlaced(i) ? store.room(i) : -1;
+		}
+		programmeNames = new String[store.programmeAmount()];
+		for (int p = 0; p < programmeNames.length; p++)
+			programmeNames[p] = store.programmeName(p);
+		enrolments = list.getEnrolments();
+		storeIds = moduleOf = null; // module i is module ID i
+		storeSlot = slot;
+	}
+
+
+	/**
+	 * Part of another problem: the given modules, with the same rooms, time slots and programmes.
+	 */
+	private ScheduleProblem(ScheduleProblem whole, int[] modules)
+	{
+		rooms = whole.rooms;
+		capacity = whole.capacity;
+		slots = whole.slots;
+		programmeNames = whole.programmeNames;
+		moduleAmount = modules.length;
+		codes = new String[moduleAmount];
+		size = new int[moduleAmount];
+		programme = new int[moduleAmount];
+		slot = new int[moduleAmount];
+		room = new int[moduleAmount];
+		for (int i = 0; i < moduleAmount; i++)
+		{
+			codes[i] = whole.codes[modules[i]];
+			size[i] = whole.size[modules[i]];
+			programme[i] = whole.programme[modules[i]];
+			slot[i] = whole.slot[modules[i]];
+			room[i] = whole.room[modules[i]];
+		}
+		enrolments = whole.enrolments;
+		storeSlot = whole.storeSlot;
+		storeIds = new int[moduleAmount];
+		moduleOf = new int[storeSlot.length];
+		Arrays.fill(moduleOf, -1);
+		for (int i = 0; i < moduleAmount; i++)
+		{
+			storeIds[i] = whole.storeIds == null ? modules[i] : whole.storeIds[modules[i]];
+			moduleOf[storeIds[i]] = i;
+		}
+	}
+
+
+	/**
+	 * The same modules against another room and time slot catalogue, with none of them scheduled.
+	 */
+	private ScheduleProblem(ScheduleProblem whole, Catalogue catalogue)
+	{
+		rooms = catalogue.getRooms();
+		capacity = catalogue.getCapacity();
+		slots = catalogue.getSlots();
+		programmeNames = whole.programmeNames;
+		moduleAmount = whole.moduleAmount;
+		codes = whole.codes; // never changed by the solvers, so shared rather than copied
+		size = whole.size;
+		programme = whole.programme;
+		slot = new int[moduleAmount];
+		room = new int[moduleAmount];
+		Arrays.fill(slot, -1);
+		Arrays.fill(room, -1);
+		enrolments = whole.enrolments;
+		storeIds = whole.storeIds;
+		moduleOf = whole.moduleOf;
+		storeSlot = whole.storeSlot; // modules of the store that are not in the problem stay where they were
+	}
+
+
+	/**
+	 * Problem of scheduling all the modules again in other rooms and time slots, e.g. one configuration of
+	 * CapacitySweep. The module arrays are shared with this problem.
+	 * @param catalogue rooms and time slots of the new problem
+	 */
+	public ScheduleProblem unscheduled(Catalogue catalogue)
+	{
+		return new ScheduleProblem(this, catalogue);
+	}
+
+
+	/**
+	 * Problem made of some of the modules only, e.g. one component of DecomposedScheduler.
+	 * @param modules indexes of the modules; module i of the new problem is modules[i] of this one
+	 */
+	public ScheduleProblem subset(int[] modules)
+	{
+		return new ScheduleProblem(this, modules);
+	}
+
+
+	/**
+	 * Maps every name in the array to its position in it.
+	 */
+	private static HashMap<String, Integer> indexOf(String[] names)
+	{
+		HashMap<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < names.length; i++)
+			index.put(names[i], i);
+		return index;
+	}
+
+
+	/**
+	 * Checks whether the module is on the timetable.
+	 * @param module index of the module
+	 */
+	public boolean isPlaced(int module) {return slot[module] >= 0;}
+
+
+	/**
+	 * Whether a student of the module would have another module in the time slot.
+	 * @param module index of the module
+	 * @param s time slot index
+	 * @param slotOf module index -> its time slot index (or -1), for the modules of this problem; the other
+	 * modules of the store are where they were when the problem was encoded
+	 * @return false if no enrolments are loaded
+	 */
+	public boolean clashesAt(int module, int s, IntUnaryOperator slotOf)
+	{
+		if (enrolments == null)
+			return false;
+		if (storeIds == null)
+			return enrolments.clashesAt(module, s, other -> other < moduleAmount ? slotOf.applyAsInt(other) : -1);
+		return enrolments.clashesAt(storeIds[module], s, other -> {
+			int i = other < moduleOf.length ? moduleOf[other] : -1;
+			return i != -1 ? slotOf.applyAsInt(i) : other < storeSlot.length ? storeSlot[other] : -1;
+		});
+	}
+
+
+	/**
+	 * Number of programmes in the problem.
+	 */
+	public int programmeAmount() {return programmeNames.length;}
+}
@@ -0,0 +1,389 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP service that lets several people schedule modules at the same time.
+ *
+ * Requests (answers are plain text):
+ *   GET  /modules/CODE                                 "CODE TIME ROOM SIZE VERSION"
+ *   POST /reserve?code=CODE&time=TIME&room=ROOM&version=N
+ *        200 and the new version if the change was made,
+ *        409 if the module changed since version N was read (read it again and retry),
+ *        422 with the reason if a check failed (same messages as the Save button).
+ *        Leave out version to skip the conflict check.
+ *   POST /transaction                                  body: "CODE TIME ROOM [VERSION]" per line
+ *        makes all the moves or none (see ModulesList.commit); 200 and "CODE VERSION" per module if made,
+ *        otherwise 409/404/422 as for /reserve with "CODE: reason"; 400 if a line is malformed.
+ *   POST /resize?code=CODE&size=N                      new number of students; moves the module if its room is now too small
+ *   POST /withdraw?room=ROOM                           takes the room out of use and moves the modules in it
+ *        200, a summary and the moves made, "CODE OLDTIME OLDROOM -> TIME ROOM" per line (see TimetableRepair);
+ *        404 if there is no such module or room
+ *   GET  /report                                       the report, as printed by the GUI
+ *   GET  /report?room=ROOM                             only the modules in the room
+ *   GET  /report?time=TIME                             only the modules at the time slot, or day (e.g. time=Tue)
+ *   GET  /report?programme=IT2[&time=TIME]             only the programme's modules
+ *   GET  /metrics                                      latencies and save outcomes (see TimetableMetrics)
+ *
+ * Every request runs in its own virtual thread where the JVM has them (Java 21 and later),
+ * otherwise in a cached thread pool. All changes are journalled like in the GUI, and changes of the
+ * modules file are applied while the service runs (see ModuleFileWatcher).
+ *
+ * Usage: TTA --serve modulesFile [port] [outputFile]
+ */
+public class SchedulingService
+{
+	public static final int DEFAULT_PORT = 8080;
+
+	private final ModulesList timetable;
+	private final HttpServer server;
+	private final TimetableRepair repair;
+
+
+	/**
+	 * Creates the service on localhost. It does not answer until start is called.
+	 * @param timetable modules the requests read and change
+	 * @param port port to listen on, 0 for any free one
+	 * @throws IOException if the port cannot be opened
+	 */
+	public SchedulingService(ModulesList timetable, int port) throws IOException
+	{
+		this.timetable = timetable;
+		repair = new TimetableRepair(timetable);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/modules/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {module(exchange);}
+		});
+		server.createContext("/reserve", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {reserve(exchange);}
+		});
+		server.createContext("/transaction", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {transaction(exchange);}
+		});
+		server.createContext("/resize", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {repair(exchange);}
+		});
+		server.createContext("/withdraw", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {repair(exchange);}
+		});
+		server.createContext("/report", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {report(exchange);}
+		});
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				reply(exchange, 200, TimetableMetrics.get().getSummary());
+			}
+		});
+		server.setExecutor(requestExecutor());
+	}
+
+
+	/**
+	 * Entry point for the service mode.
+	 * @param args modules file, port, output file
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: TTA --serve modulesFile [port] [outputFile]");
+			System.exit(2);
+		}
+		String outputPath = args.length > 2 ? args[2] : "ModulesOut.txt";
+		try
+		{
+			ModuleFileParser parser = new ModuleFileParser();
+			ModulesList timetable = ChangeJournal.needsRecovery(outputPath)
+					? ChangeJournal.recover(outputPath, args[0])
+					: parser.load(args[0]);
+			for (String error : parser.getErrors())
+				System.err.println(args[0] + ": " + error);
+			for (String error : EnrolmentConflicts.attachIfPresent(timetable, args[0]))
+				System.err.println(EnrolmentConflicts.DEFAULT_PATH + ": " + error);
+
+			final ChangeJournal journal = new ChangeJournal(timetable, outputPath, false, ChangeJournal.DEFAULT_COMPACT_EVERY);
+			final SchedulingService service = new SchedulingService(timetable,
+					args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run()
+				{
+					service.stop();
+					try
+					{
+						journal.close(); // final snapshot
+					}
+					catch (IOException e)
+					{
+						System.err.println("I/O Exception: " + e.getMessage());
+					}
+				}
+			});
+			final ModuleFileWatcher watcher = new ModuleFileWatcher(timetable, args[0]);
+			watcher.start(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						System.out.print(watcher.reload().summary());
+					}
+					catch (IOException e)
+					{
+						System.err.println("I/O Exception: " + e.getMessage());
+					}
+				}
+			});
+			service.start();
+			System.out.println("Scheduling service on http://localhost:" + service.getPort() + "/");
+		}
+		catch (IOException e)
+		{
+			System.err.println("I/O Exception: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	public void start() {server.start();}
+
+	/**Stops taking requests and waits up to a second for the running ones*/
+	public void stop() {server.stop(1);}
+
+	public int getPort() {return server.getAddress().getPort();}
+
+
+	/**
+	 * One virtual thread per request if the JVM has them, so that a slow client never holds a pool thread.
+	 * Looked up by reflection, so the service still builds and runs on older JVMs.
+	 */
+	private static ExecutorService requestExecutor()
+	{
+		try
+		{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+
+	/**
+	 * GET /modules/CODE
+	 */
+	private void module(HttpExchange exchange) throws IOException
+	{
+		if (!exchange.getRequestMethod().equals("GET"))
+		{
+			reply(exchange, 405, "Use GET.");
+			return;
+		}
+		String code = exchange.getRequestURI().getPath().substring("/modules/".length());
+		String module = timetable.describe(code);
+		if (module == null)
+			reply(exchange, 404, SaveCheck.NO_SUCH_MODULE.getMessage());
+		else
+			reply(exchange, 200, module);
+	}
+
+
+	/**
+	 * POST /reserve?code=CODE&time=TIME&room=ROOM&version=N
+	 */
+	private void reserve(HttpExchange exchange) throws IOException
+	{
+		if (!exchange.getRequestMethod().equals("POST"))
+		{
+			reply(exchange, 405, "Use POST.");
+			return;
+		}
+		HashMap<String, String> query = query(exchange.getRequestURI().getRawQuery());
+		String code = query.getOrDefault("code", "");
+		int version;
+		try
+		{
+			version = Integer.parseInt(query.getOrDefault("version", "-1"));
+		}
+		catch (NumberFormatException e)
+		{
+			reply(exchange, 400, "version must be a number.");
+			return;
+		}
+
+		ModulesList.Transaction reservation = new ModulesList.Transaction() // one move, so that its version comes back
+				.move(code, query.getOrDefault("time", ""), query.getOrDefault("room", ""), version);
+		SaveCheck check = timetable.commit(reservation);
+		if (check == SaveCheck.OK)
+			reply(exchange, 200, Integer.toString(reservation.getVersion(0)));
+		else if (check == SaveCheck.VERSION_CONFLICT)
+			reply(exchange, 409, check.getMessage());
+		else if (check == SaveCheck.NO_SUCH_MODULE)
+			reply(exchange, 404, check.getMessage());
+		else
+			reply(exchange, 422, check.getMessage());
+	}
+
+
+	/**
+	 * POST /transaction
+	 */
+	private void transaction(HttpExchange exchange) throws IOException
+	{
+		if (!exchange.getRequestMethod().equals("POST"))
+		{
+			reply(exchange, 405, "Use POST.");
+			return;
+		}
+		ModulesList.Transaction transaction = new ModulesList.Transaction();
+		ArrayList<String> codes = new ArrayList<String>();
+		String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+		int lineNumber = 0;
+		for (String line : body.split("\n"))
+		{
+			lineNumber++;
+			String[] fields = line.trim().split("\\s+");
+			if (fields[0].isEmpty())
+				continue;
+			try
+			{
+				if (fields.length == 3 || fields.length == 4)
+				{
+					transaction.move(fields[0], fields[1], fields[2], fields.length == 4 ? Integer.parseInt(fields[3]) : -1);
+					codes.add(fields[0]);
+					continue;
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				// reported below
+			}
+			reply(exchange, 400, "Line " + lineNumber + ": expected CODE TIME ROOM [VERSION].");
+			return;
+		}
+
+		SaveCheck check = timetable.commit(transaction);
+		if (check == SaveCheck.OK)
+		{
+			StringBuilder versions = new StringBuilder();
+			for (int move = 0; move < codes.size(); move++)
+				versions.append(versions.length() > 0 ? "\n" : "").append(codes.get(move)).append(' ')
+						.append(transaction.getVersion(move));
+			reply(exchange, 200, versions.toString());
+		}
+		else
+			reply(exchange, check == SaveCheck.VERSION_CONFLICT ? 409 : check == SaveCheck.NO_SUCH_MODULE ? 404 : 422,
+					transaction.getFailedCode() + ": " + check.getMessage());
+	}
+
+
+	/**
+	 * POST /resize?code=CODE&size=N or POST /withdraw?room=ROOM
+	 */
+	private void repair(HttpExchange exchange) throws IOException
+	{
+		if (!exchange.getRequestMethod().equals("POST"))
+		{
+			reply(exchange, 405, "Use POST.");
+			return;
+		}
+		HashMap<String, String> query = query(exchange.getRequestURI().getRawQuery());
+		TimetableRepair.Result result;
+		if (exchange.getRequestURI().getPath().equals("/withdraw"))
+		{
+			result = repair.withdrawRoom(query.getOrDefault("room", ""));
+			if (result == null)
+			{
+				reply(exchange, 404, "No such room.");
+				return;
+			}
+		}
+		else
+		{
+			try
+			{
+				result = repair.resize(query.getOrDefault("code", ""), Integer.parseInt(query.getOrDefault("size", "")));
+			}
+			catch (NumberFormatException e)
+			{
+				reply(exchange, 400, "size must be a number.");
+				return;
+			}
+			if (result == null)
+			{
+				reply(exchange, 404, SaveCheck.NO_SUCH_MODULE.getMessage());
+				return;
+			}
+		}
+		StringBuilder moves = new StringBuilder(result.summary());
+		for (TimetableRepair.Move move : result.getMoves())
+			moves.append(move).append('\n');
+		reply(exchange, 200, moves.toString().trim());
+	}
+
+
+	/**
+	 * GET /report[?room=ROOM | ?time=TIME | ?programme=P[&time=TIME]]
+	 */
+	private void report(HttpExchange exchange) throws IOException
+	{
+		HashMap<String, String> query = query(exchange.getRequestURI().getRawQuery());
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, 0); // streamed
+		try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))
+		{
+			if (query.containsKey("programme"))
+				timetable.writeProgrammeReport(query.get("programme"), query.get("time"), out);
+			else if (query.containsKey("room"))
+				timetable.writeRoomReport(query.get("room"), out);
+			else if (query.containsKey("time"))
+				timetable.writeTimeReport(query.get("time"), out);
+			else
+				timetable.writeReport(out);
+		}
+	}
+
+
+	private static void reply(HttpExchange exchange, int status, String text) throws IOException
+	{
+		byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+
+	/**
+	 * Splits "a=1&b=2" into its decoded names and values.
+	 */
+	private static HashMap<String, String> query(String rawQuery)
+	{
+		HashMap<String, String> values = new HashMap<String, String>();
+		if (rawQuery == null)
+			return values;
+		for (String pair : rawQuery.split("&"))
+		{
+			int equals = pair.indexOf('=');
+			if (equals > 0)
+				values.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+		}
+		return values;
+	}
+}
@@ -0,0 +1,344 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times and rooms found by earlier scheduling runs, kept on disk so that a run over nearly the same modules
+ * (e.g. every night) only solves what changed. Used by DecomposedScheduler, for whole runs and for components.
+ *
+ * An entry is found by the key of its problem: a SHA-256 hash of the rooms with their sizes, the time slots,
+ * the solver settings, the enrolments (the hash of their file, see EnrolmentConflicts) and every module (code,
+ * size, programme name, time and room if already placed). The modules are hashed in code order, so the key
+ * does not depend on the order of the modules file or on the IDs of the store. The entry holds the value
+ * (slot * rooms + room, or -1) of every module in that order.
+ *
+ * Every entry is a file of the cache folder, named after its key. When the files take more than maxBytes,
+ * those used least recently are deleted; the time a file was last used is its modification time, so the
+ * order outlives the program. The cache is only a shortcut: an entry that cannot be read or written is
+ * taken as missing, and whoever uses an entry still checks it against the timetable.
+ */
+public class SolveCache
+{
+	/**System property with the folder used by getDefault(), e.g. -Dtta.solveCache=/var/cache/tta*/
+	public static final String DIRECTORY_PROPERTY = "tta.solveCache";
+	/**Disk space used by getDefault()*/
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	private static final String SUFFIX = ".sol";
+	private static final int MAGIC = 0x54544153; // "TTAS"
+	private static final int VERSION = 2; // of the file format and of the keys
+
+	private static SolveCache defaultCache;
+	private static boolean defaultTried;
+
+	private final Path directory;
+	private final long maxBytes;
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true); // key -> file size, least recently used first
+	private long bytes; // of every entry
+	private int hits, misses, evictions;
+
+
+	/**
+	 * Opens the cache in the folder, creating the folder if needed.
+	 * @param directory folder of the entries
+	 * @param maxBytes disk space the entries may take
+	 * @throws IOException if the folder cannot be created or listed
+	 */
+	public SolveCache(Path directory, long maxBytes) throws IOException
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(directory);
+		ArrayList<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX))
+		{
+			for (Path file : stream)
+				files.add(file);
+		}
+		long[] used = new long[files.size()];
+		Integer[] order = new Integer[files.size()];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+			used[i] = Files.getLastModifiedTime(files.get(i)).toMillis();
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+		for (int i : order)
+		{
+			String name = files.get(i).getFileName().toString();
+			long size = Files.size(files.get(i));
+			entries.put(name.substring(0, name.length() - SUFFIX.length()), size);
+			bytes += size;
+		}
+		evict();
+	}
+
+
+	/**
+	 * Cache used by the program: in defaultDirectory(), at most DEFAULT_MAX_BYTES.
+	 * @return the cache, or null if the folder cannot be used (this is reported once)
+	 */
+	public static synchronized SolveCache getDefault()
+	{
+		if (!defaultTried)
+		{
+			defaultTried = true;
+			Path directory = defaultDirectory();
+			try
+			{
+				defaultCache = new SolveCache(directory, DEFAULT_MAX_BYTES);
+			}
+			catch (IOException e)
+			{
+				System.err.println("Cannot use " + directory + ": " + e.getMessage() + " Scheduling without a cache.");
+			}
+		}
+		return defaultCache;
+	}
+
+
+	/**
+	 * Folder of the default cache: the one named by the tta.solveCache system property, otherwise
+	 * TimeTableAssistant/SolveCache in the user's cache folder ($XDG_CACHE_HOME, or .cache in the home folder),
+	 * so that it does not depend on the folder the program is started from.
+	 */
+	public static Path defaultDirectory()
+	{
+		String configured = System.getProperty(DIRECTORY_PROPERTY);
+		if (configured != null && !configured.isEmpty())
+			return Paths.get(configured);
+		String cacheHome = System.getenv("XDG_CACHE_HOME");
+		Path base = cacheHome != null && !cacheHome.isEmpty() ? Paths.get(cacheHome)
+				: Paths.get(System.getProperty("user.home"), ".cache");
+		return base.resolve("TimeTableAssistant").resolve("SolveCache");
+	}
+
+
+	/**
+	 * Finds the values stored for a problem.
+	 * @param key key of the problem (see key)
+	 * @param amount number of modules of the problem
+	 * @return value of every module, in the order of the key; null if there is no such entry
+	 */
+	public synchronized int[] get(String key, int amount)
+	{
+		if (entries.get(key) == null) // (makes it the most recently used)
+		{
+			misses++;
+			return null;
+		}
+		Path file = directory.resolve(key + SUFFIX);
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+			if (buffer.capacity() != 12 + 4L * amount || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| buffer.getInt() != amount)
+				throw new IOException(file + " is not an entry of this problem.");
+			int[] values = new int[amount];
+			buffer.asIntBuffer().get(values);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			hits++;
+			return values;
+		}
+		catch (IOException e)
+		{
+			bytes -= entries.remove(key); // damaged, or deleted by someone else
+			misses++;
+			try
+			{
+				Files.deleteIfExists(file);
+			}
+			catch (IOException ignored)
+			{
+				// deleted or not, it is no longer used
+			}
+			return null;
+		}
+	}
+
+
+	/**
+	 * Stores the values found for a problem, then deletes the least recently used entries that do not fit.
+	 * @param key key of the problem (see key)
+	 * @param values value of every module, in the order of the key
+	 */
+	public synchronized void put(String key, int[] values)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(12 + 4 * values.length);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(values.length);
+		buffer.asIntBuffer().put(values);
+		Path file = directory.resolve(key + SUFFIX), temp = null;
+		try
+		{
+			temp = Files.createTempFile(directory, key, ".tmp");
+			Files.write(temp, buffer.array());
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); // never half written
+		}
+		catch (IOException e)
+		{
+			try
+			{
+				if (temp != null)
+					Files.deleteIfExists(temp);
+			}
+			catch (IOException ignored)
+			{
+				// nothing more to do
+			}
+			return; // not cached this time
+		}
+		Long old = entries.put(key, (long) buffer.capacity());
+		bytes += buffer.capacity() - (old == null ? 0 : old);
+		evict();
+	}
+
+
+	/**
+	 * Deletes the least recently used entries until the others fit in maxBytes.
+	 */
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Long>> oldest = entries.entrySet().iterator();
+		while (bytes > maxBytes && oldest.hasNext())
+		{
+			Map.Entry<String, Long> entry = oldest.next();
+			try
+			{
+				Files.deleteIfExists(directory.resolve(entry.getKey() + SUFFIX));
+			}
+			catch (IOException e)
+			{
+				continue; // in use elsewhere: kept, and tried again next time
+			}
+			bytes -= entry.getValue();
+			oldest.remove();
+			evictions++;
+		}
+	}
+
+
+	/**
+	 * Order in which the modules of a problem are hashed: by code, then by the rest of what is hashed,
+	 * so that modules in the same position of two problems with the same key are alike.
+	 * @return module indexes of the problem
+	 */
+	public static int[] canonicalOrder(ScheduleProblem problem)
+	{
+		Integer[] order = new Integer[problem.moduleAmount];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> {
+			int compare = problem.codes[a].compareTo(problem.codes[b]);
+			if (compare == 0)
+				compare = Integer.compare(problem.size[a], problem.size[b]);
+			if (compare == 0)
+				compare = problem.programmeNames[problem.programme[a]].compareTo(problem.programmeNames[problem.programme[b]]);
+			if (compare == 0)
+				compare = Integer.compare(problem.slot[a], problem.slot[b]);
+			return compare != 0 ? compare : Integer.compare(problem.room[a], problem.room[b]);
+		});
+		int[] canonical = new int[order.length];
+		for (int i = 0; i < order.length; i++)
+			canonical[i] = order[i];
+		return canonical;
+	}
+
+
+	/**
+	 * Key of a problem.
+	 * @param problem rooms, time slots and modules
+	 * @param order order of the modules, from canonicalOrder
+	 * @param settings solver settings the result depends on, e.g. its backtrack limit
+	 * @return 64 hex digits
+	 */
+	public static String key(ScheduleProblem problem, int[] order, int... settings)
+	{
+		Fingerprint fingerprint = new Fingerprint();
+		fingerprint.add(VERSION).add(settings.length);
+		for (int setting : settings)
+			fingerprint.add(setting);
+		fingerprint.add(problem.rooms.length);
+		for (int r = 0; r < problem.rooms.length; r++)
+			fingerprint.add(problem.rooms[r]).add(problem.capacity[r]);
+		fingerprint.add(problem.slots.length);
+		for (String slot : problem.slots)
+			fingerprint.add(slot);
+		fingerprint.add(problem.enrolments == null ? new byte[0] : problem.enrolments.getContentHash());
+		fingerprint.add(order.length);
+		for (int i : order)
+			fingerprint.add(problem.codes[i]).add(problem.size[i]).add(problem.programmeNames[problem.programme[i]])
+					.add(problem.slot[i]).add(problem.room[i]);
+		return fingerprint.toString();
+	}
+
+
+	public synchronized int getHits() {return hits;}
+	public synchronized int getMisses() {return misses;}
+	/**Entries deleted to keep within maxBytes*/
+	public synchronized int getEvictions() {return evictions;}
+	/**Disk space taken by the entries*/
+	public synchronized long sizeInBytes() {return bytes;}
+
+
+	/**
+	 * SHA-256 of a sequence of numbers, strings and byte arrays. Every string or array is preceded by its
+	 * length, so that no two different sequences hash the same bytes.
+	 */
+	private static class Fingerprint
+	{
+		private final MessageDigest digest;
+		private final ByteBuffer number = ByteBuffer.allocate(4);
+
+		private Fingerprint()
+		{
+			try
+			{
+				digest = MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new IllegalStateException(e); // every Java platform has SHA-256
+			}
+		}
+
+		private Fingerprint add(int value)
+		{
+			number.clear();
+			digest.update(number.putInt(value).array());
+			return this;
+		}
+
+		private Fingerprint add(String text)
+		{
+			return add(text.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private Fingerprint add(byte[] bytes)
+		{
+			add(bytes.length);
+			digest.update(bytes);
+			return this;
+		}
+
+		public String toString()
+		{
+			StringBuilder hex = new StringBuilder(64);
+			for (byte b : digest.digest())
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			return hex.toString();
+		}
+	}
+}
@@ -1,5 +1,18 @@
 public class TTA {
 	public static void main(String[] args) {
-		TimeTableGUI timetableAssistant = new TimeTableGUI();
+		if (args.length > 0 && args[0].equals("--batch")) // headless: TTA --batch modulesFile [commandsFile|-] [outputFile]
+			BatchScheduler.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+		else if (args.length > 0 && args[0].equals("--serve")) // many users over HTTP: TTA --serve modulesFile [port] [outputFile]
+			SchedulingService.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+		else if (args.length > 0 && args[0].equals("--validate")) // check a file before opening it: TTA --validate modulesFile [catalogueFile]
+			TimetableValidator.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+		else if (args.length > 0 && args[0].equals("--convert")) // text file <-> binary snapshot: TTA --convert inputFile outputFile
+			ModuleSnapshot.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+		else if (args.length > 0 && args[0].equals("--sweep")) // what-if rooms and slots: TTA --sweep modulesFile configuration...
+			CapacitySweep.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+		else
+		{
+			TimeTableGUI timetableAssistant = new TimeTableGUI();
+		}
 	}
 }
\ No newline at end of file
@@ -2,8 +2,7 @@
  * TO DO:
  * 1. Wednesday PM check - is it sufficient to throw an information message?
  * 2. How to print out both report & text file with one method, instead of 2?
- * 3. (Optional) Add scroll pane? JTextArea may need to be formed in a different way then (instead of one string, append one at a time; specify how much rows/columns area will have)  
- * 4. (For consideration) Position buttons better? E.g.:
+ * 3. (For consideration) Position buttons better? E.g.:
  * 
  * |timetable&inputs				 |		report			 |
  * |								 |		area			 |
@@ -14,33 +13,38 @@
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.*;
 import javax.swing.border.Border;
-import javax.swing.border.LineBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
 
 public class TimeTableGUI extends JFrame {
 	private JFrame frame; // creates a frame
-	private JLabel[][] grid; // array of labels that represents timetable display
-	private JLabel saveLabel, exitLabel;
+	private JTable grid; // timetable display, only the visible cells are painted
+	private JLabel saveLabel, exitLabel, suggestionLabel;
 	private JComboBox<String> timeDropdown, roomDropdown;
-	private JButton saveButton, exitButton;
+	private JButton saveButton, exitButton, autoButton, optimiseButton, undoButton, redoButton, branchButton;
 	private JTextField codeField; // where user enters the class code
 	private JTextArea report; // holds report
 	private ModulesList timetable; // class that will hold/manipulate all the modules specified in the text file
+	private ChangeJournal journal; // keeps the output file up to date in the background
+	private TimetableHistory history; // undo, redo and what-if branches
+	private ModuleFileWatcher watcher; // applies changes of the modules file while the program runs
+	private boolean busy, reloadPending; // work is running; the modules file changed meanwhile
 	
 	private final int FRAME_WIDTH = 850;
 	private final int FRAME_HEIGHT = 600;
+	private final String OUTPUT_PATH = "ModulesOut.txt";
 	
 	// Declaring & initializing class constants
-	private final String[] timeslot = {"MonAM","MonPM","TueAM","TuePM", "WedAM","WedPM","ThuAM","ThuPM","FriAM","FriPM"};
-	public final static String[] ROOMS = {"A","B","C","D","E","F","G","H"};
-	public final static int[] ROOM_SIZE = {100,100,60,60,60,30,30,30};
+	// Rooms and time slots come from the catalogue (Timetable.cfg), see Catalogue; these are copies of its arrays
+	public final static String[] TIMESLOTS = Catalogue.getDefault().getSlots();
+	public final static String[] ROOMS = Catalogue.getDefault().getRooms();
+	public final static int[] ROOM_SIZE = Catalogue.getDefault().getCapacity();
 	
 	// Constructor
 	public TimeTableGUI() 
@@ -79,10 +83,6 @@ public class TimeTableGUI extends JFrame {
 		// Add timetable panel to the left side of the JFrame (GridLayout adds from left to right)
 		add(timetablePanel); 
 		
-		// Read the text file, construct array of modules, Timetable object.
-		// Must be called after creation of grids/etc. Otherwise, NullPointerException will be thrown.
-		initTimetable();
-	
 		/**Panel taking care of report is created & configured*/
 		JPanel report = report(); // creates a modules' report display
 		add(report); // adds to the right side of the JFrame (2nd column)
@@ -90,92 +90,200 @@ public class TimeTableGUI extends JFrame {
 		
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // stops program from running in the background
 		setVisible(true);
+		
+		// Read the text file, construct the Timetable object, then fill the grid and report.
+		// Runs in the background, the window shows "Loading..." until it is done.
+		setBusy(true);
+		new LoadWorker().execute();
 	}
 	
 	
 	/**
-	 * Reads the given text file, puts all the lines in an array list. This is passed to the Timetable object,
-	 * which in turn creates a Module object for each string in the array list. That is, information in the 
-	 * text file determines the values of Module object. List is used to make account for uncertain number of lines.
-	 * At the end of the method, timetable grid is updated with the information from the file. 
+	 * Reads the given text file with ModuleFileParser, which creates a Module object for each line
+	 * and passes them to the Timetable object in one go. Malformed lines are skipped and listed to the user.
+	 * If the last run did not exit properly, its changes are recovered from the output file and its journal instead.
+	 * Modules that break the timetable rules (e.g. two pre-placed modules in one room) are listed to the user.
+	 * Reading, checking and forming the report run in the background; the grid and report are filled in at the end.
 	 */
-	private void initTimetable()
+	private class LoadWorker extends SwingWorker<ModulesList, Void>
 	{
-		// Store strings from text file. Since size may not be 24, array list is useful.
-		ArrayList<String> modulesList = new ArrayList<String>();
-		String filePath = "ModulesIn.txt";
+		private String failure; // what to tell the user if the current step fails
+		private ModuleFileParser parser = new ModuleFileParser();
+		private java.util.List<TimetableValidator.Conflict> conflicts;
+		private java.util.List<String> enrolmentErrors;
+		private TimetableTableModel model;
+		private String reportText;
 		
-		try 
+		protected ModulesList doInBackground() throws IOException
 		{
-			FileReader textFile = new FileReader(filePath);
-			Scanner scan = new Scanner(textFile);
-			while (scan.hasNextLine())	// while there're more lines in the file, add it to the list
-				modulesList.add(scan.nextLine()); 	// adds to the list of strings that represent modules
-			scan.close();							// which are later parsed for relevant info
-			textFile.close(); 
-		} 
-		catch (IOException e) 
-		{
-			JOptionPane.showMessageDialog(null, "No modules list found.", "I/O Exception", JOptionPane.ERROR_MESSAGE);
-			System.exit(0); // if no file is found, exit the program - it would do anything anyway
+			String filePath = "ModulesIn.txt";
+			ModulesList modules;
+			
+			failure = "No modules list found.";
+			if (ChangeJournal.needsRecovery(OUTPUT_PATH)) // last run did not exit through the Exit button
+				modules = ChangeJournal.recover(OUTPUT_PATH, filePath);
+			else
+				modules = parser.load(filePath); // initialise timetable object with modules from the file
+			failure = "Error reading the enrolments file.";
+			enrolmentErrors = EnrolmentConflicts.attachIfPresent(modules, filePath); // student clashes, if enrolments are given
+			
+			failure = "Error writing the output file.";
+			journal = new ChangeJournal(modules, OUTPUT_PATH, false, ChangeJournal.DEFAULT_COMPACT_EVERY);
+			history = new TimetableHistory(modules);
+			model = new TimetableTableModel(modules);
+			failure = "No modules list found.";
+			watcher = new ModuleFileWatcher(modules, filePath);
+			conflicts = TimetableValidator.validate(modules.getStore()); // pre-placed modules never went through the Save checks
+			reportText = modules.printReport();
+			return modules;
 		}
 		
-		timetable = new ModulesList(modulesList); // initialise timetable object with ArrayList of modules
-		fillTimetable(); // fill in timetable with information from the modules that already exist
+		protected void done()
+		{
+			try 
+			{
+				timetable = get();
+			} 
+			catch (InterruptedException | ExecutionException e) 
+			{
+				JOptionPane.showMessageDialog(null, failure, "I/O Exception", JOptionPane.ERROR_MESSAGE);
+				System.exit(0); // without the modules or the output file the program would not do anything anyway
+			}
+			grid.setModel(model); // fill in timetable with information from the modules that already exist
+			grid.getColumnModel().getColumn(0).setPreferredWidth(60); // time slot column
+			report.setText(reportText);
+			setBusy(false);
+			try
+			{
+				watcher.start(new Runnable() {
+					public void run()
+					{
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {reloadModules();}
+						});
+					}
+				});
+			}
+			catch (IOException e)
+			{
+				// the file is not followed, a restart still picks up its changes
+			}
+			
+			if (!parser.getErrors().isEmpty()) // tell the user which lines were left out
+				JOptionPane.showMessageDialog(null, String.join("\n", parser.getErrors()), 
+						"Malformed lines skipped", JOptionPane.WARNING_MESSAGE);
+			
+			if (!enrolmentErrors.isEmpty())
+				JOptionPane.showMessageDialog(null, String.join("\n", enrolmentErrors), 
+						"Enrolments skipped", JOptionPane.WARNING_MESSAGE);
+			
+			if (!conflicts.isEmpty())
+			{
+				StringBuilder message = new StringBuilder(conflicts.size() + " modules break the timetable rules:");
+				for (int index = 0; index < conflicts.size() && index < 20; index++)
+					message.append("\n").append(conflicts.get(index));
+				if (conflicts.size() > 20)
+					message.append("\n... ").append(conflicts.size() - 20).append(" more (see TTA --validate)");
+				JOptionPane.showMessageDialog(null, message, "Timetable conflicts", JOptionPane.WARNING_MESSAGE);
+			}
+		}
 	}
 	
 	
 	/**
-	 * Fills in the timetable grid frame with information of modules that are already set up.
-	 * Goes through each module to check if it has valid information. 
-	 * If it does, sets text in appropriate grid.
+	 * Work that may move many modules (automatic scheduling, optimisation, undo...). Runs in the background
+	 * with the buttons disabled, then forms the new report there too. The grid follows the changes by itself.
 	 */
-	private void fillTimetable()
+	private abstract class TimetableTask extends SwingWorker<String, Void>
 	{
-		Module[] modules = timetable.returnModules();
-		for(int index = 0; index < modules.length; index++)
+		private String reportText;
+		
+		public TimetableTask()
 		{
-			int roomIndex = findRoomIndex(modules[index].getRoom());
-			int timeIndex = findTimeIndex(modules[index].getTimeslot());
-			if (timeIndex != -1 && roomIndex != -1)
+			setBusy(true);
+		}
+		
+		/**
+		 * Does the work.
+		 * @return message for the user, or null for none
+		 */
+		protected abstract String work();
+		
+		protected String doInBackground()
+		{
+			String message = work();
+			history.checkpoint(); // the whole run is one undo step
+			reportText = timetable.printReport(); // file is updated by the journal
+			return message;
+		}
+		
+		protected void done()
+		{
+			if (reportText != null) // null if the work failed
+				report.setText(reportText);
+			setBusy(false);
+			try 
+			{
+				String message = get();
+				if (message != null)
+					JOptionPane.showMessageDialog(null, message, "Timetable Assistant", JOptionPane.INFORMATION_MESSAGE);
+			} 
+			catch (InterruptedException | ExecutionException e) 
 			{
-				String moduleCode = modules[index].getCode();	// get module code
-				grid[timeIndex+2][roomIndex+1].setText(moduleCode); // print it on the grid
+				JOptionPane.showMessageDialog(null, "Error: " + e.getCause(), "Timetable Assistant", JOptionPane.ERROR_MESSAGE);
 			}
 		}
 	}
 	
 	
 	/**
-	 * Derives x position on the grid by finding a specified room in the array of all available rooms.   
-	 * @param room which room is to be found
-	 * @return either index of the room in the array or an indication that it was not found (-1). 
+	 * Turns the buttons off while work runs in the background, and back on after it.
 	 */
-	private int findRoomIndex(String room)
+	private void setBusy(boolean busy)
 	{
-		for (int index = 0; index < ROOMS.length; index++)
-			if (room.equals(ROOMS[index]))
-				return index;
-		return -1; // no matching room
+		this.busy = busy;
+		for (JButton button : new JButton[] {saveButton, autoButton, optimiseButton, undoButton, redoButton, branchButton, exitButton})
+			button.setEnabled(!busy);
+		if (busy && timetable == null)
+			report.setText("Loading...");
+		if (!busy && reloadPending) // the modules file changed while the work was running
+		{
+			reloadPending = false;
+			reloadModules();
+		}
 	}
 	
 	
 	/**
-	 * Derives y position on the grid by finding a specified time slot in the array of all available times.
-	 * @param time which time slot is to be found
-	 * @return either index of the time slot in the array or an indication that it was not found (-1). 
+	 * Applies the changes of the modules file (see ModuleFileWatcher), once no other work is running.
+	 * The grid follows by itself; the report is formed again and the user is told what changed.
 	 */
-	private int findTimeIndex(String time)
+	private void reloadModules()
 	{
-		for (int index = 0; index < timeslot.length; index++)
-			if (time.equals(timeslot[index]))
-				return index;
-		return -1; // no matching time
+		if (busy)
+		{
+			reloadPending = true;
+			return;
+		}
+		new TimetableTask() {
+			protected String work()
+			{
+				try
+				{
+					ModuleFileWatcher.Changes changes = watcher.reload();
+					return changes.isEmpty() ? null : changes.summary();
+				}
+				catch (IOException e)
+				{
+					return "Error reading the modules file.";
+				}
+			}
+		}.execute();
 	}
 	
 	
     /**
-     * Determines what the 'Save' button does. Checks whether:
+     * Determines what the 'Save' button does. Checks (through ModulesList.checkSave) whether:
      * 1) anything was entered in the code text field 
      * 2) such module exists
      * 2) the room is big enough
@@ -183,50 +291,42 @@ public class TimeTableGUI extends JFrame {
      * 4) a module from a different programme is scheduled at the same time & room
      * 5) WedPM is selected
      * If all of these return false (with exception of WedPM), module's info is modified, grid updated.
-     * If the module is already scheduled at some time, clears that time slot first.    
      */
     private class SaveListener implements ActionListener 
     {
     	public void actionPerformed(ActionEvent event) 
     	{
+    		long start = TimetableMetrics.get().start();
     		String code = codeField.getText(); // code that was entered
     		String room = (String) roomDropdown.getSelectedItem(); // room selected
     		String time = (String) timeDropdown.getSelectedItem(); // time selected
     		
     		
-    		if (code.trim().equals(""))
-    			JOptionPane.showMessageDialog(frame, "No input provided.");
-    		else if (timetable.findModule(code) == null) 
+    		SaveCheck check = timetable.checkSave(code, time, room); // same checks as batch mode
+    		if (check == SaveCheck.OK)
     		{
-    			JOptionPane.showMessageDialog(null, "Such module does not exist.", 
-    					"Module does not exist", JOptionPane.ERROR_MESSAGE);
+    			timetable.setModuleInfo(code, time, room); // set new room and time for the module, the grid follows it
+	    		updateReportRow(code); // update report (file is updated by the journal)
+	    		history.checkpoint(); // one Save is one undo step
+    		}
+    		TimetableMetrics.get().record(TimetableMetrics.Operation.SAVE, start); // not counting the time dialogs stay open
+    		
+    		if (check == SaveCheck.NO_INPUT)
+    			JOptionPane.showMessageDialog(frame, check.getMessage());
+    		else if (check == SaveCheck.NO_SUCH_MODULE) 
+    		{
+    			JOptionPane.showMessageDialog(null, check.getMessage(), check.getTitle(), JOptionPane.ERROR_MESSAGE);
     			codeField.setText("");   			
     		}
-    		else if (!timetable.checkRoomSize(room, code))	// is room big enough?
-    			JOptionPane.showMessageDialog(null, "Selected room is too small for this module.", 
-    					"Room is too small", JOptionPane.ERROR_MESSAGE);
-    		else if (!timetable.checkTime(code, time)) // is the timeslot free for particular programme?
-    			JOptionPane.showMessageDialog(null, "Another module from the same programme is happening at this time.", 
-    					"Timetable clash", JOptionPane.ERROR_MESSAGE);
-    		else if (!timetable.roomAvailable(code, time, room)) // any other modules in this room at this time?
-    			JOptionPane.showMessageDialog(null, "Room is already taken by another module.", 
-    					"Timetable clash", JOptionPane.ERROR_MESSAGE);
-    		else // time slot is free and does not clash with other modules  
+    		else if (check != SaveCheck.OK) // room too small, programme clash or room taken
+    			JOptionPane.showMessageDialog(null, check.getMessage(), check.getTitle(), JOptionPane.ERROR_MESSAGE);
+    		else // time slot was free and did not clash with other modules, module is saved
     		{
     			// notification for the user
     			if (time.equals("WedPM"))
     				JOptionPane.showMessageDialog(null, "You have scheduled a module on Wednesday afternoon. "
 	    					+ "\nPlease keep in mind that ideally it is reserved for sports.", 
 	    					"Wednesday afternoon selected", JOptionPane.INFORMATION_MESSAGE);
-    			
-    			Module module = timetable.moduleExists(code); // get the module that is to be scheduled
-    			if (module != null) // check if it already had time scheduled and if it did, clear the timetable grid
-    				grid[findTimeIndex(module.getTimeslot()) + 2][findRoomIndex(module.getRoom()) + 1].setText("");	    			
-    			
-    			timetable.setModuleInfo(code, time, room); // set new room and time for the module
-	    		grid[findTimeIndex(time) + 2][findRoomIndex(room) + 1].setText(code); // update timetable grid
-	    		report.setText(timetable.printReport()); // update report
-	    		writeFile(); // update file
 	    		
 	    		// reset the text field to default option  
 	    		codeField.setText("");
@@ -240,6 +340,129 @@ public class TimeTableGUI extends JFrame {
     }
 
 
+    /**
+     * Places every module that is not on the timetable yet, then updates the grid, report and file.
+     * Independent parts of the timetable are scheduled on all cores (see DecomposedScheduler).
+     * Tells the user which modules could not be placed.
+     */
+    private class AutoScheduleListener implements ActionListener 
+    {
+    	public void actionPerformed(ActionEvent event) 
+    	{
+    		new TimetableTask() {
+    			protected String work() {return DecomposedScheduler.scheduleAll(timetable).summary();}
+    		}.execute();
+    	}
+    }
+
+
+    /**
+     * Improves the placement of the scheduled modules on the soft rules (WedPM, wasted seats,
+     * same programme on the same day), then updates the grid, report and file.
+     */
+    private class OptimiseListener implements ActionListener 
+    {
+    	public void actionPerformed(ActionEvent event) 
+    	{
+    		new TimetableTask() {
+    			protected String work()
+    			{
+    				long[] penalty = TimetableOptimizer.optimize(timetable, 200000);
+    				return "Penalty reduced from " + penalty[0] + " to " + penalty[1] + ".";
+    			}
+    		}.execute();
+    	}
+    }
+
+
+    /**
+     * Shows the best free times and rooms for the code in the code field as the user types it.
+     */
+    private class SuggestionListener implements DocumentListener 
+    {
+    	public void insertUpdate(DocumentEvent event) {showSuggestions();}
+    	public void removeUpdate(DocumentEvent event) {showSuggestions();}
+    	public void changedUpdate(DocumentEvent event) {showSuggestions();}
+    	
+    	private void showSuggestions()
+    	{
+    		String code = codeField.getText().trim();
+    		if (timetable == null || timetable.findModule(code) == null)
+    		{
+    			suggestionLabel.setText(" "); // nothing (complete) typed yet
+    			return;
+    		}
+    		java.util.List<ModulesList.Suggestion> suggestions = timetable.suggest(code, 3);
+    		StringBuilder text = new StringBuilder(suggestions.isEmpty() ? "No free time and room" : "Free:");
+    		for (ModulesList.Suggestion suggestion : suggestions)
+    			text.append("  ").append(suggestion);
+    		suggestionLabel.setText(text.toString());
+    	}
+    }
+
+
+    /**
+     * Takes back the last Save, automatic scheduling or optimisation, or puts back what was taken back.
+     */
+    private class UndoListener implements ActionListener 
+    {
+    	private final boolean redo;
+    	
+    	public UndoListener(boolean redo)
+    	{
+    		this.redo = redo;
+    	}
+    	
+    	public void actionPerformed(ActionEvent event) 
+    	{
+    		new TimetableTask() {
+    			protected String work()
+    			{
+    				if (redo ? history.redo() : history.undo())
+    					return null;
+    				return redo ? "Nothing to redo." : "Nothing to undo.";
+    			}
+    		}.execute();
+    	}
+    }
+
+
+    /**
+     * Saves the current timetable as a named what-if branch, or switches to a branch saved before
+     * after showing what it would change.
+     */
+    private class BranchListener implements ActionListener 
+    {
+    	public void actionPerformed(ActionEvent event) 
+    	{
+    		String name = JOptionPane.showInputDialog(null, "Branches: " + history.getBranches() 
+    				+ "\nEnter a new name to save the current timetable, or a branch name to switch to it.", 
+    				"What-if branches", JOptionPane.QUESTION_MESSAGE);
+    		if (name == null || name.trim().equals(""))
+    			return; // cancelled
+    		name = name.trim();
+    		java.util.List<String> changes = history.diff(name);
+    		if (changes == null)
+    		{
+    			history.saveBranch(name);
+    			return;
+    		}
+    		String summary = changes.size() <= 20 ? String.join("\n", changes) 
+    				: String.join("\n", changes.subList(0, 20)) + "\n... " + (changes.size() - 20) + " more";
+    		final String branch = name;
+    		if (JOptionPane.showConfirmDialog(null, "Switching to " + name + " moves " + changes.size() + " modules:\n" 
+    				+ summary, "What-if branches", JOptionPane.OK_CANCEL_OPTION) == JOptionPane.OK_OPTION)
+    			new TimetableTask() {
+    				protected String work()
+    				{
+    					history.switchTo(branch);
+    					return null;
+    				}
+    			}.execute();
+    	}
+    }
+    
+    
     /**
      * Saves the current module information and exits the program 
      */
@@ -247,32 +470,52 @@ public class TimeTableGUI extends JFrame {
     {
     	public void actionPerformed(ActionEvent event) 
     	{
-    		writeFile();
-   			System.exit(0);
+    		setBusy(true);
+    		new SwingWorker<Void, Void>() {
+    			protected Void doInBackground() throws IOException
+    			{
+    				watcher.close();
+    				journal.close(); // writes the final output file and removes the journal
+    				return null;
+    			}
+    			
+    			protected void done()
+    			{
+    				try
+    				{
+    					get();
+    				}
+    				catch (InterruptedException | ExecutionException e)
+    				{
+    					JOptionPane.showMessageDialog(null, "Error writing the output file.", "I/O Exception", JOptionPane.ERROR_MESSAGE);
+    				}
+    				System.exit(0);
+    			}
+    		}.execute();
     	}
     }
     
     
     /**
-     * Writes the current information int he modules to text file.
+     * Rewrites only the report row of the module that changed, instead of the whole report.
+     * @param code module whose row is to be updated
      */
-    private void writeFile()
+    private void updateReportRow(String code)
     {
-		String outputPath = "ModulesOut.txt";
-		try
-		{
-			FileWriter output = new FileWriter(outputPath);
-			output.write(timetable.printModules());
-			output.close();
-		} 
-		catch (IOException e) 
-		{
-			JOptionPane.showMessageDialog(null, "Error writing the output file.", "I/O Exception", JOptionPane.ERROR_MESSAGE);
-		}
+    	int row = timetable.indexOf(code) + 1; // first row is the header
+    	try
+    	{
+    		report.replaceRange(timetable.printReportRow(code), report.getLineStartOffset(row), report.getLineEndOffset(row));
+    	}
+    	catch (BadLocationException e)
+    	{
+    		report.setText(timetable.printReport()); // report out of step, rebuild it
+    	}
     }
     
+    
     /**
-     * Forms a report. 
+     * Forms a report. It is filled in once the modules are loaded.
      * @return panel object, containing formed report
      */
     private JPanel report() 
@@ -282,60 +525,35 @@ public class TimeTableGUI extends JFrame {
 		report.setBorder(BorderFactory.createCompoundBorder(reportBorder,
 				BorderFactory.createEmptyBorder(5, 5, 5, 5))); // create a border around the report
 		report.setFont(new Font("Courier", Font.PLAIN, 12)); // set font for letters to be of same size
-		report.setText(timetable.printReport()); // populate the text area with info from modules
-		report.setPreferredSize(new Dimension(FRAME_WIDTH/2-50, FRAME_HEIGHT-50)); // ~1/2 of frame width, ~ full height
 		report.setEditable(false); // user should not be able to edit the text area
-		    	   
+		
+		JScrollPane scroll = new JScrollPane(report); // the report can be longer than the window
+		scroll.setPreferredSize(new Dimension(FRAME_WIDTH/2-50, FRAME_HEIGHT-50)); // ~1/2 of frame width, ~ full height
 		JPanel reportPanel = new JPanel();
-		reportPanel.add(report);
+		reportPanel.add(scroll);
 		return reportPanel;
 	}
 
     
     /**
-     * Forms a timetable display depending on how many time slots & rooms there are.
+     * Forms a timetable display: a table with one row per time slot and one column per room,
+     * in a scroll pane so that any number of rooms and time slots fits. Only the cells that
+     * are visible are painted. The modules are shown once they are loaded (see TimetableTableModel).
      * @return fully formed JPanel object, containing the timetable display
      */
 	private JPanel gridLay()
 	{
-		int height = timeslot.length + 2; // 2 upper rows (rooms + sizes) must be accommodated
-		int width = ROOMS.length + 1; // leftmost column is for time slots
-		
-		JPanel gridPanel = new JPanel(); // main panel inside which everything is placed
-		gridPanel.setLayout(new GridLayout(height,width)); // grid that represents timetable
-		grid = new JLabel[height][width]; // allocate the size of grid
+		grid = new JTable();
+		grid.setAutoResizeMode(JTable.AUTO_RESIZE_OFF); // columns keep their width, the pane scrolls instead
+		grid.setRowSelectionAllowed(false);
+		grid.getTableHeader().setReorderingAllowed(false);
+		grid.setGridColor(Color.GRAY);
 		
-		// Build the grid matrix with reference numbers
-		for(int yAxis = 0; yAxis < height; yAxis++) 
-			for(int xAxis = 0; xAxis < width; xAxis++)
-			{
-				grid[yAxis][xAxis] = new JLabel(); // creates new label
-				gridPanel.add(grid[yAxis][xAxis]); // adds label to grid
-			}
-          
-		// Set the cell borders
-		Border border = LineBorder.createGrayLineBorder();
-        for(int i = 2; i <= 11; i++)
-        	for(int j = 1; j <= 8; j++)
-        		grid[i][j].setBorder(border);
-           
-        // Set left hand corner blank cells (formatting)
-        grid[0][0].setText(" ");
-        grid[1][0].setText(" ");
-        
-        // Column A day times
-        for(int i = 2; i <= 11; i++) // i = 2 as first two rows need to be blank (room & its size rows)
-        	grid[i][0].setText(timeslot[i - 2]); 
-        
-        // Row 1 class characters
-        for(int i = 1; i <= 8; i++) // i = 1 as first column needs to be blank (time slot column) 
-        	grid[0][i].setText(ROOMS[i - 1]); 
-
-        // Row 2 class room sizes
-        for(int i = 1; i <= 8; i++) // i = 1 as first column needs to be blank (time slot column) 
-        	grid[1][i].setText(Integer.toString(ROOM_SIZE[i - 1]));
-           
-        return gridPanel;
+		JScrollPane scroll = new JScrollPane(grid);
+		scroll.setPreferredSize(new Dimension(FRAME_WIDTH/2-20, 250));
+		JPanel gridPanel = new JPanel();
+		gridPanel.add(scroll);
+		return gridPanel;
 	}
        
 	
@@ -354,6 +572,7 @@ public class TimeTableGUI extends JFrame {
 		panel.add(codeLabel);
 		codeField = new JTextField(6);
 		panel.add(codeField);
+		codeField.getDocument().addDocumentListener(new SuggestionListener());
 		
 		/**Create drop down list for time slots*/
 		JLabel timeLabel = new JLabel("Select time: "); // label describing time dropdown list
@@ -361,8 +580,8 @@ public class TimeTableGUI extends JFrame {
 		timeDropdown = new JComboBox<String>();
 		
 		// Populate the drop down list with the daytimes 
-		for(int i=0; i<timeslot.length; i++) 
-			timeDropdown.addItem(timeslot[i]);
+		for(int i=0; i<TIMESLOTS.length; i++) 
+			timeDropdown.addItem(TIMESLOTS[i]);
 		panel.add(timeDropdown);
 		
 		/**Create drop down list for rooms*/
@@ -375,6 +594,10 @@ public class TimeTableGUI extends JFrame {
 			roomDropdown.addItem(ROOMS[i]);
 		panel.add(roomDropdown);
 		
+		/**Free times and rooms for the module being typed, best first*/
+		suggestionLabel = new JLabel(" ");
+		panel.add(suggestionLabel);
+		
 		// Return the fully formed panel
 		return panel;
 	}
@@ -396,6 +619,27 @@ public class TimeTableGUI extends JFrame {
     	ActionListener saveListener = new SaveListener();
     	saveButton.addActionListener(saveListener);
     	   
+    	/**Create automatic scheduling button, add action listener to it*/
+    	autoButton = new JButton("Auto schedule");
+    	panel.add(autoButton);
+    	autoButton.addActionListener(new AutoScheduleListener());
+    	   
+    	/**Create optimisation button, add action listener to it*/
+    	optimiseButton = new JButton("Optimise");
+    	panel.add(optimiseButton);
+    	optimiseButton.addActionListener(new OptimiseListener());
+    	   
+    	/**Create undo, redo and branch buttons, add action listeners to them*/
+    	undoButton = new JButton("Undo");
+    	panel.add(undoButton);
+    	undoButton.addActionListener(new UndoListener(false));
+    	redoButton = new JButton("Redo");
+    	panel.add(redoButton);
+    	redoButton.addActionListener(new UndoListener(true));
+    	branchButton = new JButton("Branches");
+    	panel.add(branchButton);
+    	branchButton.addActionListener(new BranchListener());
+    	   
     	/**Create exit button, add action listener to it*/
     	exitLabel = new JLabel("Save and exit");
     	panel.add(exitLabel);
@@ -0,0 +1,243 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Undo, redo and named what-if branches for a timetable.
+ *
+ * Listens to every change of the ModulesList and keeps a TimetableVersion of it. The caller marks the
+ * points the user can go back to with checkpoint (e.g. after every Save); undo and redo move between
+ * those points and a branch is just a named version. Going to another version only moves the modules
+ * that differ, through setModuleInfo, so the grid indexes, listeners and journal see ordinary changes.
+ * Adding, removing or resizing a module (e.g. a reload of the modules file) starts the history again.
+ *
+ * The listener methods are called while ModulesList holds slot locks, and undo holds this object's monitor
+ * while it takes slot locks, so the listener methods never wait for the monitor: they only update current
+ * and the stale flag, and the other methods catch up with a restart under the monitor.
+ */
+public class TimetableHistory implements ModulesList.ChangeListener
+{
+	private final ModulesList timetable;
+	private final ModuleStore store;
+
+	private final AtomicReference<TimetableVersion> current = new AtomicReference<TimetableVersion>(); // follows every change
+	private TimetableVersion checkpoint; // version at the last checkpoint
+	private final ArrayDeque<TimetableVersion> undo = new ArrayDeque<TimetableVersion>();
+	private final ArrayDeque<TimetableVersion> redo = new ArrayDeque<TimetableVersion>();
+	private final HashMap<String, TimetableVersion> branches = new HashMap<String, TimetableVersion>();
+	private volatile boolean moving; // changes made by moveTo are not new history
+	private final AtomicBoolean stale = new AtomicBoolean(); // modules were added, removed or resized, the history starts again before it is next used
+
+
+	/**
+	 * Starts the history at the timetable's current state and listens to its changes.
+	 * @param timetable modules whose changes are recorded
+	 */
+	public TimetableHistory(ModulesList timetable)
+	{
+		this.timetable = timetable;
+		this.store = timetable.getStore();
+		checkpoint = TimetableVersion.of(store);
+		current.set(checkpoint);
+		timetable.addChangeListener(this);
+	}
+
+
+	/**
+	 * Records a change. Called by ModulesList.setModuleInfo.
+	 */
+	public void moduleChanged(String code, String time, String room)
+	{
+		if (moving || stale.get())
+			return;
+		int id = store.find(code);
+		current.updateAndGet(version -> version.with(id, store.slot(id), store.room(id)));
+	}
+
+
+	/**
+	 * Starts the history again when a module is added, since every version holds a fixed set of modules.
+	 * Called by ModulesList.addModule.
+	 */
+	public void moduleAdded(String code, String title, String time, String room, int size)
+	{
+		restart();
+	}
+
+
+	/**
+	 * Starts the history again when a module's number of students changes. Sizes are not in the versions, so
+	 * undo would otherwise put a grown module back into a room that is now too small (moveTo skips the checks).
+	 * Called by ModulesList.setModuleSize.
+	 */
+	public void moduleResized(String code, int size)
+	{
+		restart();
+	}
+
+
+	/**
+	 * Starts the history again when a module is removed, since the IDs in the versions have changed.
+	 * Called by ModulesList.removeModule.
+	 */
+	public void moduleRemoved(String code, int id)
+	{
+		restart();
+	}
+
+
+	/**
+	 * Has every step and branch forgotten by the next catchUp. The current timetable is taken once it is needed,
+	 * not for every module of a reload.
+	 */
+	private void restart()
+	{
+		stale.set(true);
+	}
+
+
+	/**
+	 * Forgets every step and branch if the history was restarted. The caller holds the monitor.
+	 */
+	private void catchUp()
+	{
+		if (!stale.getAndSet(false))
+			return;
+		undo.clear();
+		redo.clear();
+		branches.clear();
+		checkpoint = TimetableVersion.of(store);
+		current.set(checkpoint);
+	}
+
+
+	/**
+	 * Makes the changes since the last checkpoint one step that undo can take back.
+	 * Forgets the undone steps, as they cannot be redone on top of new changes.
+	 */
+	public synchronized void checkpoint()
+	{
+		catchUp();
+		if (current.get() == checkpoint)
+			return;
+		undo.push(checkpoint);
+		redo.clear();
+		checkpoint = current.get();
+	}
+
+
+	/**
+	 * Goes back to the previous checkpoint. Changes not yet checkpointed become a step of their own first.
+	 * @return false if there is nothing to undo
+	 */
+	public synchronized boolean undo()
+	{
+		checkpoint();
+		if (undo.isEmpty())
+			return false;
+		redo.push(current.get());
+		moveTo(undo.pop());
+		return true;
+	}
+
+
+	/**
+	 * Makes the last undone step again.
+	 * @return false if there is nothing to redo
+	 */
+	public synchronized boolean redo()
+	{
+		checkpoint();
+		if (redo.isEmpty())
+			return false;
+		undo.push(current.get());
+		moveTo(redo.pop());
+		return true;
+	}
+
+
+	public synchronized boolean canUndo() {catchUp(); return current.get() != checkpoint || !undo.isEmpty();}
+
+	public synchronized boolean canRedo() {catchUp(); return current.get() == checkpoint && !redo.isEmpty();}
+
+
+	/**
+	 * Keeps the current timetable under a name, to come back to it later. An existing branch of that name is replaced.
+	 * @param name name of the branch
+	 */
+	public synchronized void saveBranch(String name)
+	{
+		checkpoint();
+		branches.put(name, current.get());
+	}
+
+
+	/**
+	 * Changes the timetable to a saved branch. The switch can be undone like any other step.
+	 * @param name name of the branch
+	 * @return false if there is no such branch
+	 */
+	public synchronized boolean switchTo(String name)
+	{
+		checkpoint();
+		TimetableVersion branch = branches.get(name);
+		if (branch == null)
+			return false;
+		if (branch != current.get())
+		{
+			undo.push(current.get());
+			redo.clear();
+			moveTo(branch);
+		}
+		return true;
+	}
+
+
+	public synchronized Set<String> getBranches() {catchUp(); return new TreeSet<String>(branches.keySet());}
+
+
+	/**
+	 * Lists what a branch changes compared to the current timetable.
+	 * @param name name of the branch
+	 * @return one line per module that differs: "CODE: TIME ROOM -> TIME ROOM", or null if there is no such branch
+	 */
+	public synchronized List<String> diff(String name)
+	{
+		catchUp();
+		TimetableVersion branch = branches.get(name);
+		if (branch == null)
+			return null;
+		TimetableVersion now = current.get();
+		List<String> lines = new ArrayList<String>();
+		for (int id : now.diff(branch))
+			lines.add(store.code(id) + ": " + store.slotName(now.slot(id)) + " " + store.roomName(now.room(id))
+					+ " -> " + store.slotName(branch.slot(id)) + " " + store.roomName(branch.room(id)));
+		return lines;
+	}
+
+
+	/**
+	 * Moves the modules that differ to where the target version has them.
+	 * Checks are not run again: the target is a timetable the user already had.
+	 */
+	private void moveTo(TimetableVersion target)
+	{
+		moving = true;
+		try
+		{
+			for (int id : current.get().diff(target))
+				timetable.setModuleInfo(store.code(id), store.slotName(target.slot(id)), store.roomName(target.room(id)));
+		}
+		finally
+		{
+			moving = false;
+		}
+		checkpoint = target;
+		current.set(target);
+	}
+}
@@ -0,0 +1,214 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Call counts, latencies and save outcomes of the timetable's hot operations.
+ *
+ * ModulesList, ChangeJournal and the GUI time their operations with start() and record(); every
+ * operation has its own LatencyHistogram, and every save attempt is counted by its SaveCheck outcome
+ * (the same branches the Save button takes) in a LongAdder, so recording never takes a lock.
+ * The numbers are shown over JMX and can be written to the standard error as one line at a fixed period.
+ *
+ * Recording is on by default; starting the JVM with -Dtta.metrics=false turns it off
+ * (start() then returns 0 and record() does nothing, which the JIT removes entirely).
+ * -Dtta.metrics.log=SECONDS writes the summary line every SECONDS seconds.
+ */
+public class TimetableMetrics implements TimetableMetricsMXBean
+{
+	/**Timed operations*/
+	public enum Operation
+	{
+		FIND_MODULE("findModule"),
+		CHECK_TIME("checkTime"),
+		ROOM_AVAILABLE("roomAvailable"),
+		SET_MODULE_INFO("setModuleInfo"),
+		PRINT_REPORT("printReport"),
+		WRITE_FILE("writeFile"),
+		SAVE("save"); // whole Save button action
+
+		private final String label;
+
+		private Operation(String label) {this.label = label;}
+
+		public String getLabel() {return label;}
+	}
+
+	public static final boolean ENABLED = !"false".equals(System.getProperty("tta.metrics"));
+	public static final String OBJECT_NAME = "TimeTableAssistant:type=Metrics";
+
+	private static final TimetableMetrics INSTANCE = new TimetableMetrics();
+	private static ScheduledExecutorService logger;
+
+	private final LatencyHistogram[] latency = new LatencyHistogram[Operation.values().length];
+	private final LongAdder[] saveResults = new LongAdder[SaveCheck.values().length];
+
+
+	private TimetableMetrics()
+	{
+		for (int i = 0; i < latency.length; i++)
+			latency[i] = new LatencyHistogram();
+		for (int i = 0; i < saveResults.length; i++)
+			saveResults[i] = new LongAdder();
+	}
+
+
+	/**
+	 * The metrics of this program. They are registered with JMX (and the log started, if -Dtta.metrics.log
+	 * is set) when the class is first used.
+	 */
+	public static TimetableMetrics get()
+	{
+		return INSTANCE;
+	}
+
+
+	static
+	{
+		if (ENABLED)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			}
+			catch (JMException e)
+			{
+				System.err.println("Metrics not available over JMX: " + e.getMessage());
+			}
+			long period = Long.getLong("tta.metrics.log", 0);
+			if (period > 0)
+				startLog(period);
+		}
+	}
+
+
+	/**
+	 * Writes the summary line to the standard error every period seconds, from a background thread.
+	 * @param period seconds between two lines
+	 */
+	public static synchronized void startLog(long period)
+	{
+		if (logger != null)
+			return;
+		logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task)
+			{
+				Thread thread = new Thread(task, "TimetableMetrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		logger.scheduleAtFixedRate(new Runnable() {
+			public void run() {System.err.println(INSTANCE.getSummary());}
+		}, period, period, TimeUnit.SECONDS);
+	}
+
+
+	/**
+	 * Start time of an operation, to be passed to record.
+	 */
+	public long start()
+	{
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+
+	/**
+	 * Records the latency of an operation that started at start.
+	 */
+	public void record(Operation operation, long start)
+	{
+		if (ENABLED)
+			latency[operation.ordinal()].record(System.nanoTime() - start);
+	}
+
+
+	/**
+	 * Counts a save attempt by its outcome.
+	 * @return the outcome, so that it can be counted where it is returned
+	 */
+	public SaveCheck count(SaveCheck result)
+	{
+		if (ENABLED)
+			saveResults[result.ordinal()].increment();
+		return result;
+	}
+
+
+	public LatencyHistogram getLatency(Operation operation) {return latency[operation.ordinal()];}
+
+	public long getSaveResult(SaveCheck result) {return saveResults[result.ordinal()].sum();}
+
+
+	public Map<String, Long> getCalls()
+	{
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for (Operation operation : Operation.values())
+			values.put(operation.getLabel(), latency[operation.ordinal()].count());
+		return values;
+	}
+
+	public Map<String, Long> getMedianNanos() {return percentiles(0.5);}
+
+	public Map<String, Long> getP99Nanos() {return percentiles(0.99);}
+
+	public Map<String, Long> getMaxNanos() {return percentiles(1.0);}
+
+	private Map<String, Long> percentiles(double fraction)
+	{
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for (Operation operation : Operation.values())
+			values.put(operation.getLabel(), latency[operation.ordinal()].percentile(fraction));
+		return values;
+	}
+
+
+	public Map<String, Long> getSaveResults()
+	{
+		Map<String, Long> values = new LinkedHashMap<String, Long>();
+		for (SaveCheck result : SaveCheck.values())
+			values.put(result.name(), saveResults[result.ordinal()].sum());
+		return values;
+	}
+
+
+	/**
+	 * @return e.g. "metrics findModule n=120 p50=85ns p99=950ns max=4095ns | ... | saves OK=10 ROOM_TAKEN=2"
+	 * (operations that were never called and outcomes that never happened are left out)
+	 */
+	public String getSummary()
+	{
+		StringBuilder line = new StringBuilder("metrics");
+		for (Operation operation : Operation.values())
+		{
+			LatencyHistogram histogram = latency[operation.ordinal()];
+			long calls = histogram.count();
+			if (calls > 0)
+				line.append(' ').append(operation.getLabel()).append(" n=").append(calls)
+						.append(" p50=").append(histogram.percentile(0.5)).append("ns p99=")
+						.append(histogram.percentile(0.99)).append("ns max=").append(histogram.percentile(1.0)).append("ns |");
+		}
+		line.append(" saves");
+		for (SaveCheck result : SaveCheck.values())
+			if (saveResults[result.ordinal()].sum() > 0)
+				line.append(' ').append(result.name()).append('=').append(saveResults[result.ordinal()].sum());
+		return line.toString();
+	}
+
+
+	public void reset()
+	{
+		for (LatencyHistogram histogram : latency)
+			histogram.reset();
+		for (LongAdder counter : saveResults)
+			counter.reset();
+	}
+}
@@ -0,0 +1,26 @@
+import java.util.Map;
+
+/**
+ * What TimetableMetrics shows over JMX (e.g. in JConsole, under TimeTableAssistant:type=Metrics).
+ * Operation maps are keyed by operation name (findModule, checkTime...), latencies are in nanoseconds.
+ */
+public interface TimetableMetricsMXBean
+{
+	/**Number of calls of each operation*/
+	Map<String, Long> getCalls();
+
+	Map<String, Long> getMedianNanos();
+
+	Map<String, Long> getP99Nanos();
+
+	Map<String, Long> getMaxNanos();
+
+	/**Number of save attempts per outcome: OK and every reason for rejecting one*/
+	Map<String, Long> getSaveResults();
+
+	/**Everything above on one line, as written to the log*/
+	String getSummary();
+
+	/**Starts counting from zero*/
+	void reset();
+}
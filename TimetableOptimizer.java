@@ -0,0 +1,359 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Improves a valid timetable on the "nice to have" rules, without ever breaking the hard ones
+ * (room size, programme clash, student clash when enrolments are loaded, room already taken).
+ *
+ * Soft rules, the lower the penalty the better:
+ * 1) Wednesday afternoon is reserved for sports, every module there costs WED_PM_PENALTY
+ * 2) every empty seat in a module's room costs WASTED_SEAT_PENALTY
+ * 3) modules of the same programme on the same day cost SAME_DAY_PENALTY per pair, so they get spread over the week
+ *
+ * Several simulated annealing threads run at once, each starting from the current timetable.
+ * A move (module to a free cell) or a swap (two modules trade cells) is scored in constant time
+ * from per programme counters, so only the change is evaluated, never the whole timetable.
+ * The best timetable found by any thread is shared, and threads that fall far behind restart from it.
+ */
+public class TimetableOptimizer
+{
+	/**Weights of the soft rules*/
+	public static final int WED_PM_PENALTY = 50;
+	public static final int WASTED_SEAT_PENALTY = 1;
+	public static final int SAME_DAY_PENALTY = 20;
+
+	private final ScheduleProblem problem;
+	private final int roomAmount, slotAmount, dayAmount;
+	private final int[] dayOf; // [slot] -> day index, from the first three letters ("Mon", "Tue", ...)
+	private final int wedPM; // index of the sports afternoon, -1 if there is none
+	private final int[] placed; // modules on the timetable - the only ones that can move
+
+	private int[] bestSlot, bestRoom; // shared best solution
+	private long bestScore;
+
+
+	/**
+	 * Creates an optimizer for the timetable. Unplaced modules are ignored.
+	 * @param problem encoded timetable, must not have hard constraint violations among placed modules
+	 */
+	public TimetableOptimizer(ScheduleProblem problem)
+	{
+		this.problem = problem;
+		roomAmount = problem.rooms.length;
+		slotAmount = problem.slots.length;
+		wedPM = Arrays.asList(problem.slots).indexOf("WedPM");
+
+		dayOf = new int[slotAmount];
+		HashMap<String, Integer> days = new HashMap<String, Integer>();
+		for (int s = 0; s < slotAmount; s++)
+		{
+			String day = problem.slots[s].length() > 3 ? problem.slots[s].substring(0, 3) : problem.slots[s];
+			if (!days.containsKey(day))
+				days.put(day, days.size());
+			dayOf[s] = days.get(day);
+		}
+		dayAmount = days.size();
+
+		int count = 0;
+		for (int i = 0; i < problem.moduleAmount; i++)
+			if (problem.isPlaced(i))
+				count++;
+		placed = new int[count];
+		count = 0;
+		for (int i = 0; i < problem.moduleAmount; i++)
+			if (problem.isPlaced(i))
+				placed[count++] = i;
+	}
+
+
+	/**
+	 * Optimizes the modules of the list and writes the improved times and rooms back into it.
+	 * @param list timetable to be improved
+	 * @param iterations moves tried by each thread
+	 * @return penalty of the timetable before and after, in this order (the same if the list changed meanwhile
+	 * so that the result no longer passes the checks, see apply)
+	 */
+	public static long[] optimize(ModulesList list, long iterations)
+	{
+		TimetableOptimizer optimizer = new TimetableOptimizer(new ScheduleProblem(list));
+		long before = optimizer.score(optimizer.problem.slot, optimizer.problem.room);
+		long after = optimizer.run(Runtime.getRuntime().availableProcessors(), iterations, System.nanoTime());
+		if (optimizer.apply(list) != SaveCheck.OK)
+			after = before;
+		return new long[] {before, after};
+	}
+
+
+	/**
+	 * Runs the annealing threads and waits for them to finish.
+	 * @param threads number of threads
+	 * @param iterations moves tried by each thread
+	 * @param seed random seed, each thread derives its own from it
+	 * @return penalty of the best timetable found
+	 */
+	public long run(int threads, long iterations, long seed)
+	{
+		bestSlot = problem.slot.clone();
+		bestRoom = problem.room.clone();
+		bestScore = score(bestSlot, bestRoom);
+		if (placed.length < 2)
+			return bestScore;
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++)
+			pool.execute(new Search(seed + t * 7919L, iterations));
+		pool.shutdown();
+		try
+		{
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		return getBestScore();
+	}
+
+
+	/**
+	 * Writes the best timetable into the list as one transaction (see ModulesList.commit), so the moves are
+	 * checked against each other like the Save button would and journalled together. Only modules that moved are touched.
+	 * @return SaveCheck.OK if the moves were made, otherwise the check that failed; nothing is changed then
+	 */
+	public synchronized SaveCheck apply(ModulesList list)
+	{
+		ModulesList.Transaction transaction = new ModulesList.Transaction();
+		for (int i = 0; i < placed.length; i++)
+		{
+			int m = placed[i];
+			if (bestSlot[m] != problem.slot[m] || bestRoom[m] != problem.room[m])
+				transaction.move(problem.codes[m], problem.slots[bestSlot[m]], problem.rooms[bestRoom[m]]);
+		}
+		return transaction.size() == 0 ? SaveCheck.OK : list.commit(transaction);
+	}
+
+
+	public synchronized long getBestScore() {return bestScore;}
+
+
+	/**
+	 * Full penalty of a timetable, computed from scratch.
+	 * @param slot [module] -> time slot index
+	 * @param room [module] -> room index
+	 */
+	public long score(int[] slot, int[] room)
+	{
+		long total = 0;
+		int[] perDay = new int[problem.programmeAmount() * dayAmount];
+		for (int i = 0; i < placed.length; i++)
+		{
+			int m = placed[i];
+			total += modulePenalty(m, slot[m], room[m]);
+			total += SAME_DAY_PENALTY * perDay[problem.programme[m] * dayAmount + dayOf[slot[m]]]++;
+		}
+		return total;
+	}
+
+
+	/**
+	 * Penalty of a module that does not depend on other modules: WedPM and wasted seats.
+	 */
+	private long modulePenalty(int module, int slot, int room)
+	{
+		long penalty = (long) WASTED_SEAT_PENALTY * (problem.capacity[room] - problem.size[module]);
+		if (slot == wedPM)
+			penalty += WED_PM_PENALTY;
+		return penalty;
+	}
+
+
+	/**
+	 * Offers a solution as the new shared best.
+	 */
+	private synchronized void offer(long score, int[] slot, int[] room)
+	{
+		if (score < bestScore)
+		{
+			bestScore = score;
+			System.arraycopy(slot, 0, bestSlot, 0, slot.length);
+			System.arraycopy(room, 0, bestRoom, 0, room.length);
+		}
+	}
+
+
+	/**
+	 * Copies the shared best into the arrays.
+	 * @return its score
+	 */
+	private synchronized long copyBest(int[] slot, int[] room)
+	{
+		System.arraycopy(bestSlot, 0, slot, 0, slot.length);
+		System.arraycopy(bestRoom, 0, room, 0, room.length);
+		return bestScore;
+	}
+
+
+	/**
+	 * One annealing thread. Keeps its own copy of the timetable and the counters needed
+	 * to score a change in constant time.
+	 */
+	private class Search implements Runnable
+	{
+		private final Random random;
+		private final long iterations;
+		private final int[] slot, room;
+		private int[] cell; // [slot * rooms + room] -> number of modules in the cell
+		private int[] programmeSlot; // [programme * slots + slot] -> modules of the programme in the slot
+		private int[] programmeDay; // [programme * days + day] -> modules of the programme on the day
+		private long score;
+
+		Search(long seed, long iterations)
+		{
+			random = new Random(seed);
+			this.iterations = iterations;
+			slot = new int[problem.moduleAmount];
+			room = new int[problem.moduleAmount];
+		}
+
+		public void run()
+		{
+			score = copyBest(slot, room);
+			rebuildCounters();
+			long localBest = score;
+
+			// Start hot enough to accept a couple of same-day pairs, cool down to almost greedy
+			double temperature = 2.0 * SAME_DAY_PENALTY, end = 0.05;
+			double cooling = Math.pow(end / temperature, 1.0 / Math.max(1, iterations));
+			long syncEvery = Math.max(1000, iterations / 100);
+
+			for (long it = 1; it <= iterations; it++, temperature *= cooling)
+			{
+				int m = placed[random.nextInt(placed.length)];
+				if (random.nextBoolean())
+					tryMove(m, random.nextInt(slotAmount), random.nextInt(roomAmount), temperature);
+				else
+					trySwap(m, placed[random.nextInt(placed.length)], temperature);
+
+				if (score < localBest)
+				{
+					localBest = score;
+					offer(score, slot, room);
+				}
+				if (it % syncEvery == 0 && score > getBestScore() + 4 * SAME_DAY_PENALTY)
+				{
+					score = copyBest(slot, room); // fallen too far behind, continue from the shared best
+					rebuildCounters();
+					localBest = score;
+				}
+			}
+		}
+
+		private void rebuildCounters()
+		{
+			cell = new int[slotAmount * roomAmount];
+			programmeSlot = new int[problem.programmeAmount() * slotAmount];
+			programmeDay = new int[problem.programmeAmount() * dayAmount];
+			for (int i = 0; i < placed.length; i++)
+				add(placed[i], slot[placed[i]], room[placed[i]]);
+		}
+
+		/**Puts the module into the cell and the counters*/
+		private void add(int m, int s, int r)
+		{
+			slot[m] = s;
+			room[m] = r;
+			cell[s * roomAmount + r]++;
+			programmeSlot[problem.programme[m] * slotAmount + s]++;
+			programmeDay[problem.programme[m] * dayAmount + dayOf[s]]++;
+		}
+
+		/**Takes the module out of its cell and the counters*/
+		private void remove(int m)
+		{
+			cell[slot[m] * roomAmount + room[m]]--;
+			programmeSlot[problem.programme[m] * slotAmount + slot[m]]--;
+			programmeDay[problem.programme[m] * dayAmount + dayOf[slot[m]]]--;
+		}
+
+		/**
+		 * Change of the same-day penalty if one module of the programme leaves day 'from' and one arrives on day 'to'.
+		 */
+		private long dayDelta(int programme, int from, int to)
+		{
+			if (from == to)
+				return 0;
+			int fromCount = programmeDay[programme * dayAmount + from];
+			int toCount = programmeDay[programme * dayAmount + to];
+			return (long) SAME_DAY_PENALTY * (toCount - (fromCount - 1));
+		}
+
+		/**Annealing acceptance rule*/
+		private boolean accept(long delta, double temperature)
+		{
+			return delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature);
+		}
+
+		/**
+		 * Moves a module to an empty cell, if the hard constraints allow it and annealing accepts it.
+		 */
+		private void tryMove(int m, int s, int r, double temperature)
+		{
+			int p = problem.programme[m];
+			if (cell[s * roomAmount + r] != 0 || problem.capacity[r] < problem.size[m])
+				return; // room taken or too small
+			if (s != slot[m] && programmeSlot[p * slotAmount + s] != 0)
+				return; // programme clash
+			if (s != slot[m] && problem.clashesAt(m, s, i -> slot[i]))
+				return; // student clash
+
+			long delta = modulePenalty(m, s, r) - modulePenalty(m, slot[m], room[m])
+					+ dayDelta(p, dayOf[slot[m]], dayOf[s]);
+			if (accept(delta, temperature))
+			{
+				remove(m);
+				add(m, s, r);
+				score += delta;
+			}
+		}
+
+		/**
+		 * Makes two modules trade cells, if the hard constraints allow it and annealing accepts it.
+		 */
+		private void trySwap(int a, int b, double temperature)
+		{
+			int sa = slot[a], ra = room[a], sb = slot[b], rb = room[b];
+			int pa = problem.programme[a], pb = problem.programme[b];
+			if (a == b || (sa == sb && ra == rb))
+				return;
+			if (cell[sa * roomAmount + ra] != 1 || cell[sb * roomAmount + rb] != 1)
+				return; // double booked cells came from the file, leave them alone
+			if (problem.capacity[rb] < problem.size[a] || problem.capacity[ra] < problem.size[b])
+				return; // one of them would not fit
+			if (pa != pb && sa != sb
+					&& (programmeSlot[pa * slotAmount + sb] != 0 || programmeSlot[pb * slotAmount + sa] != 0))
+				return; // programme clash
+			if (sa != sb && (problem.clashesAt(a, sb, i -> i == b ? sa : slot[i])
+					|| problem.clashesAt(b, sa, i -> i == a ? sb : slot[i])))
+				return; // student clash
+
+			long delta = modulePenalty(a, sb, rb) - modulePenalty(a, sa, ra)
+					+ modulePenalty(b, sa, ra) - modulePenalty(b, sb, rb);
+			if (pa != pb)
+				delta += dayDelta(pa, dayOf[sa], dayOf[sb]) + dayDelta(pb, dayOf[sb], dayOf[sa]);
+			if (accept(delta, temperature))
+			{
+				remove(a);
+				remove(b);
+				add(a, sb, rb);
+				add(b, sa, ra);
+				score += delta;
+			}
+		}
+	}
+}
@@ -0,0 +1,357 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mends the timetable after a change that breaks it, instead of scheduling everything again:
+ * a module that grew past the capacity of its room, or a room that was withdrawn.
+ *
+ * Only the modules the change affects are freed, biggest first. Each is given a new cell with as few other
+ * modules moved as possible: first a cell that is free (in its own time slot if it can, so its students
+ * keep their day), then a cell whose module can itself be moved to a free one, and so on up to MAX_DEPTH
+ * modules moved out of the way. Cells are tried smallest fitting room first, Wednesday afternoon last.
+ * Every candidate chain passes the same checks as checkSave against the timetable as it will be after the
+ * chain, and is made through ModulesList.commit, so it is journalled and either made whole or not at all.
+ * The search stops after PLAN_BUDGET chains per depth; a module it cannot place is left unscheduled.
+ */
+public class TimetableRepair
+{
+	/**Most modules moved out of the way to place one affected module*/
+	public static final int MAX_DEPTH = 2;
+	/**Chains that move other modules tried per module and depth, so that a full timetable gives up quickly*/
+	public static final int PLAN_BUDGET = 500;
+	/**Commits tried per module when other users change the modules of its chain at the same time*/
+	private static final int RETRIES = 3;
+
+	private final ModulesList list;
+	private final ModuleStore store;
+	private final Catalogue catalogue;
+	private final int[] roomsBySize; // room IDs, smallest first
+	private final int wedPM; // slot kept for sports, tried last; -1 if the catalogue has none
+
+	// chain being searched: [0] is the affected module, every next one was moved out of the cell of the previous one
+	private final int[] ids = new int[MAX_DEPTH + 1], slots = new int[MAX_DEPTH + 1], rooms = new int[MAX_DEPTH + 1];
+	private final int[] versions = new int[MAX_DEPTH + 1];
+	private int planned; // modules in the chain; the last one has no cell yet
+	private int budget;
+	private EnrolmentConflicts conflicts;
+
+
+	/**
+	 * Creates a repair for the modules of the list.
+	 */
+	public TimetableRepair(ModulesList list)
+	{
+		this.list = list;
+		store = list.getStore();
+		catalogue = list.getCatalogue();
+		Integer[] order = new Integer[catalogue.roomAmount()];
+		for (int r = 0; r < order.length; r++)
+			order[r] = r;
+		Arrays.sort(order, (a, b) -> Integer.compare(catalogue.capacityOf(a), catalogue.capacityOf(b)));
+		roomsBySize = new int[order.length];
+		for (int r = 0; r < order.length; r++)
+			roomsBySize[r] = order[r];
+		wedPM = catalogue.slotIndex("WedPM");
+	}
+
+
+	/**
+	 * Changes the number of students of a module and, if its room is now too small, moves it.
+	 * @param code code of the module
+	 * @param size new number of students
+	 * @return moves made, or null if there is no such module
+	 */
+	public synchronized Result resize(String code, int size)
+	{
+		long start = System.nanoTime();
+		if (!list.setModuleSize(code, size))
+			return null;
+		return repair(new int[] {store.find(code)}, start);
+	}
+
+
+	/**
+	 * Takes a room out of use (see ModulesList.withdrawRoom) and moves every module in it.
+	 * @param room room name
+	 * @return moves made, or null if there is no such room
+	 */
+	public synchronized Result withdrawRoom(String room)
+	{
+		long start = System.nanoTime();
+		if (!list.withdrawRoom(room))
+			return null;
+		List<Module> affected = list.modulesInRoom(room);
+		int[] modules = new int[affected.size()];
+		for (int i = 0; i < modules.length; i++)
+			modules[i] = affected.get(i).getId();
+		return repair(modules, start);
+	}
+
+
+	/**
+	 * Moves every given module whose room is now too small or withdrawn; the others are left as they are.
+	 * @param modules module IDs
+	 * @param start System.nanoTime() when the change started
+	 */
+	private Result repair(int[] modules, long start)
+	{
+		conflicts = list.getEnrolments();
+		Integer[] order = new Integer[modules.length];
+		for (int i = 0; i < modules.length; i++)
+			order[i] = modules[i];
+		Arrays.sort(order, (a, b) -> Integer.compare(store.moduleSize(b), store.moduleSize(a))); // biggest first
+
+		Result result = new Result();
+		for (int id : order)
+		{
+			if (!broken(id))
+				continue;
+			result.affected++;
+			boolean placed = false;
+			for (int attempt = 0; attempt < RETRIES && !placed && broken(id); attempt++)
+			{
+				if (!search(id))
+					break;
+				placed = apply(result);
+			}
+			if (!placed && broken(id))
+			{
+				result.moves.add(new Move(store.code(id), store.slotName(store.slot(id)), store.roomName(store.room(id)),
+						"?????", "?"));
+				list.setModuleInfo(store.code(id), "?????", "?"); // freed, for the user or the auto-scheduler to place
+				result.unplaced.add(store.code(id));
+			}
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+
+	/**
+	 * Whether the module is scheduled in a room it no longer fits in, or that was withdrawn.
+	 */
+	private boolean broken(int id)
+	{
+		if (!store.isPlaced(id))
+			return false;
+		int room = store.room(id);
+		return list.isWithdrawn(room) || catalogue.capacityOf(room) < store.moduleSize(id);
+	}
+
+
+	/**
+	 * Finds the shortest chain of moves that gives the module a cell, by iterative deepening.
+	 * @return whether one was found; it is then in ids, slots and rooms
+	 */
+	private boolean search(int id)
+	{
+		if (roomsBySize.length == 0 || catalogue.capacityOf(roomsBySize[roomsBySize.length - 1]) < store.moduleSize(id))
+			return false; // no room is big enough
+		for (int depth = 0; depth <= MAX_DEPTH; depth++)
+		{
+			planned = 0;
+			budget = PLAN_BUDGET;
+			add(id);
+			if (place(depth))
+				return true;
+		}
+		return false;
+	}
+
+
+	private void add(int id)
+	{
+		ids[planned] = id;
+		slots[planned] = rooms[planned] = -1;
+		versions[planned++] = list.getVersion(store.code(id));
+	}
+
+
+	/**
+	 * Finds a cell for the last module of the chain, moving at most depth more modules out of the way.
+	 */
+	private boolean place(int depth)
+	{
+		int self = planned - 1, id = ids[self], size = store.moduleSize(id);
+		for (int slot : slotOrder(store.slot(id)))
+		{
+			boolean fits = fits(id, slot, -1);
+			for (int room : roomsBySize)
+			{
+				if (catalogue.capacityOf(room) < size || list.isWithdrawn(room) || claimed(slot, room))
+					continue;
+				int others = list.occupancyOf(slot, room);
+				for (int i = 0; i < planned; i++)
+					if (store.slot(ids[i]) == slot && store.room(ids[i]) == room)
+						others--; // moves out
+				if (others == 0 && fits)
+				{
+					slots[self] = slot;
+					rooms[self] = room;
+					return true;
+				}
+				if (others != 1 || depth == 0 || list.occupancyOf(slot, room) != 1)
+					continue;
+				int occupant = list.occupantId(slot, room);
+				if (!fits && !fits(id, slot, occupant))
+					continue;
+				if (--budget < 0)
+					return false;
+				slots[self] = slot;
+				rooms[self] = room;
+				add(occupant);
+				if (place(depth - 1))
+					return true;
+				planned--;
+				slots[self] = rooms[self] = -1;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * The module's own time slot first, then the others in catalogue order, Wednesday afternoon last.
+	 */
+	private int[] slotOrder(int current)
+	{
+		int amount = catalogue.slotAmount();
+		int[] order = new int[amount];
+		int next = 0;
+		if (current < amount)
+			order[next++] = current;
+		for (int slot = 0; slot < amount; slot++)
+			if (slot != current && slot != wedPM)
+				order[next++] = slot;
+		if (wedPM != -1 && wedPM != current)
+			order[next++] = wedPM;
+		return order;
+	}
+
+
+	/**
+	 * Whether a module of the chain was already given the cell.
+	 */
+	private boolean claimed(int slot, int room)
+	{
+		for (int i = 0; i < planned; i++)
+			if (slots[i] == slot && rooms[i] == room)
+				return true;
+		return false;
+	}
+
+
+	/**
+	 * Whether the module can be in the time slot with the chain made: no other module of its programme,
+	 * and no other module of its students, is there.
+	 * @param leaving another module that will move away from its slot, -1 if none
+	 */
+	private boolean fits(int id, int slot, int leaving)
+	{
+		int programme = store.programme(id);
+		int count = list.programmeCount(programme, slot);
+		for (int i = 0; i < planned; i++)
+			if (store.programme(ids[i]) == programme)
+			{
+				if (store.slot(ids[i]) == slot)
+					count--;
+				if (slots[i] == slot)
+					count++;
+			}
+		if (leaving != -1 && store.programme(leaving) == programme && store.slot(leaving) == slot)
+			count--;
+		if (count > 0)
+			return false;
+		return conflicts == null || !conflicts.clashesAt(id, slot, other -> {
+			if (other == leaving)
+				return -1;
+			for (int i = 0; i < planned; i++)
+				if (ids[i] == other)
+					return slots[i];
+			return store.slot(other);
+		});
+	}
+
+
+	/**
+	 * Commits the chain that was found.
+	 * @return false if another change got in the way (nothing was changed then)
+	 */
+	private boolean apply(Result result)
+	{
+		ModulesList.Transaction transaction = new ModulesList.Transaction();
+		Move[] moves = new Move[planned];
+		for (int i = 0; i < planned; i++)
+		{
+			String code = store.code(ids[i]);
+			String time = catalogue.slotName(slots[i]), room = catalogue.roomName(rooms[i]);
+			moves[i] = new Move(code, store.slotName(store.slot(ids[i])), store.roomName(store.room(ids[i])), time, room);
+			transaction.move(code, time, room, versions[i]);
+		}
+		if (list.commit(transaction) != SaveCheck.OK)
+			return false;
+		result.moves.addAll(Arrays.asList(moves));
+		return true;
+	}
+
+
+	/**
+	 * A module given a new time and room by the repair.
+	 */
+	public static class Move
+	{
+		private final String code, oldTime, oldRoom, time, room;
+
+		private Move(String code, String oldTime, String oldRoom, String time, String room)
+		{
+			this.code = code;
+			this.oldTime = oldTime;
+			this.oldRoom = oldRoom;
+			this.time = time;
+			this.room = room;
+		}
+
+		public String getCode() {return code;}
+		public String getOldTime() {return oldTime;}
+		public String getOldRoom() {return oldRoom;}
+		public String getTime() {return time;}
+		public String getRoom() {return room;}
+		/**"CODE OLDTIME OLDROOM -> TIME ROOM"*/
+		public String toString() {return code + " " + oldTime + " " + oldRoom + " -> " + time + " " + room;}
+	}
+
+
+	/**
+	 * Outcome of a repair: the modules it moved, in the order the moves were made.
+	 */
+	public static class Result
+	{
+		private final ArrayList<Move> moves = new ArrayList<Move>();
+		private final ArrayList<String> unplaced = new ArrayList<String>();
+		private int affected;
+		private long nanos;
+
+		private Result() {}
+
+		/**Every module moved, including those moved out of the way and those left unscheduled*/
+		public List<Move> getMoves() {return moves;}
+		/**Modules that had to be moved but found no place; they are now unscheduled*/
+		public List<String> getUnplaced() {return unplaced;}
+		/**Modules the change broke*/
+		public int getAffected() {return affected;}
+		public long getNanos() {return nanos;}
+
+		/**
+		 * Short human readable summary of the repair.
+		 */
+		public String summary()
+		{
+			String text = String.format("Repaired %d modules with %d moves in %.1f ms.%n", affected - unplaced.size(),
+					moves.size() - unplaced.size(), nanos / 1e6);
+			if (!unplaced.isEmpty())
+				text += "Could not be placed: " + String.join(", ", unplaced) + System.lineSeparator();
+			return text;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model of the timetable grid: one row per time slot, one column per room (plus the time column).
+ *
+ * Cells are not stored: JTable only asks for the cells it paints, and each one is read from the
+ * ModulesList cell index, so the grid costs the same for 8 rooms or thousands. Changes come in
+ * through the ModulesList listener, from any thread, and are passed to the table on the event
+ * dispatch thread as updates of just the cells a module left and entered. Many changes at once
+ * (automatic scheduling, optimisation, undo) are gathered into one repaint.
+ */
+public class TimetableTableModel extends AbstractTableModel implements ModulesList.ChangeListener
+{
+	private static final long serialVersionUID = 1L;
+	private static final int MAX_CELL_UPDATES = 256; // above this many, one full repaint is cheaper
+
+	private final ModulesList timetable;
+	private final ModuleStore store;
+	private final Catalogue catalogue;
+	private int[] shownCell; // [module ID] -> cell the table last showed it in (time * rooms + room), -1 if none
+
+	private final Object lock = new Object();
+	private ArrayList<Integer> dirty = new ArrayList<Integer>(); // cells to repaint, guarded by lock
+	private boolean allDirty, flushQueued;
+
+
+	/**
+	 * Creates the model and listens to the timetable's changes.
+	 * @param timetable modules shown in the grid
+	 */
+	public TimetableTableModel(ModulesList timetable)
+	{
+		this.timetable = timetable;
+		this.store = timetable.getStore();
+		this.catalogue = timetable.getCatalogue();
+		shownCell = new int[store.size()];
+		for (int id = 0; id < shownCell.length; id++)
+			shownCell[id] = cellOf(id);
+		timetable.addChangeListener(this);
+	}
+
+
+	public int getRowCount() {return catalogue.slotAmount();}
+
+	public int getColumnCount() {return catalogue.roomAmount() + 1;}
+
+
+	/**
+	 * Room and its size, e.g. "A (100)"; the first column holds the time slots.
+	 */
+	public String getColumnName(int column)
+	{
+		if (column == 0)
+			return "";
+		return catalogue.roomName(column - 1) + " (" + catalogue.capacityOf(column - 1) + ")";
+	}
+
+
+	/**
+	 * Time slot name in the first column, otherwise the code of the module in that room at that time.
+	 */
+	public Object getValueAt(int row, int column)
+	{
+		if (column == 0)
+			return catalogue.slotName(row);
+		int id = timetable.occupantId(row, column - 1);
+		return id == -1 ? "" : store.code(id);
+	}
+
+
+	/**
+	 * Catalogue cell of the module, or -1 if it is not on the timetable.
+	 */
+	private int cellOf(int id)
+	{
+		return store.isPlaced(id) ? store.slot(id) * catalogue.roomAmount() + store.room(id) : -1;
+	}
+
+
+	/**
+	 * Notes the cells the module left and entered, and queues one repaint for everything noted so far.
+	 * Called by ModulesList.setModuleInfo, on any thread.
+	 */
+	public void moduleChanged(String code, String time, String room)
+	{
+		int id = store.find(code);
+		synchronized (lock)
+		{
+			if (id >= shownCell.length)
+				shownCell = Arrays.copyOf(shownCell, store.size()); // added after the table was made
+			if (!allDirty)
+			{
+				if (shownCell[id] != -1)
+					dirty.add(shownCell[id]);
+				int cell = cellOf(id);
+				if (cell != -1)
+					dirty.add(cell);
+				allDirty = dirty.size() > MAX_CELL_UPDATES;
+			}
+			shownCell[id] = cellOf(id);
+			if (!queueFlush())
+				return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {flush();}
+		});
+	}
+
+
+	/**
+	 * Shows the cell of a module added while the program runs. Called by ModulesList.addModule.
+	 */
+	public void moduleAdded(String code, String title, String time, String room, int size)
+	{
+		moduleChanged(code, time, room);
+	}
+
+
+	/**
+	 * Clears the cell of a removed module; the module that took its ID keeps its cell.
+	 * Called by ModulesList.removeModule.
+	 */
+	public void moduleRemoved(String code, int id)
+	{
+		synchronized (lock)
+		{
+			int last = store.size(); // the ID the moved module had
+			if (!allDirty && id < shownCell.length && shownCell[id] != -1)
+			{
+				dirty.add(shownCell[id]);
+				allDirty = dirty.size() > MAX_CELL_UPDATES;
+			}
+			if (id < shownCell.length)
+				shownCell[id] = last < shownCell.length ? shownCell[last] : -1;
+			if (last < shownCell.length)
+				shownCell[last] = -1;
+			if (!queueFlush())
+				return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {flush();}
+		});
+	}
+
+
+	/**
+	 * Notes that a repaint is wanted. The caller holds the lock.
+	 * @return false if one is queued already
+	 */
+	private boolean queueFlush()
+	{
+		if (flushQueued)
+			return false;
+		flushQueued = true;
+		return true;
+	}
+
+
+	/**
+	 * Tells the table which cells changed. Runs on the event dispatch thread.
+	 */
+	private void flush()
+	{
+		ArrayList<Integer> cells;
+		boolean all;
+		synchronized (lock)
+		{
+			cells = dirty;
+			all = allDirty;
+			dirty = new ArrayList<Integer>();
+			allDirty = flushQueued = false;
+		}
+		if (all)
+		{
+			fireTableRowsUpdated(0, getRowCount() - 1);
+			return;
+		}
+		int rooms = catalogue.roomAmount();
+		for (int cell : cells)
+			fireTableCellUpdated(cell / rooms, cell % rooms + 1);
+	}
+}
@@ -0,0 +1,171 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks a whole timetable for the rules the Save button enforces, in one pass over the modules.
+ *
+ * Pre-placed modules in an input file never went through the Save checks, so a file can have
+ * modules in rooms that are too small, two modules of a programme at the same time, two modules in
+ * one room at the same time, time slots or rooms that do not exist, and repeated codes. The validator
+ * finds all of them: every module is looked up once in a table of room occupants (by time slot and room)
+ * and a table of programme occupants (by programme and time slot), so the cost is linear in the modules.
+ *
+ * Usage: TTA --validate modulesFile [catalogueFile]
+ * Exits with 1 if there are conflicts or malformed lines, so it can guard an import script.
+ */
+public class TimetableValidator
+{
+	/**
+	 * One rule broken by one module.
+	 */
+	public static class Conflict
+	{
+		private final SaveCheck reason;
+		private final ModuleStore store;
+		private final int id, other, slot, room; // names are only made when asked for, most files have many conflicts or none
+
+		public Conflict(SaveCheck reason, ModuleStore store, int id, int other)
+		{
+			this.reason = reason;
+			this.store = store;
+			this.id = id;
+			this.other = other;
+			this.slot = store.slot(id);
+			this.room = store.room(id);
+		}
+
+		/**Rule that is broken: ROOM_TOO_SMALL, PROGRAMME_CLASH, ROOM_TAKEN, UNKNOWN_TIME, UNKNOWN_ROOM or DUPLICATE_CODE*/
+		public SaveCheck getReason() {return reason;}
+		/**ID of the module that breaks it*/
+		public int getId() {return id;}
+		/**Code of the module that breaks it*/
+		public String getCode() {return store.code(id);}
+		/**Code of the module it clashes with (the one that came first in the file), or null*/
+		public String getOther() {return other == -1 ? null : store.code(other);}
+		/**Time slot and room the module had when it was checked*/
+		public String getTime() {return store.slotName(slot);}
+		public String getRoom() {return store.roomName(room);}
+
+		/**
+		 * @return e.g. "IT102 TuePM B: Room is already taken by another module. (IT101)"
+		 */
+		public String toString()
+		{
+			return getCode() + " " + getTime() + " " + getRoom() + ": " + reason.getMessage() 
+					+ (other == -1 ? "" : " (" + getOther() + ")");
+		}
+	}
+
+
+	/**
+	 * Checks every module of the store.
+	 * @param store modules, e.g. straight from ModuleFileParser.parse
+	 * @return every broken rule, in module order; empty if the timetable is consistent
+	 */
+	public static List<Conflict> validate(ModuleStore store)
+	{
+		Catalogue catalogue = store.getCatalogue();
+		int rooms = catalogue.roomAmount(), slots = catalogue.slotAmount();
+		int[] roomOccupant = new int[slots * rooms]; // [slot * rooms + room] -> first module there, -1 if none
+		int[] programmeOccupant = new int[store.programmeAmount() * slots]; // [programme * slots + slot] -> first module
+		Arrays.fill(roomOccupant, -1);
+		Arrays.fill(programmeOccupant, -1);
+
+		List<Conflict> conflicts = new ArrayList<Conflict>();
+		for (int id = 0; id < store.size(); id++)
+		{
+			int first = store.findFirst(id);
+			if (first != id)
+				conflicts.add(new Conflict(SaveCheck.DUPLICATE_CODE, store, id, first));
+
+			int slot = store.slot(id), room = store.room(id);
+			boolean slotKnown = slot < slots, roomKnown = room < rooms;
+			if (!slotKnown && !roomKnown && isUnset(store.slotName(slot)) && isUnset(store.roomName(room)))
+				continue; // not scheduled yet
+			if (!slotKnown)
+				conflicts.add(new Conflict(SaveCheck.UNKNOWN_TIME, store, id, -1));
+			if (!roomKnown)
+				conflicts.add(new Conflict(SaveCheck.UNKNOWN_ROOM, store, id, -1));
+			if (!slotKnown || !roomKnown)
+				continue; // not on the timetable, nothing else to check
+
+			if (store.moduleSize(id) > catalogue.capacityOf(room))
+				conflicts.add(new Conflict(SaveCheck.ROOM_TOO_SMALL, store, id, -1));
+			int programmeCell = store.programme(id) * slots + slot;
+			if (programmeOccupant[programmeCell] == -1)
+				programmeOccupant[programmeCell] = id;
+			else
+				conflicts.add(new Conflict(SaveCheck.PROGRAMME_CLASH, store, id, programmeOccupant[programmeCell]));
+			int roomCell = slot * rooms + room;
+			if (roomOccupant[roomCell] == -1)
+				roomOccupant[roomCell] = id;
+			else
+				conflicts.add(new Conflict(SaveCheck.ROOM_TAKEN, store, id, roomOccupant[roomCell]));
+		}
+		return conflicts;
+	}
+
+
+	/**
+	 * "?????" and "?" are how the input file marks a module without a time or room.
+	 */
+	private static boolean isUnset(String name)
+	{
+		for (int i = 0; i < name.length(); i++)
+			if (name.charAt(i) != '?')
+				return false;
+		return true;
+	}
+
+
+	/**
+	 * Entry point for the standalone check.
+	 * @param args modules file, catalogue file (Timetable.cfg by default)
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: TTA --validate modulesFile [catalogueFile]");
+			System.exit(2);
+		}
+		try
+		{
+			Catalogue catalogue = args.length > 1 ? Catalogue.load(args[1]) : Catalogue.getDefault();
+			ModuleFileParser parser = new ModuleFileParser(catalogue);
+			long start = System.nanoTime();
+			ModuleStore store = parser.parse(Paths.get(args[0]));
+			List<Conflict> conflicts = validate(store);
+			long nanos = System.nanoTime() - start;
+
+			int[] counts = new int[SaveCheck.values().length];
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+			for (String error : parser.getErrors())
+				out.write(args[0] + ": " + error + System.lineSeparator());
+			for (Conflict conflict : conflicts)
+			{
+				counts[conflict.getReason().ordinal()]++;
+				out.write(conflict + System.lineSeparator());
+			}
+			out.write(String.format("%d modules, %d malformed lines, %d conflicts in %d ms%n", store.size(),
+					parser.getErrors().size(), conflicts.size(), nanos / 1000000));
+			for (SaveCheck reason : SaveCheck.values())
+				if (counts[reason.ordinal()] > 0)
+					out.write(String.format("  %-16s %d%n", reason, counts[reason.ordinal()]));
+			out.flush();
+			System.exit(conflicts.isEmpty() && parser.getErrors().isEmpty() ? 0 : 1);
+		}
+		catch (IOException e)
+		{
+			System.err.println("I/O Exception: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One version of the timetable: the time slot and room of every module, kept in a persistent
+ * (never changed) 32-way tree.
+ *
+ * A change makes a new version that copies only the path from the root to the changed module's leaf,
+ * about log32(n) small arrays, and shares everything else with the version it came from. So any number
+ * of versions can be kept for undo, redo and what-if branches for little more than the size of the
+ * changes, and two versions are compared by skipping the subtrees they share.
+ *
+ * Codes, titles and sizes do not change and stay in the ModuleStore; a version only holds the
+ * store's slot and room IDs, by module ID.
+ */
+public final class TimetableVersion
+{
+	private static final int BITS = 5, WIDTH = 1 << BITS, MASK = WIDTH - 1;
+
+	private final Object root; // Object[] for inner nodes, long[] for leaves
+	private final int shift; // bits below the root, 0 if the root is a leaf
+	private final int size; // number of modules
+
+
+	private TimetableVersion(Object root, int shift, int size)
+	{
+		this.root = root;
+		this.shift = shift;
+		this.size = size;
+	}
+
+
+	/**
+	 * Takes the current placement of every module in the store.
+	 * @param store modules to be recorded
+	 * @return the first version
+	 */
+	public static TimetableVersion of(ModuleStore store)
+	{
+		int size = store.size();
+		int shift = 0;
+		while ((long) WIDTH << shift < size)
+			shift += BITS;
+		return new TimetableVersion(build(store, 0, shift, size), shift, size);
+	}
+
+
+	private static Object build(ModuleStore store, int first, int shift, int size)
+	{
+		if (shift == 0)
+		{
+			long[] leaf = new long[WIDTH];
+			for (int i = 0; i < WIDTH && first + i < size; i++)
+				leaf[i] = pack(store.slot(first + i), store.room(first + i));
+			return leaf;
+		}
+		Object[] node = new Object[WIDTH];
+		for (int i = 0; i < WIDTH && first + ((long) i << shift) < size; i++)
+			node[i] = build(store, first + (i << shift), shift - BITS, size);
+		return node;
+	}
+
+
+	private static long pack(int slot, int room) {return (long) slot << 32 | (room & 0xFFFFFFFFL);}
+
+	/**Number of modules in the version*/
+	public int size() {return size;}
+
+	/**Time slot ID of the module in this version (see ModuleStore.slotName)*/
+	public int slot(int id) {return (int) (placement(id) >>> 32);}
+
+	/**Room ID of the module in this version (see ModuleStore.roomName)*/
+	public int room(int id) {return (int) placement(id);}
+
+
+	private long placement(int id)
+	{
+		if (id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("No module " + id + " in a version of " + size);
+		Object node = root;
+		for (int level = shift; level > 0; level -= BITS)
+			node = ((Object[]) node)[(id >>> level) & MASK];
+		return ((long[]) node)[id & MASK];
+	}
+
+
+	/**
+	 * Makes the version in which the module has the given time slot and room. This version stays as it is.
+	 * @param id module ID
+	 * @param slot time slot ID
+	 * @param room room ID
+	 * @return the new version, or this one if the module is already there
+	 */
+	public TimetableVersion with(int id, int slot, int room)
+	{
+		long placement = pack(slot, room);
+		if (placement(id) == placement)
+			return this;
+		return new TimetableVersion(with(root, shift, id, placement), shift, size);
+	}
+
+
+	private static Object with(Object node, int shift, int id, long placement)
+	{
+		if (shift == 0)
+		{
+			long[] leaf = ((long[]) node).clone();
+			leaf[id & MASK] = placement;
+			return leaf;
+		}
+		Object[] copy = ((Object[]) node).clone();
+		int child = (id >>> shift) & MASK;
+		copy[child] = with(copy[child], shift - BITS, id, placement);
+		return copy;
+	}
+
+
+	/**
+	 * Lists the modules placed differently in the two versions. Subtrees the versions share are skipped,
+	 * so the cost grows with the number of changes between them, not with the number of modules.
+	 * @param other version of the same modules
+	 * @return IDs of the modules that differ, in ID order
+	 */
+	public List<Integer> diff(TimetableVersion other)
+	{
+		if (other.size != size)
+			throw new IllegalArgumentException("Versions of different modules cannot be compared.");
+		List<Integer> changed = new ArrayList<Integer>();
+		diff(root, other.root, shift, 0, changed);
+		return changed;
+	}
+
+
+	private static void diff(Object a, Object b, int shift, int first, List<Integer> changed)
+	{
+		if (a == b)
+			return; // shared, nothing changed below here
+		if (shift == 0)
+		{
+			long[] left = (long[]) a, right = (long[]) b;
+			for (int i = 0; i < WIDTH; i++)
+				if (left[i] != right[i])
+					changed.add(first + i);
+			return;
+		}
+		Object[] left = (Object[]) a, right = (Object[]) b;
+		for (int i = 0; i < WIDTH; i++)
+			if (left[i] != null)
+				diff(left[i], right[i], shift - BITS, first + (i << shift), changed);
+	}
+}
@@ -0,0 +1,187 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates synthetic timetables: a modules file in the usual "CODE Title Slot Room Size" format
+ * and a matching catalogue (Timetable.cfg format).
+ *
+ * Rooms get 30, 60 or 100 seats in the same proportions as the original campus (3:3:2).
+ * Module sizes are drawn against those rooms: a random room is picked and the module gets between
+ * half and all of its seats, so every module fits somewhere.
+ * A share of the modules (placedFraction) is pre-placed. Pre-placed modules normally respect room size,
+ * programme clashes and room occupancy; a share of them (clashDensity) is placed at random instead,
+ * which gives the kind of conflicts a bad import would have.
+ *
+ * Usage: java InstanceGenerator modulesFile catalogueFile modules programmes rooms [placedFraction] [clashDensity] [seed]
+ */
+public class InstanceGenerator
+{
+	private static final int[] ROOM_SIZES = {30, 30, 30, 60, 60, 60, 100, 100};
+	private static final String[] SLOTS = {"MonAM","MonPM","TueAM","TuePM", "WedAM","WedPM","ThuAM","ThuPM","FriAM","FriPM"};
+
+	private final int moduleAmount, programmeAmount, roomAmount;
+	private final double placedFraction, clashDensity;
+	private final Random random;
+
+
+	/**
+	 * @param moduleAmount number of modules
+	 * @param programmeAmount number of programmes the modules are spread over
+	 * @param roomAmount number of rooms
+	 * @param placedFraction share of modules that already have a time and room (0 to 1)
+	 * @param clashDensity share of the pre-placed modules placed ignoring the hard constraints (0 to 1)
+	 * @param seed random seed, the same seed gives the same files
+	 */
+	public InstanceGenerator(int moduleAmount, int programmeAmount, int roomAmount,
+			double placedFraction, double clashDensity, long seed)
+	{
+		if (programmeAmount < 1 || programmeAmount > 26 * 26 * 9)
+			throw new IllegalArgumentException("Programmes must be between 1 and 6084.");
+		this.moduleAmount = moduleAmount;
+		this.programmeAmount = programmeAmount;
+		this.roomAmount = roomAmount;
+		this.placedFraction = placedFraction;
+		this.clashDensity = clashDensity;
+		this.random = new Random(seed);
+	}
+
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 5)
+		{
+			System.err.println("Usage: java InstanceGenerator modulesFile catalogueFile modules programmes rooms "
+					+ "[placedFraction] [clashDensity] [seed]");
+			System.exit(2);
+		}
+		InstanceGenerator generator = new InstanceGenerator(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Integer.parseInt(args[4]), args.length > 5 ? Double.parseDouble(args[5]) : 0.1,
+				args.length > 6 ? Double.parseDouble(args[6]) : 0.0, args.length > 7 ? Long.parseLong(args[7]) : 1);
+		generator.write(args[0], args[1]);
+	}
+
+
+	/**
+	 * Catalogue of the generated rooms: R0, R1... and the usual ten time slots.
+	 */
+	public Catalogue catalogue()
+	{
+		String[] rooms = new String[roomAmount];
+		int[] capacity = new int[roomAmount];
+		for (int r = 0; r < roomAmount; r++)
+		{
+			rooms[r] = "R" + r;
+			capacity[r] = ROOM_SIZES[r % ROOM_SIZES.length];
+		}
+		return new Catalogue(rooms, capacity, SLOTS);
+	}
+
+
+	/**
+	 * Code prefix of a programme: two letters and a year, e.g. "AB2".
+	 */
+	public static String programmeName(int programme)
+	{
+		return "" + (char) ('A' + programme / (26 * 9)) + (char) ('A' + programme / 9 % 26) + (char) ('1' + programme % 9);
+	}
+
+
+	/**
+	 * Writes the modules file and the catalogue file.
+	 * @return codes of the generated modules, in file order
+	 * @throws IOException if a file cannot be written
+	 */
+	public String[] write(String modulesPath, String cataloguePath) throws IOException
+	{
+		Catalogue catalogue = catalogue();
+		try (Writer out = writer(cataloguePath))
+		{
+			out.write("# Generated catalogue: " + roomAmount + " rooms\n");
+			for (int r = 0; r < roomAmount; r++)
+				out.write("room " + catalogue.roomName(r) + " " + catalogue.capacityOf(r) + "\n");
+			for (String slot : SLOTS)
+				out.write("slot " + slot + "\n");
+		}
+
+		String[] codes = new String[moduleAmount];
+		boolean[] cellTaken = new boolean[roomAmount * SLOTS.length];
+		boolean[][] programmeBusy = new boolean[programmeAmount][SLOTS.length];
+		int[] sequence = new int[programmeAmount];
+		try (Writer out = writer(modulesPath))
+		{
+			for (int i = 0; i < moduleAmount; i++)
+			{
+				int programme = random.nextInt(programmeAmount);
+				codes[i] = programmeName(programme) + String.format("%03d", sequence[programme]++);
+				int size = sizeFor(catalogue.capacityOf(random.nextInt(roomAmount)));
+
+				String slot = "?????", room = "?";
+				if (random.nextDouble() < placedFraction)
+				{
+					int cell = random.nextDouble() < clashDensity
+							? random.nextInt(cellTaken.length) // anywhere, clashes allowed
+							: freeCell(catalogue, cellTaken, programmeBusy[programme], size);
+					if (cell != -1)
+					{
+						cellTaken[cell] = true;
+						programmeBusy[programme][cell / roomAmount] = true;
+						slot = SLOTS[cell / roomAmount];
+						room = catalogue.roomName(cell % roomAmount);
+					}
+				}
+				out.write(codes[i] + " Module_" + i + " " + slot + " " + room + " " + size + "\n");
+			}
+		}
+		return codes;
+	}
+
+
+	/**
+	 * Between half and all of the room's seats.
+	 */
+	private int sizeFor(int capacity)
+	{
+		return capacity / 2 + random.nextInt(capacity - capacity / 2 + 1);
+	}
+
+
+	/**
+	 * Finds a random free cell that is big enough and free for the programme. A few random tries
+	 * first, then a short scan, so that nearly full timetables still get filled without a full scan per module.
+	 * @return cell index (slot * rooms + room) or -1 if there is none
+	 */
+	private int freeCell(Catalogue catalogue, boolean[] cellTaken, boolean[] programmeBusy, int size)
+	{
+		for (int attempt = 0; attempt < 32; attempt++)
+		{
+			int cell = random.nextInt(cellTaken.length);
+			if (fits(catalogue, cellTaken, programmeBusy, size, cell))
+				return cell;
+		}
+		int start = random.nextInt(cellTaken.length);
+		for (int i = 0; i < Math.min(cellTaken.length, 1024); i++)
+		{
+			int cell = (start + i) % cellTaken.length;
+			if (fits(catalogue, cellTaken, programmeBusy, size, cell))
+				return cell;
+		}
+		return -1;
+	}
+
+
+	private boolean fits(Catalogue catalogue, boolean[] cellTaken, boolean[] programmeBusy, int size, int cell)
+	{
+		return !cellTaken[cell] && !programmeBusy[cell / roomAmount] && catalogue.capacityOf(cell % roomAmount) >= size;
+	}
+
+
+	private static Writer writer(String path) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 16);
+	}
+}
@@ -0,0 +1,129 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Loads generated timetables of growing size and runs a scripted scheduling workload on each,
+ * to see how the program scales.
+ *
+ * For every step the harness generates an instance with InstanceGenerator, loads it through
+ * ModuleFileParser, and then runs the same kind of operations the GUI does: looking a module up,
+ * checking a time and room like the Save button and applying it if the checks pass, and updating
+ * the module's report row. Each operation is timed on its own and the harness prints the latency
+ * percentiles, the load time and the heap used by the loaded timetable.
+ *
+ * Usage: java ScalingHarness [--steps 1000,10000,100000,1000000] [--operations 200000]
+ *        [--programmes-per 100] [--rooms-per 40] [--placed 0.3] [--clash 0.0]
+ * Programmes and rooms grow with the modules: one programme per programmes-per modules,
+ * one room per rooms-per modules (at least 8 rooms).
+ */
+public class ScalingHarness
+{
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private static volatile Object sink; // keeps results alive so the JIT cannot drop the work
+
+
+	public static void main(String[] args) throws IOException
+	{
+		int[] steps = {1000, 10000, 100000, 1000000};
+		int operations = 200000, programmesPer = 100, roomsPer = 40;
+		double placed = 0.3, clash = 0.0;
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("--steps"))
+			{
+				String[] parts = args[i + 1].split(",");
+				steps = new int[parts.length];
+				for (int j = 0; j < parts.length; j++)
+					steps[j] = Integer.parseInt(parts[j].trim());
+			}
+			else if (args[i].equals("--operations"))
+				operations = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--programmes-per"))
+				programmesPer = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--rooms-per"))
+				roomsPer = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--placed"))
+				placed = Double.parseDouble(args[i + 1]);
+			else if (args[i].equals("--clash"))
+				clash = Double.parseDouble(args[i + 1]);
+		}
+
+		System.out.printf("%9s %6s %5s %9s %9s %9s %9s %9s %9s %8s%n", "modules", "progs", "rooms", "load ms",
+				"heap MB", "p50 ns", "p90 ns", "p99 ns", "max ns", "accepted");
+		for (int modules : steps)
+		{
+			int programmes = Math.min(26 * 26 * 9, Math.max(1, modules / programmesPer));
+			int rooms = Math.max(8, modules / roomsPer);
+			runStep(new InstanceGenerator(modules, programmes, rooms, placed, clash, modules), modules,
+					programmes, rooms, operations);
+		}
+	}
+
+
+	/**
+	 * Generates, loads and exercises one instance, then prints its line of the table.
+	 */
+	private static void runStep(InstanceGenerator generator, int modules, int programmes, int rooms,
+			int operations) throws IOException
+	{
+		File modulesFile = File.createTempFile("scaling", ".txt");
+		File catalogueFile = File.createTempFile("scaling", ".cfg");
+		modulesFile.deleteOnExit();
+		catalogueFile.deleteOnExit();
+		String[] codes = generator.write(modulesFile.getPath(), catalogueFile.getPath());
+		Catalogue catalogue = Catalogue.load(catalogueFile.getPath());
+
+		System.gc();
+		long heapBefore = memory.getHeapMemoryUsage().getUsed();
+		long start = System.nanoTime();
+		ModulesList timetable = new ModuleFileParser(catalogue).load(modulesFile.getPath());
+		long loadNanos = System.nanoTime() - start;
+		System.gc();
+		long heapUsed = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+
+		long[] latency = new long[operations];
+		int accepted = 0;
+		Random random = new Random(modules);
+		for (int i = 0; i < operations; i++)
+		{
+			String code = codes[random.nextInt(codes.length)];
+			String time = catalogue.slotName(random.nextInt(catalogue.slotAmount()));
+			String room = catalogue.roomName(random.nextInt(catalogue.roomAmount()));
+			long opStart = System.nanoTime();
+			switch (i % 4)
+			{
+				case 0: // look-up, as when the user types a code
+					sink = timetable.findModule(code);
+					break;
+				case 3: // report row refresh after a change
+					sink = timetable.printReportRow(code);
+					break;
+				default: // Save: all checks, then the change if they pass
+					if (timetable.checkSave(code, time, room) == SaveCheck.OK)
+					{
+						timetable.setModuleInfo(code, time, room);
+						accepted++;
+					}
+			}
+			latency[i] = System.nanoTime() - opStart;
+		}
+		Arrays.sort(latency);
+
+		System.out.printf("%9d %6d %5d %9d %9.1f %9d %9d %9d %9d %8d%n", modules, programmes, rooms,
+				loadNanos / 1000000, heapUsed / 1048576.0, percentile(latency, 0.50), percentile(latency, 0.90),
+				percentile(latency, 0.99), latency[latency.length - 1], accepted);
+		sink = timetable;
+		modulesFile.delete();
+		catalogueFile.delete();
+	}
+
+
+	private static long percentile(long[] sorted, double fraction)
+	{
+		return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+	}
+}
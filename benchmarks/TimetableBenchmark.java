@@ -0,0 +1,227 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Micro benchmarks for the hot paths of the timetable, at several numbers of modules and rooms.
+ *
+ * Measured operations: parsing a modules file, findModule, checkTime, roomAvailable, printReport,
+ * writing the full output file and journalling a single change. Each one is warmed up first, then
+ * timed over several measurement rounds; the result is the average time and the bytes allocated
+ * per operation (from the JVM's per-thread allocation counter, like JMH's GC profiler).
+ *
+ * Compile together with the main sources and run:
+ *   java TimetableBenchmark [--modules 24,10000,1000000] [--rooms 8,100,1000] [--rounds 5]
+ */
+public class TimetableBenchmark
+{
+	private static final String[] SLOTS = {"MonAM","MonPM","TueAM","TuePM", "WedAM","WedPM","ThuAM","ThuPM","FriAM","FriPM"};
+	private static final int[] SIZES = {30, 60, 100};
+
+	private static volatile Object sink; // keeps results alive so the JIT cannot drop the work
+	private static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final int rounds;
+
+
+	public TimetableBenchmark(int rounds)
+	{
+		this.rounds = rounds;
+	}
+
+
+	public static void main(String[] args) throws IOException
+	{
+		int[] modules = {24, 10000, 100000, 1000000};
+		int[] rooms = {8, 100, 1000};
+		int rounds = 5;
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("--modules"))
+				modules = numbers(args[i + 1]);
+			else if (args[i].equals("--rooms"))
+				rooms = numbers(args[i + 1]);
+			else if (args[i].equals("--rounds"))
+				rounds = Integer.parseInt(args[i + 1]);
+		}
+
+		TimetableBenchmark benchmark = new TimetableBenchmark(rounds);
+		System.out.printf("%-16s %9s %6s %14s %12s%n", "Benchmark", "modules", "rooms", "ns/op", "B/op");
+		for (int moduleAmount : modules)
+			for (int roomAmount : rooms)
+				benchmark.runAll(moduleAmount, roomAmount);
+	}
+
+
+	private static int[] numbers(String list)
+	{
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+
+
+	/**
+	 * Runs every benchmark at one scale.
+	 */
+	private void runAll(int moduleAmount, int roomAmount) throws IOException
+	{
+		Catalogue catalogue = catalogue(roomAmount);
+		File input = File.createTempFile("modules", ".txt");
+		File output = File.createTempFile("modulesOut", ".txt");
+		input.deleteOnExit();
+		output.deleteOnExit();
+		String[] codes = writeModules(input, moduleAmount, catalogue, new Random(42));
+
+		final Path inputPath = input.toPath();
+		final ModuleFileParser parser = new ModuleFileParser(catalogue);
+		final ModulesList timetable = new ModulesList(parser.parse(inputPath));
+		final String[] queries = new String[1024];
+		final String[] times = new String[1024], places = new String[1024];
+		Random random = new Random(7);
+		for (int i = 0; i < queries.length; i++)
+		{
+			queries[i] = codes[random.nextInt(codes.length)];
+			times[i] = SLOTS[random.nextInt(SLOTS.length)];
+			places[i] = catalogue.roomName(random.nextInt(roomAmount));
+		}
+
+		measure("parse", moduleAmount, roomAmount, 1, new Operation() {
+			public Object run(int i) throws IOException {return parser.parse(inputPath);}
+		});
+		measure("findModule", moduleAmount, roomAmount, 1000000, new Operation() {
+			public Object run(int i) {return timetable.findModule(queries[i & 1023]);}
+		});
+		measure("checkTime", moduleAmount, roomAmount, 1000000, new Operation() {
+			public Object run(int i) {return timetable.checkTime(queries[i & 1023], times[i & 1023]);}
+		});
+		measure("roomAvailable", moduleAmount, roomAmount, 1000000, new Operation() {
+			public Object run(int i) {return timetable.roomAvailable(queries[i & 1023], times[i & 1023], places[i & 1023]);}
+		});
+		measure("printReport", moduleAmount, roomAmount, 1, new Operation() {
+			public Object run(int i) {return timetable.printReport();}
+		});
+		final String outputPath = output.getPath();
+		measure("writeFile", moduleAmount, roomAmount, 1, new Operation() {
+			public Object run(int i) throws IOException
+			{
+				try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputPath),
+						StandardCharsets.UTF_8), 1 << 16))
+				{
+					timetable.writeModules(out);
+				}
+				return outputPath;
+			}
+		});
+
+		final ChangeJournal journal = new ChangeJournal(timetable, outputPath, false, Integer.MAX_VALUE);
+		measure("journalChange", moduleAmount, roomAmount, 100000, new Operation() {
+			public Object run(int i)
+			{
+				journal.moduleChanged(queries[i & 1023], times[i & 1023], places[i & 1023]);
+				return journal;
+			}
+		});
+		journal.close();
+		new File(outputPath + ".journal").delete();
+		input.delete();
+		output.delete();
+	}
+
+
+	/**
+	 * An operation to be timed. The index lets it pick different inputs on every call.
+	 */
+	private interface Operation
+	{
+		Object run(int i) throws IOException;
+	}
+
+
+	/**
+	 * Warms the operation up, then times it over the measurement rounds and prints the averages.
+	 * @param batch calls per round; rounds of slow operations run for at least 200 ms
+	 */
+	private void measure(String name, int moduleAmount, int roomAmount, int batch, Operation operation) throws IOException
+	{
+		for (int round = 0; round < Math.max(2, rounds / 2); round++) // warm up
+			timeRound(batch, operation);
+
+		long calls = 0, nanos = 0, bytes = 0;
+		long thread = Thread.currentThread().getId();
+		for (int round = 0; round < rounds; round++)
+		{
+			long allocated = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			calls += timeRound(batch, operation);
+			nanos += System.nanoTime() - start;
+			bytes += threads.getThreadAllocatedBytes(thread) - allocated;
+		}
+		System.out.printf("%-16s %9d %6d %14.1f %12d%n", name, moduleAmount, roomAmount,
+				(double) nanos / calls, bytes / calls);
+	}
+
+
+	private long timeRound(int batch, Operation operation) throws IOException
+	{
+		long calls = 0, start = System.nanoTime();
+		do
+		{
+			for (int i = 0; i < batch; i++)
+				sink = operation.run(i);
+			calls += batch;
+		}
+		while (System.nanoTime() - start < 200000000L && batch == 1);
+		return calls;
+	}
+
+
+	/**
+	 * Rooms R0, R1... with the usual sizes, and the usual ten time slots.
+	 */
+	private static Catalogue catalogue(int roomAmount)
+	{
+		String[] rooms = new String[roomAmount];
+		int[] capacity = new int[roomAmount];
+		for (int r = 0; r < roomAmount; r++)
+		{
+			rooms[r] = "R" + r;
+			capacity[r] = SIZES[r % SIZES.length];
+		}
+		return new Catalogue(rooms, capacity, SLOTS);
+	}
+
+
+	/**
+	 * Writes a modules file in the usual format. Modules take free cells while there are any,
+	 * the rest are left unscheduled.
+	 * @return codes of the modules
+	 */
+	private static String[] writeModules(File file, int moduleAmount, Catalogue catalogue, Random random) throws IOException
+	{
+		String[] codes = new String[moduleAmount];
+		int cells = catalogue.roomAmount() * SLOTS.length;
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16))
+		{
+			for (int i = 0; i < moduleAmount; i++)
+			{
+				codes[i] = String.format("P%02d%05d", i % 100, i);
+				int room = i % catalogue.roomAmount();
+				boolean placed = i < cells;
+				out.write(codes[i] + " Title_" + i + " " + (placed ? SLOTS[i / catalogue.roomAmount()] : "?????") + " "
+						+ (placed ? catalogue.roomName(room) : "?") + " " + SIZES[random.nextInt(SIZES.length)] + "\n");
+			}
+		}
+		return codes;
+	}
+}
@@ -0,0 +1,414 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Regression tests for the scheduling tools, on the modules of ModulesIn.txt.
+ *
+ * Compile together with the main sources and run:
+ *   java TimetableTests
+ * Every failed check is printed; the exit code is 1 if there was one.
+ */
+public class TimetableTests
+{
+	private static final String[] MODULES = {
+		"EL101 Circuits MonAM E 50", "EL102 Resistors ????? ? 50", "EL103 Capacitors ????? ? 50",
+		"EL104 Transistors ????? ? 50", "EL105 Logic_Gates ????? ? 50", "EL106 Memory ????? ? 50",
+		"EL201 Integrated_Circuits ????? ? 30", "EL202 Sensors_1 ????? ? 30", "EL203 Sensors_2 ????? ? 30",
+		"EL204 Data_Transmission ????? ? 30", "EL205 Routers ????? ? 30", "EL206 Large_Scale_Integration ????? ? 30",
+		"IT101 Programming TuePM B 100", "IT102 User_Interfaces FriPM A 100", "IT104 Databases ????? ? 100",
+		"IT106 Data_Structures ????? ? 100", "IT107 Digital_Logic ????? ? 100", "IT108 Computer_Architecture ????? ? 100",
+		"IT201 Algorithms ????? ? 60", "IT202 Web_Programming ????? ? 60", "IT204 Software_Design ????? ? 60",
+		"IT210 Hardware_Design ????? ? 60", "IT211 DBMS ????? ? 60", "IT219 Computer_Networks ????? ? 60"};
+
+	private static int checks, failures;
+
+
+	public static void main(String[] args) throws Exception
+	{
+		concurrentReservesTakeACellOnce();
+		staleVersionIsTurnedDown();
+		listenersHearChangesInOrder();
+		commitSwapsOrChangesNothing();
+		commitMovesAModuleOfANewProgramme();
+		commitKeepsItsOwnVersions();
+		optimiseKeepsStudentsApart();
+		decomposedLeavesWedPmFree();
+		cacheKeyFollowsEnrolments();
+		enrolmentsFollowAddedAndRemovedModules();
+		journalRecoversTheTimetable();
+		System.out.println(checks + " checks, " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+
+	/**
+	 * Two users reserving the same free cell at the same time: one gets it, the other is told it is taken.
+	 */
+	private static void concurrentReservesTakeACellOnce() throws Exception
+	{
+		int wrong = 0;
+		for (int round = 0; round < 200; round++)
+		{
+			ModulesList list = sample();
+			SaveCheck[] checks = new SaveCheck[2];
+			String[] codes = {"EL102", "IT201"}; // other programmes, both fit room C
+			CyclicBarrier start = new CyclicBarrier(2);
+			Thread[] threads = new Thread[2];
+			for (int t = 0; t < 2; t++)
+			{
+				int user = t;
+				threads[t] = new Thread(() -> {
+					await(start);
+					checks[user] = list.reserve(codes[user], "WedAM", "C", -1);
+				});
+				threads[t].start();
+			}
+			for (Thread thread : threads)
+				thread.join();
+			boolean oneWon = (checks[0] == SaveCheck.OK) != (checks[1] == SaveCheck.OK)
+					&& (checks[0] == SaveCheck.ROOM_TAKEN || checks[1] == SaveCheck.ROOM_TAKEN);
+			if (!oneWon || list.occupancyOf(list.getCatalogue().slotIndex("WedAM"), list.getCatalogue().roomIndex("C")) != 1)
+				wrong++;
+		}
+		check(wrong == 0, "one of two concurrent reserves of a cell wins, wrong in " + wrong + " of 200 rounds");
+	}
+
+
+	/**
+	 * A change based on an old version of the module is turned down and changes nothing.
+	 */
+	private static void staleVersionIsTurnedDown()
+	{
+		ModulesList list = sample();
+		int seen = list.getVersion("EL102");
+		check(list.reserve("EL102", "MonPM", "C", seen) == SaveCheck.OK, "reserve with the current version");
+		check(list.reserve("EL102", "TueAM", "D", seen) == SaveCheck.VERSION_CONFLICT, "reserve with an old version is a conflict");
+		check(list.describe("EL102").equals("EL102 MonPM C 50 " + (seen + 1)), "conflict leaves the module, found " + list.describe("EL102"));
+	}
+
+
+	/**
+	 * Listeners (e.g. the journal) must hear the changes of a module in the order they were made, even when
+	 * the listener of the first change is slow and another thread changes the module meanwhile.
+	 */
+	private static void listenersHearChangesInOrder() throws Exception
+	{
+		ModulesList list = sample();
+		CountDownLatch firstHeard = new CountDownLatch(1), secondDone = new CountDownLatch(1);
+		List<String> heard = Collections.synchronizedList(new ArrayList<String>());
+		list.addChangeListener((code, time, room) -> {
+			if (firstHeard.getCount() > 0)
+			{
+				firstHeard.countDown();
+				try
+				{
+					secondDone.await(200, TimeUnit.MILLISECONDS); // the second change cannot be made meanwhile
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+			heard.add(time);
+		});
+		Thread first = new Thread(() -> list.reserve("EL201", "MonAM", "F", -1));
+		first.start();
+		firstHeard.await();
+		Thread second = new Thread(() -> {
+			list.reserve("EL201", "MonPM", "F", -1);
+			secondDone.countDown();
+		});
+		second.start();
+		first.join();
+		second.join();
+		check(heard.equals(Arrays.asList("MonAM", "MonPM")) && list.describe("EL201").startsWith("EL201 MonPM F "),
+				"listeners hear the changes in order, heard " + heard + " for " + list.describe("EL201"));
+	}
+
+
+	/**
+	 * A transaction may swap two modules of a programme, which no single move could do; a transaction with
+	 * one failing move makes none of them.
+	 */
+	private static void commitSwapsOrChangesNothing()
+	{
+		ModulesList list = sample();
+		list.setModuleInfo("EL102", "MonPM", "C");
+		list.setModuleInfo("EL103", "TueAM", "D");
+		ModulesList.Transaction swap = new ModulesList.Transaction().move("EL102", "TueAM", "D").move("EL103", "MonPM", "C");
+		check(list.commit(swap) == SaveCheck.OK, "swap of two modules of a programme is committed");
+		check(list.describe("EL102").startsWith("EL102 TueAM D ") && list.describe("EL103").startsWith("EL103 MonPM C "),
+				"swap moves both modules, found " + list.describe("EL102") + " and " + list.describe("EL103"));
+
+		ModulesList.Transaction clash = new ModulesList.Transaction().move("EL104", "WedAM", "C").move("EL105", "WedAM", "D");
+		check(list.commit(clash) == SaveCheck.PROGRAMME_CLASH && clash.getFailed() != -1, "transaction with a clash fails");
+		check(list.describe("EL104").startsWith("EL104 ????? ? ") && list.modulesAt("WedAM").isEmpty(),
+				"failed transaction moves nothing, found " + list.describe("EL104"));
+	}
+
+
+	/**
+	 * A module added while the program runs, of a programme no other module has, can be moved by a transaction.
+	 */
+	private static void commitMovesAModuleOfANewProgramme()
+	{
+		ModulesList list = sample();
+		list.addModule("ZZ101", "New", "?????", "?", 10);
+		SaveCheck check;
+		try
+		{
+			check = list.commit(new ModulesList.Transaction().move("ZZ101", "MonAM", "A"));
+		}
+		catch (RuntimeException e)
+		{
+			check = null;
+		}
+		check(check == SaveCheck.OK && list.describe("ZZ101").startsWith("ZZ101 MonAM A "),
+				"commit moves a module of a new programme: " + check + ", " + list.describe("ZZ101"));
+	}
+
+
+	/**
+	 * The versions a commit gives back are those its moves made, even if another user changes the module
+	 * as soon as the commit lets go of the locks.
+	 */
+	private static void commitKeepsItsOwnVersions() throws Exception
+	{
+		ModulesList list = sample();
+		int seen = list.getVersion("EL201");
+		Thread[] next = new Thread[1];
+		list.addChangeListener((code, time, room) -> {
+			if (next[0] == null) // waits for the locks of the commit, then moves the module again
+				(next[0] = new Thread(() -> list.reserve("EL201", "MonPM", "F", -1))).start();
+		});
+		ModulesList.Transaction transaction = new ModulesList.Transaction().move("EL201", "MonAM", "F", seen);
+		check(list.commit(transaction) == SaveCheck.OK, "commit with the current version");
+		next[0].join();
+		check(transaction.getVersion(0) == seen + 1 && list.getVersion("EL201") == seen + 2,
+				"commit gives back its own version " + (seen + 1) + ", gave " + transaction.getVersion(0));
+	}
+
+
+	/**
+	 * Scheduling and then optimising the sample timetable with enrolments must never give a student two
+	 * modules at the same time.
+	 */
+	private static void optimiseKeepsStudentsApart() throws IOException
+	{
+		ModulesList list = sample();
+		ArrayList<String> lines = new ArrayList<String>();
+		for (int student = 0; student < 120; student++) // every student takes modules of two programmes
+			lines.add("S" + student + " " + MODULES[student % 6].split(" ")[0] + " " + MODULES[12 + student % 12].split(" ")[0]
+					+ " " + MODULES[6 + student % 5].split(" ")[0]);
+		list.setEnrolments(enrolments(list, lines.toArray(new String[0])));
+
+		new DecomposedScheduler(list, null).run(ForkJoinPool.commonPool());
+		check(studentClashes(list) == 0, "no student clashes after schedule, found " + studentClashes(list));
+		long[] penalty = TimetableOptimizer.optimize(list, 200000);
+		check(penalty[1] <= penalty[0], "optimise does not make the penalty worse: " + Arrays.toString(penalty));
+		check(studentClashes(list) == 0, "no student clashes after optimise, found " + studentClashes(list));
+	}
+
+
+	/**
+	 * Like AutoScheduler, DecomposedScheduler must not use Wednesday afternoon while other cells are free
+	 * (it did with EL101 in MonAM A, putting IT108 in WedPM A).
+	 */
+	private static void decomposedLeavesWedPmFree()
+	{
+		ModulesList list = sample();
+		list.setModuleInfo("EL101", "MonAM", "A");
+		ModulesList plain = sample();
+		plain.setModuleInfo("EL101", "MonAM", "A");
+		AutoScheduler.Result expected = new AutoScheduler(new ScheduleProblem(plain)).solve();
+		expected.apply(plain);
+		check(plain.modulesAt("WedPM").size() == 0, "AutoScheduler leaves WedPM free");
+
+		DecomposedScheduler.Result result = new DecomposedScheduler(list, null).run(ForkJoinPool.commonPool());
+		check(result.placedAmount() == expected.placedAmount(), "DecomposedScheduler places as many modules as AutoScheduler: "
+				+ result.placedAmount() + " and " + expected.placedAmount());
+		check(list.modulesAt("WedPM").size() == 0, "DecomposedScheduler leaves WedPM free, found " + list.modulesAt("WedPM").size());
+	}
+
+
+	/**
+	 * A SolveCache entry found with some enrolments must not be used with others: the key changes with the
+	 * content of the enrolments file, and only with it.
+	 */
+	private static void cacheKeyFollowsEnrolments() throws IOException
+	{
+		ModulesList list = sample();
+		String none = cacheKey(list);
+		list.setEnrolments(enrolments(list, "S1 EL102 IT104"));
+		String first = cacheKey(list);
+		list.setEnrolments(enrolments(list, "S1 EL102 IT104"));
+		String same = cacheKey(list);
+		list.setEnrolments(enrolments(list, "S1 EL102 IT106"));
+		String other = cacheKey(list);
+		check(!first.equals(none), "cache key changes when enrolments are loaded");
+		check(first.equals(same), "cache key is the same for the same enrolments file content");
+		check(!other.equals(first), "cache key changes with the enrolments file content");
+	}
+
+
+	/**
+	 * Enrolments must follow modules added and removed while the program runs, as if the file was read again:
+	 * a removed module gives its ID to the last one, and an added module gets the students the file gave its code.
+	 */
+	private static void enrolmentsFollowAddedAndRemovedModules() throws IOException
+	{
+		String[] lines = {"S1 EL101 IT219", "S2 IT219 EL202", "S3 EL103 ZZ101", "S4 ZZ101 IT101 EL102"};
+		ModulesList list = sample();
+		list.setEnrolments(enrolments(list, lines));
+		list.removeModule("EL101"); // IT219 takes its ID
+		list.addModule("ZZ101", "New", "?????", "?", 10);
+		list.removeModule("EL102"); // ZZ101 takes its ID
+		EnrolmentConflicts kept = list.getEnrolments(), loaded = enrolments(list, lines);
+		int wrong = 0;
+		for (int module = 0; module < list.getStore().size(); module++)
+			for (int other = 0; other < list.getStore().size(); other++)
+				if (kept.clashes(module, other) != loaded.clashes(module, other)
+						|| kept.sharedStudents(module, other) != loaded.sharedStudents(module, other))
+					wrong++;
+		check(wrong == 0, "enrolments after add and remove are those of the file read again, " + wrong + " pairs differ");
+		int it219 = list.getStore().find("IT219"), zz101 = list.getStore().find("ZZ101");
+		check(kept.clashes(it219, list.getStore().find("EL202")) && kept.clashes(zz101, list.getStore().find("IT101")),
+				"modules that changed ID keep their clashes");
+	}
+
+
+	/**
+	 * After a crash, the snapshot and journal must give back the timetable as it was, with modules that were
+	 * moved, resized, added and removed since the snapshot, in the same order.
+	 */
+	private static void journalRecoversTheTimetable() throws Exception
+	{
+		Path folder = Files.createTempDirectory("Journal");
+		Path input = folder.resolve("ModulesIn.txt"), output = folder.resolve("ModulesOut.txt");
+		Files.write(input, Arrays.asList(MODULES), StandardCharsets.UTF_8);
+		ModulesList list = new ModuleFileParser().load(input.toString());
+		ChangeJournal journal = new ChangeJournal(list, output.toString(), false, ChangeJournal.DEFAULT_COMPACT_EVERY);
+		try
+		{
+			list.setModuleInfo("EL102", "MonPM", "C");
+			list.addModule("ZZ101", "New", "?????", "?", 10);
+			list.commit(new ModulesList.Transaction().move("ZZ101", "TueAM", "A").move("EL103", "TueAM", "D"));
+			list.removeModule("EL101"); // IT219 takes its place
+			list.setModuleSize("IT219", 55);
+			list.removeModule("ZZ101");
+			list.addModule("ZZ102", "Newer", "WedAM", "B", 20);
+			Path journalPath = ChangeJournal.journalPathOf(output.toString());
+			for (int wait = 0; wait < 500 && Files.readAllLines(journalPath).size() < 7; wait++)
+				Thread.sleep(10); // the writer thread is behind
+			check(Files.readAllLines(journalPath).size() == 7, "every change has a journal line, found "
+					+ Files.readAllLines(journalPath));
+			ModulesList recovered = ChangeJournal.recover(output.toString(), input.toString());
+			check(sameModules(recovered, list), "journal recovers the timetable, recovered\n"
+					+ recovered.printModules() + "expected\n" + list.printModules());
+		}
+		finally
+		{
+			journal.close();
+			for (Path path : new Path[] {input, output, ChangeJournal.journalPathOf(output.toString()), folder})
+				Files.deleteIfExists(path);
+		}
+	}
+
+
+	/**
+	 * Whether the lists have the same modules, fields and order.
+	 */
+	private static boolean sameModules(ModulesList list, ModulesList other)
+	{
+		Module[] modules = list.returnModules(), others = other.returnModules();
+		if (modules.length != others.length)
+			return false;
+		for (int i = 0; i < modules.length; i++)
+			if (!modules[i].outp().equals(others[i].outp()))
+				return false;
+		return true;
+	}
+
+
+	private static String cacheKey(ModulesList list)
+	{
+		ScheduleProblem problem = new ScheduleProblem(list);
+		return SolveCache.key(problem, SolveCache.canonicalOrder(problem));
+	}
+
+
+	/**
+	 * Loads enrolments from a temporary file with the given lines.
+	 */
+	private static EnrolmentConflicts enrolments(ModulesList list, String... lines) throws IOException
+	{
+		Path path = Files.createTempFile("Enrolments", ".txt");
+		try
+		{
+			Files.write(path, Arrays.asList(lines), StandardCharsets.UTF_8);
+			return EnrolmentConflicts.load(path, list.getStore());
+		}
+		finally
+		{
+			Files.delete(path);
+		}
+	}
+
+
+	private static void await(CyclicBarrier barrier)
+	{
+		try
+		{
+			barrier.await();
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Number of scheduled modules for which the Save checks report STUDENT_CLASH where they are.
+	 */
+	private static int studentClashes(ModulesList list)
+	{
+		ModuleStore store = list.getStore();
+		int clashes = 0;
+		for (int id = 0; id < store.size(); id++)
+			if (store.isPlaced(id) && list.checkSave(store.code(id), store.slotName(store.slot(id)),
+					store.roomName(store.room(id))) == SaveCheck.STUDENT_CLASH)
+				clashes++;
+		return clashes;
+	}
+
+
+	/**
+	 * Modules of ModulesIn.txt, on the built-in rooms and time slots.
+	 */
+	private static ModulesList sample()
+	{
+		return new ModulesList(new ArrayList<String>(Arrays.asList(MODULES)));
+	}
+
+
+	private static void check(boolean passed, String what)
+	{
+		checks++;
+		if (!passed)
+		{
+			failures++;
+			System.out.println("FAILED: " + what);
+		}
+	}
+}